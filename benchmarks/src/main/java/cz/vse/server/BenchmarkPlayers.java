@@ -0,0 +1,50 @@
+package cz.vse.server;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+
+// In-memory stand-ins for connected players. Output is rendered by the regular
+// TextOutput but written nowhere, and set on a claimed Session so the engine finds
+// the opponent's output the same way it does for real connections.
+final class BenchmarkPlayers {
+    private static final Session ONE = Session.claim("bench-one");
+    private static final Session TWO = Session.claim("bench-two");
+    static final int PLAYER_ONE = ONE.getId();
+    static final int PLAYER_TWO = TWO.getId();
+
+    // A legal fleet, ship i is FLEET_TYPES[i] on FLEET_CELLS[i] (x0, y0, x1, y1, ...)
+    static final ShipType[] FLEET_TYPES = {
+            ShipType.BATTLESHIP, ShipType.DESTROYER, ShipType.PATROL_BOAT, ShipType.L_SHIP, ShipType.T_SHIP
+    };
+    static final int[][] FLEET_CELLS = {
+            {1, 2, 2, 2, 3, 2, 4, 2},
+            {1, 4, 2, 4, 3, 4},
+            {7, 0, 8, 0},
+            {6, 5, 7, 5, 7, 6},
+            {0, 7, 0, 8, 0, 9, 1, 8}
+    };
+
+    // Never started: benchmarks call the engine directly on their own thread
+    private static final GameShard SHARD = new GameShard("benchmark-shard");
+
+    private BenchmarkPlayers() {
+    }
+
+    static PlayerOutput register(int player) {
+        PlayerOutput out = new TextOutput(new PrintWriter(Writer.nullWriter(), false));
+        Session.forId(player).setOutput(out);
+        return out;
+    }
+
+    static BattleshipGame newGame() {
+        return new BattleshipGame(ONE, TWO, SHARD);
+    }
+
+    // Places the first 'ships' ships of the fleet one PLACE at a time
+    static void placeShips(BattleshipGame game, int player, int ships, PlayerOutput out) {
+        for (int i = 0; i < ships; i++) {
+            int[] cells = FLEET_CELLS[i];
+            game.placeShip(player, FLEET_TYPES[i], cells, cells.length / 2, out);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package cz.vse.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+
+// One simulated player. Plays complete games over the text protocol, one connection
+// per game, until the run is stopping. Runs on its own (virtual) thread with blocking
+// sockets; the read timeout doubles as the idle timer that sends CHECK.
+final class Bot implements Runnable {
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    // Cell offsets (dx, dy) of each ShipType in one orientation, rotated at random
+    private static final ShipType[] SHIP_TYPES = ShipType.values();
+    private static final int[][] SHAPES = {
+            {0, 0, 1, 0, 2, 0, 3, 0},       // Battleship
+            {0, 0, 1, 0, 2, 0},             // Destroyer
+            {0, 0, 1, 0},                   // PatrolBoat
+            {0, 0, 1, 0, 1, 1},             // L-Ship
+            {0, 0, 0, 1, 0, 2, 1, 1}        // T-Ship
+    };
+
+    private final int id;
+    private final LoadGenerator.Options options;
+    private final LoadStats stats;
+    private final BooleanSupplier stopping;
+    private int generation;
+
+    // Per game
+    private OutputStream out;
+    private LineReader in;
+    private long checkSentAt;
+    private long idleSince;
+    // The game may start (and hand us the first turn) while placement answers arrive
+    private boolean myTurn;
+
+    Bot(int id, LoadGenerator.Options options, LoadStats stats, BooleanSupplier stopping) {
+        this.id = id;
+        this.options = options;
+        this.stats = stats;
+        this.stopping = stopping;
+    }
+
+    @Override
+    public void run() {
+        while (!stopping.getAsBoolean()) {
+            playOneGame();
+        }
+    }
+
+    private void playOneGame() {
+        String username = "bot-" + id + "-" + generation++;
+        try (Socket socket = new Socket()) {
+            try {
+                socket.connect(new InetSocketAddress(options.host, options.port), CONNECT_TIMEOUT);
+            } catch (IOException e) {
+                stats.connectFailures.increment();
+                pause(100);
+                return;
+            }
+            stats.connected.incrementAndGet();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(options.checkIntervalMillis);
+                out = socket.getOutputStream();
+                in = new LineReader(socket.getInputStream());
+                checkSentAt = 0;
+                myTurn = false;
+                play(username);
+            } catch (StalledException e) {
+                stats.stalled.increment();
+            } catch (IOException e) {
+                stats.dropped.increment();
+            } finally {
+                stats.connected.decrementAndGet();
+            }
+        } catch (IOException ignored) {
+            // close() failed, nothing left to clean up
+        }
+    }
+
+    private void play(String username) throws IOException {
+        long start = System.nanoTime();
+        send("LOGIN: " + username);
+        while (true) {
+            String line = next();
+            if (line.startsWith("INFO: Welcome, ")) {
+                stats.record(LoadStats.Kind.LOGIN, start);
+                break;
+            }
+            if (line.startsWith("ERROR")) {
+                stats.errors.increment();
+                return;
+            }
+        }
+
+        start = System.nanoTime();
+        send("READY");
+        while (!next().startsWith("OPPONENT: ")) {
+            // skip
+        }
+        stats.record(LoadStats.Kind.MATCH, start);
+
+        long gameStart = System.nanoTime();
+        int[][] fleet = randomFleet(ThreadLocalRandom.current());
+        placeFleet(fleet);
+        if (fire()) {
+            stats.record(LoadStats.Kind.GAME, gameStart);
+        }
+        send("EXIT");
+    }
+
+    private void placeFleet(int[][] fleet) throws IOException {
+        if (options.placeAll) {
+            StringBuilder sb = new StringBuilder("PLACEALL");
+            for (int s = 0; s < fleet.length; s++) {
+                sb.append(s == 0 ? " " : "; ").append(SHIP_TYPES[s].getDisplayName());
+                appendCells(sb, fleet[s]);
+            }
+            think();
+            long start = System.nanoTime();
+            send(sb.toString());
+            awaitPlaced(fleet.length, start);
+            return;
+        }
+        for (int s = 0; s < fleet.length; s++) {
+            StringBuilder sb = new StringBuilder("PLACE ").append(SHIP_TYPES[s].getDisplayName());
+            appendCells(sb, fleet[s]);
+            think();
+            long start = System.nanoTime();
+            send(sb.toString());
+            awaitPlaced(1, start);
+        }
+    }
+
+    private void awaitPlaced(int ships, long start) throws IOException {
+        while (ships > 0) {
+            String line = next();
+            if (line.startsWith("SUCCESS: PLACE")) {
+                ships--;
+            } else if (line.equals("INFO: Game Started: Your turn.")) {
+                myTurn = true;
+            } else if (line.startsWith("ERROR")) {
+                stats.errors.increment();
+                break;
+            }
+        }
+        stats.record(LoadStats.Kind.PLACE, start);
+    }
+
+    // Fires at random untried cells whenever it is our turn. True if the game was
+    // played to the end, false if it was cut short.
+    private boolean fire() throws IOException {
+        int[] targets = shuffledCells(ThreadLocalRandom.current());
+        int nextTarget = 0;
+        long firedAt = 0;
+        while (true) {
+            if (myTurn && firedAt == 0 && nextTarget < targets.length) {
+                think();
+                int cell = targets[nextTarget++];
+                firedAt = System.nanoTime();
+                send("FIRE " + cell / 10 + "," + cell % 10);
+            }
+            String line = next();
+            if (line.startsWith("SUCCESS: HIT: ") || line.startsWith("SUCCESS: MISS: ")) {
+                if (firedAt != 0) {
+                    stats.record(LoadStats.Kind.FIRE, firedAt);
+                    firedAt = 0;
+                }
+                myTurn = false;
+            } else if (line.startsWith("SUCCESS: Your turn") || line.equals("INFO: Game Started: Your turn.")) {
+                myTurn = true;
+            } else if (line.startsWith("INFO: You win!")) {
+                stats.gamesFinished.increment();
+                return true;
+            } else if (line.startsWith("INFO: You lose!")) {
+                return true;
+            } else if (line.equals("Your opponent forfeited! You win!")
+                    || line.startsWith("INFO: Your opponent has left")
+                    || line.startsWith("INFO: Your opponent was inactive")
+                    || line.startsWith("INFO: You have been inactive")) {
+                stats.gamesAbandoned.increment();
+                return false;
+            } else if (line.startsWith("ERROR")) {
+                stats.errors.increment();
+                firedAt = 0;
+                myTurn = !line.equals("ERROR: Not your turn!");
+            }
+        }
+    }
+
+    // Next line from the server; OK answers to our CHECK and PINGs are consumed here
+    private String next() throws IOException {
+        idleSince = System.nanoTime();
+        while (true) {
+            String line;
+            try {
+                line = in.readLine();
+            } catch (SocketTimeoutException e) {
+                if ((System.nanoTime() - idleSince) / 1_000_000 >= options.stallTimeoutMillis) {
+                    throw new StalledException();
+                }
+                if (checkSentAt == 0) {
+                    checkSentAt = System.nanoTime();
+                    send("CHECK");
+                }
+                continue;
+            }
+            if (line.equals("OK")) {
+                if (checkSentAt != 0) {
+                    stats.record(LoadStats.Kind.CHECK, checkSentAt);
+                    checkSentAt = 0;
+                }
+                continue;
+            }
+            if (line.equals("PING")) {
+                continue;
+            }
+            return line;
+        }
+    }
+
+    private void send(String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void think() {
+        int min = options.thinkMinMillis;
+        int max = options.thinkMaxMillis;
+        if (max > 0) {
+            pause(min == max ? min : ThreadLocalRandom.current().nextInt(min, max + 1));
+        }
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void appendCells(StringBuilder sb, int[] cells) {
+        for (int i = 0; i < cells.length; i += 2) {
+            sb.append(' ').append(cells[i]).append(',').append(cells[i + 1]);
+        }
+    }
+
+    private static int[] shuffledCells(ThreadLocalRandom random) {
+        int[] cells = new int[100];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = i;
+        }
+        for (int i = cells.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = cells[i];
+            cells[i] = cells[j];
+            cells[j] = tmp;
+        }
+        return cells;
+    }
+
+    // A legal random fleet: every ship rotated and shifted at random, retried until it
+    // neither touches nor overlaps the ships placed before it
+    static int[][] randomFleet(ThreadLocalRandom random) {
+        int[][] fleet = new int[SHAPES.length][];
+        boolean[] blocked = new boolean[100];
+        for (int s = 0; s < SHAPES.length; s++) {
+            int[] cells = null;
+            while (cells == null) {
+                cells = tryPlace(SHAPES[s], random, blocked);
+            }
+            fleet[s] = cells;
+            for (int i = 0; i < cells.length; i += 2) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    for (int dy = -1; dy <= 1; dy++) {
+                        int x = cells[i] + dx;
+                        int y = cells[i + 1] + dy;
+                        if (x >= 0 && x < 10 && y >= 0 && y < 10) {
+                            blocked[x * 10 + y] = true;
+                        }
+                    }
+                }
+            }
+        }
+        return fleet;
+    }
+
+    private static int[] tryPlace(int[] shape, ThreadLocalRandom random, boolean[] blocked) {
+        int[] cells = Arrays.copyOf(shape, shape.length);
+        for (int r = random.nextInt(4); r > 0; r--) {
+            for (int i = 0; i < cells.length; i += 2) {
+                int x = cells[i];
+                cells[i] = cells[i + 1];
+                cells[i + 1] = -x;
+            }
+        }
+        int x0 = random.nextInt(10);
+        int y0 = random.nextInt(10);
+        for (int i = 0; i < cells.length; i += 2) {
+            int x = cells[i] + x0;
+            int y = cells[i + 1] + y0;
+            if (x < 0 || x >= 10 || y < 0 || y >= 10 || blocked[x * 10 + y]) {
+                return null;
+            }
+            cells[i] = x;
+            cells[i + 1] = y;
+        }
+        return cells;
+    }
+
+    private static final class StalledException extends IOException {
+        StalledException() {
+            super("No progress within the stall timeout");
+        }
+    }
+
+    // Line reader that keeps a partially received line across read timeouts, which
+    // BufferedReader does not guarantee
+    private static final class LineReader {
+        private final InputStream in;
+        private final byte[] buf = new byte[8192];
+        private int pos;
+        private int limit;
+        private byte[] line = new byte[256];
+        private int lineLength;
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        String readLine() throws IOException {
+            while (true) {
+                while (pos < limit) {
+                    byte b = buf[pos++];
+                    if (b == '\n') {
+                        int length = lineLength;
+                        if (length > 0 && line[length - 1] == '\r') {
+                            length--;
+                        }
+                        lineLength = 0;
+                        return new String(line, 0, length, StandardCharsets.UTF_8);
+                    }
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[lineLength++] = b;
+                }
+                int n = in.read(buf);
+                if (n < 0) {
+                    throw new EOFException("Server closed the connection");
+                }
+                pos = 0;
+                limit = n;
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package cz.vse.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Shot selection of the built-in bot. "hunt" is an empty board, the widest density
+// pass; "target" has a wounded battleship on a board with some misses, so only the
+// placements through the hits count. "huntLarge" is the empty 100x100 board, whose
+// pass runs on the fork/join pool.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.xml")
+@State(Scope.Thread)
+public class BotBenchmark {
+    private BotTargeting hunt;
+    private BotTargeting target;
+    private BotTargeting huntLarge;
+
+    @Setup
+    public void setUp() {
+        hunt = new BotTargeting(new Random(1), GameMode.CLASSIC);
+        target = new BotTargeting(new Random(1), GameMode.CLASSIC);
+        huntLarge = new BotTargeting(new Random(1), GameMode.forName("large"));
+        for (int cell : new int[]{0, 11, 22, 33, 44, 55, 66, 77, 88, 99, 9, 18, 27, 36}) {
+            target.recordShot(cell, false);
+        }
+        target.recordShot(Bitboard.index(5, 2), true);
+        target.recordShot(Bitboard.index(6, 2), true);
+    }
+
+    @Benchmark
+    public int hunt() {
+        return hunt.nextShot();
+    }
+
+    @Benchmark
+    public int target() {
+        return target.nextShot();
+    }
+
+    @Benchmark
+    public int huntLarge() {
+        return huntLarge.nextShot();
+    }
+}
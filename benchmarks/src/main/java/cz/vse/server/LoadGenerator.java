@@ -0,0 +1,170 @@
+package cz.vse.server;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Headless load test against a running Server. Every bot is a virtual thread with its
+// own TCP connection that logs in, queues, places a random fleet and fires until the
+// game is over, then reconnects for the next game. Prints throughput every report
+// interval and per-command round-trip latency at the end.
+//
+//   java -cp benchmarks/target/benchmarks.jar cz.vse.server.LoadGenerator \
+//        --clients 2000 --duration 60 --think 0-20 --ramp-up 5
+public final class LoadGenerator {
+    static final class Options {
+        String host = "localhost";
+        int port = 12345;
+        int clients = 100;
+        int durationSeconds = 30;
+        int rampUpSeconds = 1;
+        int reportSeconds = 5;
+        int thinkMinMillis;
+        int thinkMaxMillis;
+        int checkIntervalMillis = 1000;
+        int stallTimeoutMillis = 60 * 1000;
+        // Grace period for games still running when the duration is over
+        int drainSeconds = 30;
+        boolean placeAll;
+    }
+
+    private static volatile boolean stopping;
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Options options = parse(args);
+        LoadStats stats = new LoadStats();
+
+        System.out.printf("Load test: %d bots against %s:%d for %d s (think %d-%d ms, %s)%n",
+                options.clients, options.host, options.port, options.durationSeconds,
+                options.thinkMinMillis, options.thinkMaxMillis, options.placeAll ? "PLACEALL" : "PLACE");
+
+        long start = System.nanoTime();
+        List<Thread> bots = new ArrayList<>(options.clients);
+        Thread starter = Thread.ofVirtual().start(() -> {
+            long rampUpNanos = TimeUnit.SECONDS.toNanos(options.rampUpSeconds);
+            for (int i = 0; i < options.clients && !stopping; i++) {
+                long due = start + rampUpNanos * i / options.clients;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                Bot bot = new Bot(i, options, stats, () -> stopping);
+                synchronized (bots) {
+                    bots.add(Thread.ofVirtual().name("bot-" + i).start(bot));
+                }
+            }
+        });
+
+        long end = start + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        long lastGames = 0;
+        long lastReport = start;
+        while (System.nanoTime() < end) {
+            long next = Math.min(end, lastReport + TimeUnit.SECONDS.toNanos(options.reportSeconds));
+            TimeUnit.NANOSECONDS.sleep(Math.max(0, next - System.nanoTime()));
+            long now = System.nanoTime();
+            long games = stats.gamesFinished.sum();
+            report(stats, now - start, games - lastGames, now - lastReport);
+            lastGames = games;
+            lastReport = now;
+        }
+
+        stopping = true;
+        starter.join();
+        long drainEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.drainSeconds);
+        synchronized (bots) {
+            for (Thread bot : bots) {
+                long left = drainEnd - System.nanoTime();
+                if (left <= 0 || !bot.join(Duration.ofNanos(left))) {
+                    break;
+                }
+            }
+        }
+        summary(stats, System.nanoTime() - start);
+        // Bots that did not finish within the drain period are abandoned
+        System.exit(0);
+    }
+
+    private static void report(LoadStats stats, long elapsedNanos, long games, long intervalNanos) {
+        System.out.printf(Locale.ROOT,
+                "[%5.0f s] connected %6d | games %8d (%8.1f/s) | abandoned %d | connect failures %d | dropped %d | stalled %d | errors %d%n",
+                elapsedNanos / 1e9, stats.connected.get(), stats.gamesFinished.sum(), games / (intervalNanos / 1e9),
+                stats.gamesAbandoned.sum(), stats.connectFailures.sum(), stats.dropped.sum(),
+                stats.stalled.sum(), stats.errors.sum());
+    }
+
+    private static void summary(LoadStats stats, long elapsedNanos) {
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Finished games: %d in %.1f s (%.1f/s), %d abandoned%n",
+                stats.gamesFinished.sum(), elapsedNanos / 1e9, stats.gamesFinished.sum() / (elapsedNanos / 1e9),
+                stats.gamesAbandoned.sum());
+        System.out.printf("Connect failures: %d, dropped: %d, stalled: %d, errors: %d, still connected: %d%n",
+                stats.connectFailures.sum(), stats.dropped.sum(), stats.stalled.sum(), stats.errors.sum(),
+                stats.connected.get());
+        System.out.println();
+        System.out.printf("%-6s %10s %10s %10s %10s %10s %10s %10s%n",
+                "ms", "count", "mean", "p50", "p90", "p99", "p99.9", "max");
+        for (LoadStats.Kind kind : LoadStats.Kind.values()) {
+            LatencyHistogram h = stats.latency.get(kind);
+            System.out.printf(Locale.ROOT, "%-6s %10d %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f%n",
+                    kind, h.getCount(), h.getMean() / 1e6,
+                    h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(90) / 1e6,
+                    h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6, h.getMax() / 1e6);
+        }
+    }
+
+    private static Options parse(String[] args) {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--place-all")) {
+                options.placeAll = true;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                usage("Missing value for " + arg);
+            }
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--host" -> options.host = value;
+                    case "--port" -> options.port = Integer.parseInt(value);
+                    case "--clients" -> options.clients = Integer.parseInt(value);
+                    case "--duration" -> options.durationSeconds = Integer.parseInt(value);
+                    case "--ramp-up" -> options.rampUpSeconds = Integer.parseInt(value);
+                    case "--report" -> options.reportSeconds = Integer.parseInt(value);
+                    case "--check-interval" -> options.checkIntervalMillis = Integer.parseInt(value);
+                    case "--stall-timeout" -> options.stallTimeoutMillis = Integer.parseInt(value) * 1000;
+                    case "--drain" -> options.drainSeconds = Integer.parseInt(value);
+                    case "--think" -> {
+                        int dash = value.indexOf('-');
+                        options.thinkMinMillis = Integer.parseInt(dash < 0 ? value : value.substring(0, dash));
+                        options.thinkMaxMillis = Integer.parseInt(dash < 0 ? value : value.substring(dash + 1));
+                    }
+                    default -> usage("Unknown option " + arg);
+                }
+            } catch (NumberFormatException e) {
+                usage("Not a number: " + arg + " " + value);
+            }
+        }
+        if (options.clients < 1 || options.thinkMinMillis > options.thinkMaxMillis) {
+            usage("Invalid options");
+        }
+        return options;
+    }
+
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println("Options: --host h --port p --clients n --duration s --ramp-up s --report s");
+        System.err.println("         --think min-max (ms) --check-interval ms --stall-timeout s --drain s --place-all");
+        System.exit(2);
+    }
+}
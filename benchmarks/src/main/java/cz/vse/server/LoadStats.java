@@ -0,0 +1,38 @@
+package cz.vse.server;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and latency histograms shared by every bot of a LoadGenerator run
+final class LoadStats {
+    // Round trips measured by the bots, from sending a line to reading its answer
+    enum Kind {
+        LOGIN,  // LOGIN -> "INFO: Welcome, name!"
+        MATCH,  // READY -> "OPPONENT: name", mostly time spent waiting in the queue
+        PLACE,  // PLACE or PLACEALL -> (last) "SUCCESS: PLACE" or "ERROR"
+        FIRE,   // FIRE -> "SUCCESS: HIT/MISS"
+        CHECK,  // CHECK -> "OK"
+        GAME    // first line of placement -> game over
+    }
+
+    final Map<Kind, LatencyHistogram> latency = new EnumMap<>(Kind.class);
+    final AtomicInteger connected = new AtomicInteger();
+    final LongAdder gamesFinished = new LongAdder(); // counted by the winner only
+    final LongAdder gamesAbandoned = new LongAdder(); // opponent left, forfeited or timed out
+    final LongAdder connectFailures = new LongAdder();
+    final LongAdder dropped = new LongAdder(); // connection lost in the middle of a game
+    final LongAdder stalled = new LongAdder(); // no progress within the stall timeout
+    final LongAdder errors = new LongAdder(); // ERROR lines from the server
+
+    LoadStats() {
+        for (Kind kind : Kind.values()) {
+            latency.put(kind, new LatencyHistogram());
+        }
+    }
+
+    void record(Kind kind, long startNanos) {
+        latency.get(kind).record(System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,56 @@
+package cz.vse.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// GameManager.addPlayerToQueue with several threads logging in at once, each waiting
+// until the Matchmaker has paired it: the score is logins per microsecond, and the
+// sample-time run gives the time-to-match percentiles. Every player leaves again
+// right away, which also ends the game for the opponent, so the registry stays small
+// for the whole run. Everyone has the initial rating, so all land in one bucket.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.xml")
+@Threads(4)
+public class MatchmakingBenchmark {
+    private static final AtomicInteger threadIds = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Player {
+        private final String prefix = "bench-" + threadIds.getAndIncrement() + "-";
+        private long next;
+
+        String nextName() {
+            return prefix + next++;
+        }
+    }
+
+    // Reported next to the score, per iteration
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcome {
+        public long paired;
+        // Left alone at the end of an iteration, when the other threads stopped logging in
+        public long unpaired;
+    }
+
+    @Benchmark
+    public void addPlayerToQueue(Player player, Outcome outcome) throws InterruptedException, ExecutionException {
+        Session session = Session.claim(player.nextName());
+        GameManager.addPlayerToQueue(session);
+        try {
+            GameManager.awaitGame(session).get(100, TimeUnit.MILLISECONDS);
+            outcome.paired++;
+        } catch (TimeoutException e) {
+            outcome.unpaired++;
+        }
+        GameManager.removePlayer(session);
+        session.release();
+    }
+}
@@ -0,0 +1,50 @@
+package cz.vse.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static cz.vse.server.BenchmarkPlayers.*;
+
+// processMove on a game in progress. Every path leaves the game in a state where the
+// same operation can run again: repeated hits keep the turn, and the patrol boat's
+// other cell is already hit, so firing at 8,0 sinks it on every call.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.xml")
+@State(Scope.Thread)
+public class MoveBenchmark {
+    private BattleshipGame game;
+    private PlayerOutput out1;
+    private PlayerOutput out2;
+
+    @Setup
+    public void setUp() {
+        out1 = register(PLAYER_ONE);
+        out2 = register(PLAYER_TWO);
+        game = newGame();
+        placeShips(game, PLAYER_ONE, FLEET_TYPES.length, out1);
+        placeShips(game, PLAYER_TWO, FLEET_TYPES.length, out2);
+        game.processMove(PLAYER_ONE, 7, 0, out1);
+    }
+
+    // A miss passes the turn, so each player misses once
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void miss() {
+        game.processMove(PLAYER_ONE, 9, 9, out1);
+        game.processMove(PLAYER_TWO, 9, 9, out2);
+    }
+
+    @Benchmark
+    public void hit() {
+        game.processMove(PLAYER_ONE, 1, 2, out1);
+    }
+
+    @Benchmark
+    public void sink() {
+        game.processMove(PLAYER_ONE, 8, 0, out1);
+    }
+}
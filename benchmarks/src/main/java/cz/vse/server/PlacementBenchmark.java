@@ -0,0 +1,85 @@
+package cz.vse.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static cz.vse.server.BenchmarkPlayers.*;
+
+// Fleet setup: a fresh game with both fleets placed per operation, plus the rejection
+// and adjacency checks on a board that already holds four ships.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.xml")
+@State(Scope.Thread)
+public class PlacementBenchmark {
+    private PlayerOutput out1;
+    private PlayerOutput out2;
+
+    // PLACEALL form of the fleet
+    private final int[] fleetCells = new int[32];
+    private final int[] shipStart = new int[FLEET_TYPES.length + 1];
+
+    // Player one has every ship but the T-Ship
+    private BattleshipGame partial;
+    private final int[] adjacentCells = {5, 2, 5, 3, 5, 4, 6, 3};
+    private final int[] adjacentShip = new int[4];
+    private final int[] clearShip = new int[4];
+
+    @Setup
+    public void setUp() {
+        out1 = register(PLAYER_ONE);
+        out2 = register(PLAYER_TWO);
+
+        int cellCount = 0;
+        for (int s = 0; s < FLEET_TYPES.length; s++) {
+            shipStart[s] = cellCount;
+            System.arraycopy(FLEET_CELLS[s], 0, fleetCells, 2 * cellCount, FLEET_CELLS[s].length);
+            cellCount += FLEET_CELLS[s].length / 2;
+        }
+        shipStart[FLEET_TYPES.length] = cellCount;
+
+        partial = newGame();
+        placeShips(partial, PLAYER_ONE, FLEET_TYPES.length - 1, out1);
+        for (int i = 0; i < adjacentCells.length; i += 2) {
+            adjacentShip[i / 2] = GameMode.CLASSIC.index(adjacentCells[i], adjacentCells[i + 1]);
+        }
+        int[] tShip = FLEET_CELLS[FLEET_TYPES.length - 1];
+        for (int i = 0; i < tShip.length; i += 2) {
+            clearShip[i / 2] = GameMode.CLASSIC.index(tShip[i], tShip[i + 1]);
+        }
+    }
+
+    @Benchmark
+    public BattleshipGame placeFleetOneByOne() {
+        BattleshipGame game = newGame();
+        placeShips(game, PLAYER_ONE, FLEET_TYPES.length, out1);
+        placeShips(game, PLAYER_TWO, FLEET_TYPES.length, out2);
+        return game;
+    }
+
+    @Benchmark
+    public BattleshipGame placeFleetAtOnce() {
+        BattleshipGame game = newGame();
+        game.placeFleet(PLAYER_ONE, FLEET_TYPES, shipStart, FLEET_TYPES.length, fleetCells, out1);
+        game.placeFleet(PLAYER_TWO, FLEET_TYPES, shipStart, FLEET_TYPES.length, fleetCells, out2);
+        return game;
+    }
+
+    @Benchmark
+    public boolean placeShipRejectedAsAdjacent() {
+        return partial.placeShip(PLAYER_ONE, ShipType.T_SHIP, adjacentCells, adjacentCells.length / 2, out1);
+    }
+
+    @Benchmark
+    public boolean isAdjacentTouching() {
+        return partial.isAdjacent(PLAYER_ONE, adjacentShip, adjacentShip.length);
+    }
+
+    @Benchmark
+    public boolean isAdjacentClear() {
+        return partial.isAdjacent(PLAYER_ONE, clearShip, clearShip.length);
+    }
+}
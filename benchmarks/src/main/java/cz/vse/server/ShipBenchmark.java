@@ -0,0 +1,43 @@
+package cz.vse.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Ship hit bookkeeping. The battleship has three of its four cells hit, so hitting the
+// last one sinks it every time.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.xml")
+@State(Scope.Thread)
+public class ShipBenchmark {
+    private Ship ship;
+    private int lastCell;
+    private int water;
+
+    @Setup
+    public void setUp() {
+        int[] cells = new int[4];
+        for (int x = 1; x <= 4; x++) {
+            cells[x - 1] = Bitboard.index(x, 2);
+        }
+        ship = new Ship(ShipType.BATTLESHIP, cells, GameMode.CLASSIC);
+        for (int x = 1; x <= 3; x++) {
+            ship.registerHit(Bitboard.index(x, 2));
+        }
+        lastCell = Bitboard.index(4, 2);
+        water = Bitboard.index(9, 9);
+    }
+
+    @Benchmark
+    public boolean hitAndSink() {
+        return ship.registerHit(lastCell) && ship.isSunk();
+    }
+
+    @Benchmark
+    public boolean missed() {
+        return ship.registerHit(water) || ship.isSunk();
+    }
+}
@@ -0,0 +1,547 @@
+package cz.vse.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Plays whole games on GameEngine directly: no sockets, shards or logging, one game
+// at a time per core. Used to balance strategies and game modes, to check that a
+// change to the rules still produces the recorded results, and as the upper bound of
+// what the engine can do without the server around it.
+//
+//   java -cp benchmarks/target/benchmarks.jar cz.vse.server.Simulation \
+//        --games 1000000 --mode classic --strategy bot:hunt --seed 42
+//
+// Game n is seeded from (seed, n) alone, so a run gives the same results on any
+// number of threads. --record writes the games as text protocol commands,
+// --replay plays such a file again and reports every game that ends differently.
+// --journal appends the games to a GameJournal in the given directory, with game n
+// as journal id n, e.g. to give JournalReplay full segments to stream.
+public final class Simulation {
+    static final class Options {
+        long games = 1_000_000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        GameMode mode = GameMode.CLASSIC;
+        // bot for classic games, hunt for the others unless given
+        String[] strategies;
+        long seed = System.nanoTime();
+        int reportSeconds = 5;
+        Path record;
+        Path replay;
+        Path journal;
+    }
+
+    // Games are handed to the threads in batches of this many
+    private static final int BATCH = 256;
+
+    private final Options options;
+    private final AtomicLong nextGame = new AtomicLong();
+    private final LongAdder gamesPlayed = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder[] wins = {new LongAdder(), new LongAdder()};
+    private final LongAdder mismatches = new LongAdder();
+    private final LatencyHistogram shotsPerGame = new LatencyHistogram();
+    private BufferedWriter recording;
+    private List<RecordedGame> recorded;
+
+    private Simulation(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Options options = parse(args);
+        Simulation simulation = new Simulation(options);
+        if (options.replay != null) {
+            simulation.recorded = readRecording(options);
+            options.games = simulation.recorded.size();
+            System.out.printf("Replaying %d %s games from %s on %d threads%n",
+                    options.games, options.mode, options.replay, options.threads);
+        } else {
+            System.out.printf("Simulation: %d %s games on %d threads (%s vs %s, seed %d)%n",
+                    options.games, options.mode, options.threads, options.strategies[0], options.strategies[1],
+                    options.seed);
+        }
+        if (options.record != null) {
+            simulation.recording = Files.newBufferedWriter(options.record, StandardCharsets.US_ASCII);
+            simulation.recording.write("# mode " + options.mode.getName() + "\n");
+        }
+        if (options.journal != null) {
+            GameJournal.open(options.journal);
+        }
+        simulation.run();
+        GameJournal.close();
+        if (simulation.recording != null) {
+            simulation.recording.close();
+        }
+        System.exit(simulation.mismatches.sum() == 0 ? 0 : 1);
+    }
+
+    private void run() throws InterruptedException {
+        long start = System.nanoTime();
+        List<Thread> workers = new ArrayList<>(options.threads);
+        for (int i = 0; i < options.threads; i++) {
+            workers.add(Thread.ofPlatform().name("simulation-" + i).start(this::work));
+        }
+
+        long lastGames = 0;
+        long lastReport = start;
+        for (Thread worker : workers) {
+            while (!worker.join(Duration.ofSeconds(options.reportSeconds))) {
+                long now = System.nanoTime();
+                long games = gamesPlayed.sum();
+                System.out.printf(Locale.ROOT, "[%5.0f s] games %10d (%10.1f/s)%n",
+                        (now - start) / 1e9, games, (games - lastGames) / ((now - lastReport) / 1e9));
+                lastGames = games;
+                lastReport = now;
+            }
+        }
+        summary(System.nanoTime() - start);
+    }
+
+    private void work() {
+        Worker worker = new Worker();
+        while (true) {
+            long first = nextGame.getAndAdd(BATCH);
+            if (first >= options.games) {
+                return;
+            }
+            long last = Math.min(options.games, first + BATCH);
+            for (long game = first; game < last; game++) {
+                if (recorded != null) {
+                    worker.replay(recorded.get((int) game));
+                } else {
+                    worker.play(game);
+                }
+                gamesPlayed.increment();
+            }
+        }
+    }
+
+    private void summary(long elapsedNanos) {
+        long games = gamesPlayed.sum();
+        long shots = moves.sum();
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Games: %d in %.1f s (%.1f/s), %d shots (%.1f/s)%n",
+                games, seconds, games / seconds, shots, shots / seconds);
+        for (int seat = 0; seat < 2; seat++) {
+            long won = wins[seat].sum();
+            System.out.printf(Locale.ROOT, "Seat %d (%s) won %d (%.2f%%)%n",
+                    seat, recorded != null ? "recorded" : options.strategies[seat], won,
+                    games == 0 ? 0.0 : 100.0 * won / games);
+        }
+        System.out.printf("%-14s %10s %10s %10s %10s %10s %10s%n", "", "mean", "p50", "p90", "p99", "p99.9", "max");
+        System.out.printf(Locale.ROOT, "%-14s %10.1f %10d %10d %10d %10d %10d%n", "shots per game",
+                shotsPerGame.getMean(), shotsPerGame.getValueAtPercentile(50),
+                shotsPerGame.getValueAtPercentile(90), shotsPerGame.getValueAtPercentile(99),
+                shotsPerGame.getValueAtPercentile(99.9), shotsPerGame.getMax());
+        if (recorded != null) {
+            System.out.printf("Mismatches: %d of %d games%n", mismatches.sum(), games);
+        }
+    }
+
+    // One per thread; everything here is reused from game to game
+    private final class Worker {
+        private final GameMode mode = options.mode;
+        private final Command command = new Command();
+        private final int[] cells = new int[Command.MAX_CELLS * 2];
+        private final StringBuilder log = options.record != null ? new StringBuilder() : null;
+
+        void play(long game) {
+            Random random = new Random(mix(options.seed, game));
+            GameEngine engine = new GameEngine(mode);
+            GameJournal.created(game, mode, options.strategies[0], options.strategies[1]);
+            if (log != null) {
+                log.setLength(0);
+                log.append("# game ").append(game).append('\n');
+            }
+            for (int seat = 0; seat < 2; seat++) {
+                placeFleet(engine, game, seat, random);
+            }
+            Shooter[] shooters = {shooter(options.strategies[0], random), shooter(options.strategies[1], random)};
+            while (engine.getState() == GameState.IN_PROGRESS) {
+                int seat = engine.getTurn();
+                int cell = shooters[seat].next();
+                int x = mode.row(cell);
+                int y = mode.column(cell);
+                GameEngine.Shot shot = engine.fire(seat, x, y);
+                shooters[seat].result(cell, shot, engine.getLastShip());
+                GameJournal.fired(game, seat, x, y, shot);
+                if (log != null) {
+                    log.append(seat).append(" FIRE ").append(x).append(',').append(y).append('\n');
+                }
+            }
+            finished(engine);
+            GameJournal.finished(game, engine.getWinner(), engine.getShots());
+            if (log != null) {
+                log.append("= ").append(engine.getWinner()).append(' ').append(engine.getShots()).append('\n');
+                synchronized (Simulation.this) {
+                    try {
+                        recording.append(log);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Cannot write " + options.record, e);
+                    }
+                }
+            }
+        }
+
+        void replay(RecordedGame game) {
+            GameEngine engine = new GameEngine(mode);
+            for (int i = 0; i < game.lines.size(); i++) {
+                byte[] line = game.lines.get(i);
+                int seat = game.seats[i];
+                CommandParser.parse(line, line.length, command);
+                if (!command.isValid()) {
+                    mismatch(game, "cannot parse '" + new String(line, StandardCharsets.US_ASCII) + "'");
+                    return;
+                }
+                switch (command.getType()) {
+                    case PLACE -> engine.placeShip(seat, command.shipType, command.cells, 0, command.cellCount);
+                    case PLACE_ALL -> engine.placeFleet(seat, command.shipTypes, command.shipStart,
+                            command.shipCount, command.cells);
+                    case FIRE -> engine.fire(seat, command.x, command.y);
+                    default -> {
+                        mismatch(game, "unexpected " + command.getType());
+                        return;
+                    }
+                }
+            }
+            finished(engine);
+            if (engine.getWinner() != game.winner || engine.getShots() != game.shots) {
+                mismatch(game, "expected seat " + game.winner + " to win after " + game.shots
+                        + " shots, got seat " + engine.getWinner() + " after " + engine.getShots());
+            }
+        }
+
+        private void finished(GameEngine engine) {
+            moves.add(engine.getShots());
+            shotsPerGame.record(engine.getShots());
+            if (engine.getWinner() >= 0) {
+                wins[engine.getWinner()].increment();
+            }
+        }
+
+        // Classic fleets come from the bot as one PLACEALL; other modes are placed
+        // ship by ship at random until every ship fits
+        private void placeFleet(GameEngine engine, long game, int seat, Random random) {
+            if (mode == GameMode.CLASSIC) {
+                List<int[]> fleet = BotTargeting.randomFleet(mode, random);
+                ShipType[] types = ShipType.values();
+                int[] shipStart = new int[types.length + 1];
+                int[] fleetCells = new int[types.length * Command.MAX_CELLS * 2];
+                for (int s = 0; s < types.length; s++) {
+                    int[] ship = fleet.get(s);
+                    System.arraycopy(ship, 0, fleetCells, shipStart[s] * 2, ship.length);
+                    shipStart[s + 1] = shipStart[s] + ship.length / 2;
+                }
+                if (engine.placeFleet(seat, types, shipStart, types.length, fleetCells) != GameEngine.Placement.PLACED) {
+                    throw new IllegalStateException("The bot's fleet was refused");
+                }
+                for (int s = 0; s < types.length; s++) {
+                    GameJournal.placed(game, seat, types[s], fleetCells, shipStart[s], shipStart[s + 1] - shipStart[s]);
+                }
+                if (log != null) {
+                    log.append(seat).append(" PLACEALL");
+                    for (int s = 0; s < types.length; s++) {
+                        log.append(s == 0 ? " " : "; ").append(types[s]);
+                        appendCells(fleetCells, shipStart[s], shipStart[s + 1] - shipStart[s]);
+                    }
+                    log.append('\n');
+                }
+                return;
+            }
+            for (ShipType type : ShipType.values()) {
+                int[] shape = type.getShape();
+                for (int n = 0; n < mode.getCount(type); n++) {
+                    int attempts = 0;
+                    do {
+                        if (++attempts > 10_000) {
+                            throw new IllegalStateException("No room for the " + mode + " fleet");
+                        }
+                        boolean turned = random.nextBoolean();
+                        int x0 = random.nextInt(mode.getSize());
+                        int y0 = random.nextInt(mode.getSize());
+                        for (int i = 0; i < shape.length; i += 2) {
+                            cells[i] = x0 + (turned ? shape[i + 1] : shape[i]);
+                            cells[i + 1] = y0 + (turned ? shape[i] : shape[i + 1]);
+                        }
+                    } while (engine.placeShip(seat, type, cells, 0, type.getLength()) != GameEngine.Placement.PLACED);
+                    GameJournal.placed(game, seat, type, cells, 0, type.getLength());
+                    if (log != null) {
+                        log.append(seat).append(" PLACE ").append(type);
+                        appendCells(cells, 0, type.getLength());
+                        log.append('\n');
+                    }
+                }
+            }
+        }
+
+        private void appendCells(int[] from, int first, int count) {
+            for (int i = first; i < first + count; i++) {
+                log.append(' ').append(from[2 * i]).append(',').append(from[2 * i + 1]);
+            }
+        }
+
+        private Shooter shooter(String strategy, Random random) {
+            return switch (strategy) {
+                case "bot" -> new BotShooter(mode, random);
+                case "hunt" -> new HuntShooter(mode, random, true);
+                default -> new HuntShooter(mode, random, false);
+            };
+        }
+    }
+
+    private void mismatch(RecordedGame game, String problem) {
+        mismatches.increment();
+        System.out.printf("Game at line %d: %s%n", game.line, problem);
+    }
+
+    // Picks the cells a seat fires at
+    private interface Shooter {
+        int next();
+
+        void result(int cell, GameEngine.Shot shot, Ship ship);
+    }
+
+    // The built-in bot, on the boards BotPlayer plays
+    private static final class BotShooter implements Shooter {
+        private final BotTargeting targeting;
+
+        BotShooter(GameMode mode, Random random) {
+            targeting = new BotTargeting(random, mode);
+        }
+
+        @Override
+        public int next() {
+            return targeting.nextShot();
+        }
+
+        @Override
+        public void result(int cell, GameEngine.Shot shot, Ship ship) {
+            targeting.recordShot(cell, shot != GameEngine.Shot.MISS);
+            if (shot == GameEngine.Shot.SUNK || shot == GameEngine.Shot.WIN) {
+                targeting.recordSunk(ship);
+            }
+        }
+    }
+
+    // Random untried cells; when hunting, the neighbours of every hit are tried first
+    // until its ship sinks. Works on any board size.
+    private static final class HuntShooter implements Shooter {
+        private final GameMode mode;
+        private final Random random;
+        private final boolean hunt;
+        private final CellSet shots;
+        private int[] targets = new int[16];
+        private int targetCount;
+
+        HuntShooter(GameMode mode, Random random, boolean hunt) {
+            this.mode = mode;
+            this.random = random;
+            this.hunt = hunt;
+            this.shots = new CellSet(mode.getSize());
+        }
+
+        @Override
+        public int next() {
+            while (targetCount > 0) {
+                int cell = targets[--targetCount];
+                if (!shots.get(cell)) {
+                    return cell;
+                }
+            }
+            int size = mode.getSize();
+            int area = size * size;
+            // Rejection sampling while the board is mostly untried, then a scan
+            if (shots.cardinality() < area / 2) {
+                while (true) {
+                    int cell = random.nextInt(area);
+                    if (!shots.get(cell)) {
+                        return cell;
+                    }
+                }
+            }
+            int start = random.nextInt(area);
+            for (int i = 0; i < area; i++) {
+                int cell = (start + i) % area;
+                if (!shots.get(cell)) {
+                    return cell;
+                }
+            }
+            return start;
+        }
+
+        @Override
+        public void result(int cell, GameEngine.Shot shot, Ship ship) {
+            shots.set(cell);
+            if (!hunt || shot == GameEngine.Shot.MISS) {
+                return;
+            }
+            if (shot != GameEngine.Shot.HIT) {
+                // Ships never touch, so nothing around a sunk ship is worth a shot
+                targetCount = 0;
+                return;
+            }
+            int x = mode.row(cell);
+            int y = mode.column(cell);
+            target(x - 1, y);
+            target(x + 1, y);
+            target(x, y - 1);
+            target(x, y + 1);
+        }
+
+        private void target(int x, int y) {
+            if (!mode.inBounds(x, y)) {
+                return;
+            }
+            if (targetCount == targets.length) {
+                targets = Arrays.copyOf(targets, targetCount * 2);
+            }
+            targets[targetCount++] = mode.index(x, y);
+        }
+    }
+
+    // The commands of one recorded game, each by seat 0 or 1
+    private static final class RecordedGame {
+        final int line;
+        final List<byte[]> lines = new ArrayList<>();
+        int[] seats = new int[16];
+        int winner;
+        int shots;
+
+        RecordedGame(int line) {
+            this.line = line;
+        }
+    }
+
+    // "# mode name" selects the mode; every game is "seat command" lines closed by
+    // "= winner shots"; other '#' lines and blank lines are comments
+    private static List<RecordedGame> readRecording(Options options) throws IOException {
+        List<RecordedGame> games = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(options.replay, StandardCharsets.US_ASCII)) {
+            RecordedGame game = null;
+            int number = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.startsWith("# mode ")) {
+                    options.mode = GameMode.forName(line.substring(7).trim());
+                    if (options.mode == null) {
+                        usage("Unknown game mode in " + options.replay + ": " + line);
+                    }
+                    continue;
+                }
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                if (game == null) {
+                    game = new RecordedGame(number);
+                }
+                String[] parts = line.trim().split(" ", 3);
+                try {
+                    if (parts[0].equals("=")) {
+                        game.winner = Integer.parseInt(parts[1]);
+                        game.shots = Integer.parseInt(parts[2]);
+                        games.add(game);
+                        game = null;
+                        continue;
+                    }
+                    int seat = Integer.parseInt(parts[0]);
+                    if (seat != 0 && seat != 1) {
+                        throw new NumberFormatException();
+                    }
+                    if (game.lines.size() == game.seats.length) {
+                        game.seats = Arrays.copyOf(game.seats, game.seats.length * 2);
+                    }
+                    game.seats[game.lines.size()] = seat;
+                    game.lines.add(line.substring(line.indexOf(' ') + 1).getBytes(StandardCharsets.US_ASCII));
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    usage("Malformed line " + number + " in " + options.replay + ": " + line);
+                }
+            }
+            if (game != null) {
+                usage("Game at line " + game.line + " in " + options.replay + " has no result");
+            }
+        }
+        return games;
+    }
+
+    // SplittableRandom's mixing function, so neighbouring games get unrelated seeds
+    private static long mix(long seed, long game) {
+        long z = seed + (game + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static Options parse(String[] args) {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 == args.length) {
+                usage("Missing value for " + arg);
+            }
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--games" -> options.games = Long.parseLong(value);
+                    case "--threads" -> options.threads = Integer.parseInt(value);
+                    case "--seed" -> options.seed = Long.parseLong(value);
+                    case "--report" -> options.reportSeconds = Integer.parseInt(value);
+                    case "--record" -> options.record = Path.of(value);
+                    case "--replay" -> options.replay = Path.of(value);
+                    case "--journal" -> options.journal = Path.of(value);
+                    case "--mode" -> {
+                        options.mode = GameMode.forName(value);
+                        if (options.mode == null) {
+                            usage("Unknown game mode " + value + ", available: " + GameMode.names());
+                        }
+                    }
+                    case "--strategy" -> {
+                        int colon = value.indexOf(':');
+                        options.strategies = colon < 0 ? new String[]{value, value}
+                                : new String[]{value.substring(0, colon), value.substring(colon + 1)};
+                    }
+                    default -> usage("Unknown option " + arg);
+                }
+            } catch (NumberFormatException e) {
+                usage("Not a number: " + arg + " " + value);
+            }
+        }
+        if (options.strategies == null) {
+            String strategy = options.mode == GameMode.CLASSIC ? "bot" : "hunt";
+            options.strategies = new String[]{strategy, strategy};
+        }
+        for (String strategy : options.strategies) {
+            if (!strategy.equals("bot") && !strategy.equals("hunt") && !strategy.equals("random")) {
+                usage("Unknown strategy " + strategy);
+            }
+            if (strategy.equals("bot") && !BotPlayer.plays(options.mode)) {
+                usage("The bot strategy only plays boards of up to " + BotPlayer.MAX_SIZE + "x" + BotPlayer.MAX_SIZE);
+            }
+        }
+        if (options.games < 0 || options.threads < 1 || options.reportSeconds < 1
+                || (options.record != null && options.replay != null)) {
+            usage("Invalid options");
+        }
+        return options;
+    }
+
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println("Options: --games n --threads n --mode name --strategy s[:s] (bot, hunt or random)");
+        System.err.println("         --seed n --report s --record file --replay file --journal dir");
+        System.exit(2);
+    }
+}
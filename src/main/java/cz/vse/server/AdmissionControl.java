@@ -0,0 +1,142 @@
+package cz.vse.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Decides whether a freshly accepted connection gets an event loop. While the server
+// is overloaded (event loop lag above maxLag ms or at least maxGames games running)
+// new connections wait in a bounded queue instead, and are let in in arrival order
+// once the load drops. A connection that finds the queue full, or waits longer than
+// queueTimeout ms, is told the server is busy and closed. Players already connected
+// are never affected. Configured through system properties, e.g.
+// -Dbattleship.admission.maxLag=100; a limit of 0 or less turns that check off.
+final class AdmissionControl {
+    private static final Logger logger = LogManager.getLogger(AdmissionControl.class);
+
+    static final long MAX_LAG = Long.getLong("battleship.admission.maxLag", 500);
+    static final int MAX_GAMES = Integer.getInteger("battleship.admission.maxGames", 100_000);
+    static final int QUEUE_SIZE = Integer.getInteger("battleship.admission.queueSize", 1024);
+    static final long QUEUE_TIMEOUT = Long.getLong("battleship.admission.queueTimeout", 5000);
+    // How often the event loops are probed and the queue is looked at
+    private static final long CHECK_INTERVAL = 100;
+
+    private static final byte[] BUSY = "ERROR: Server is busy, try again later.\n".getBytes(StandardCharsets.UTF_8);
+
+    static final LongAdder admitted = new LongAdder();
+    static final LongAdder queued = new LongAdder(); // admitted later, also counted in admitted
+    static final LongAdder rejected = new LongAdder();
+    static final LongAdder timedOut = new LongAdder();
+
+    // Guarded by itself; each entry is the channel and the nanoTime it is dropped at
+    private static final Queue<Waiting> waiting = new ArrayDeque<>();
+    private static EventLoop[] eventLoops;
+    private static Consumer<SocketChannel> register;
+    private static volatile boolean overloaded;
+
+    private record Waiting(SocketChannel channel, long deadline) {
+    }
+
+    private AdmissionControl() {
+    }
+
+    static void start(TimingWheel timers, EventLoop[] loops, Consumer<SocketChannel> onAdmit) {
+        eventLoops = loops;
+        register = onAdmit;
+        logger.info("Admission limits: lag {} ms, {} games, queue {} for {} ms; rate limits: {}",
+                MAX_LAG, MAX_GAMES, QUEUE_SIZE, QUEUE_TIMEOUT, RateLimit.describe());
+        timers.scheduleAtFixedRate(AdmissionControl::check, CHECK_INTERVAL, CHECK_INTERVAL);
+    }
+
+    // Accept thread: registers the channel now, queues it or turns it away. The
+    // register callback always runs under the queue's lock.
+    static void offer(SocketChannel channel) {
+        synchronized (waiting) {
+            // Queued connections go first, so nobody overtakes them while the load drops
+            if (!overloaded && waiting.isEmpty()) {
+                admitted.increment();
+                register.accept(channel);
+                return;
+            }
+            if (waiting.size() < QUEUE_SIZE) {
+                waiting.add(new Waiting(channel, System.nanoTime() + QUEUE_TIMEOUT * 1_000_000));
+                return;
+            }
+        }
+        rejected.increment();
+        refuse(channel);
+    }
+
+    // Timing wheel thread
+    private static void check() {
+        for (EventLoop loop : eventLoops) {
+            loop.probeLag();
+        }
+        boolean wasOverloaded = overloaded;
+        overloaded = (MAX_LAG > 0 && getLagMillis() > MAX_LAG)
+                || (MAX_GAMES > 0 && GameManager.getActiveGameCount() >= MAX_GAMES);
+        if (overloaded != wasOverloaded) {
+            logger.warn(overloaded ? "Server overloaded (lag {} ms, {} games), holding new connections"
+                    : "Load is back to normal (lag {} ms, {} games), admitting new connections",
+                    getLagMillis(), GameManager.getActiveGameCount());
+        }
+        long now = System.nanoTime();
+        while (true) {
+            Waiting next;
+            synchronized (waiting) {
+                next = waiting.peek();
+                if (next == null) {
+                    return;
+                }
+                if (!overloaded) {
+                    waiting.poll();
+                    admitted.increment();
+                    queued.increment();
+                    register.accept(next.channel());
+                    continue;
+                }
+                if (next.deadline() - now > 0) {
+                    return;
+                }
+                waiting.poll();
+            }
+            timedOut.increment();
+            refuse(next.channel());
+        }
+    }
+
+    // The channel is still blocking and nothing has been written to it, so the short
+    // line always fits the socket buffer
+    private static void refuse(SocketChannel channel) {
+        try (channel) {
+            channel.write(ByteBuffer.wrap(BUSY));
+        } catch (IOException e) {
+            logger.debug("Could not refuse a connection cleanly", e);
+        }
+    }
+
+    // Worst lag over all event loops, 0 before start()
+    static long getLagMillis() {
+        long lag = 0;
+        if (eventLoops != null) {
+            for (EventLoop loop : eventLoops) {
+                lag = Math.max(lag, loop.getLagMillis());
+            }
+        }
+        return lag;
+    }
+
+    static int getQueued() {
+        synchronized (waiting) {
+            return waiting.size();
+        }
+    }
+}
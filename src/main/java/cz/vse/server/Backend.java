@@ -0,0 +1,101 @@
+package cz.vse.server;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One Server process behind the Router: where it listens, whether it is up and how
+// busy it is. Health and load come from the backend's own /metrics endpoint (see
+// ServerMetrics), polled by the router; between two polls the players the router
+// sent there are added so that a burst of pairs does not all land on one backend.
+final class Backend {
+    // Consecutive failed checks after which a backend is taken out of the rotation
+    private static final int FAILURES_TO_MARK_DOWN = 2;
+
+    private final String host;
+    private final int port;
+    // -1 when the backend exposes no metrics; it is then only checked by connecting
+    private final int metricsPort;
+
+    private volatile boolean healthy = true;
+    private volatile int reportedConnections;
+    private final AtomicInteger assignedSinceReport = new AtomicInteger();
+    private int failures; // monitor thread only
+
+    Backend(String host, int port, int metricsPort) {
+        this.host = host;
+        this.port = port;
+        this.metricsPort = metricsPort;
+    }
+
+    // "host:port" or "host:port/metricsPort"
+    static Backend parse(String definition) {
+        String address = definition.trim();
+        int metricsPort = -1;
+        int slash = address.indexOf('/');
+        if (slash >= 0) {
+            metricsPort = Integer.parseInt(address.substring(slash + 1).trim());
+            address = address.substring(0, slash);
+        }
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("expected host:port[/metricsPort], got " + definition);
+        }
+        return new Backend(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)), metricsPort);
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    int getMetricsPort() {
+        return metricsPort;
+    }
+
+    InetSocketAddress address() {
+        return new InetSocketAddress(host, port);
+    }
+
+    boolean isHealthy() {
+        return healthy;
+    }
+
+    // Connections the backend last reported plus the players sent there since
+    int getLoad() {
+        return reportedConnections + assignedSinceReport.get();
+    }
+
+    void assigned(int players) {
+        assignedSinceReport.addAndGet(players);
+    }
+
+    // Monitor thread only
+    void reportHealthy(int connections) {
+        reportedConnections = connections;
+        assignedSinceReport.set(0);
+        failures = 0;
+        healthy = true;
+    }
+
+    // Monitor thread only; true if this check took the backend down
+    boolean reportFailure() {
+        if (++failures >= FAILURES_TO_MARK_DOWN && healthy) {
+            healthy = false;
+            return true;
+        }
+        return false;
+    }
+
+    // A connection attempt failed: out of the rotation until the monitor sees it again
+    void markDown() {
+        healthy = false;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
@@ -1,268 +1,528 @@
 package cz.vse.server;
 
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-
-import java.io.PrintWriter;
-import java.util.*;
-
+import org.apache.logging.log4j.util.Unbox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A GameEngine wired to its players: maps session ids to seats, renders every result
+// to the players' PlayerOutputs and the spectators, and logs: the game's milestones
+// at INFO, every placement and shot at the player's Session.moveLevel(). Apart from
+// the immutable player sessions, state is only touched on the game's GameShard:
+// callers submit work through execute(). Everything the engine accepts also goes to the GameJournal, and
+// GameSnapshots keeps a copy of the whole game.
 public class BattleshipGame {
     private static final Logger logger = LogManager.getLogger(BattleshipGame.class);
+    // Seeded from the clock, so games of different server runs never share an id
+    private static final AtomicLong ids = new AtomicLong(System.currentTimeMillis() << 20);
+
+    private final long gameId;
+    private final Session player1;
+    private final Session player2;
+    private final GameShard shard;
+    private final GameMode mode;
+    private final GameEngine engine;
+    // Copy of the engine's state for readers on other threads
+    private volatile GameState gameState;
+    private final CompletableFuture<BattleshipGame> setupComplete = new CompletableFuture<>();
+    private final SpectatorFeed spectators = new SpectatorFeed();
+    // Commands that changed the engine, and how many of them the last copy has; both
+    // are only written on the shard
+    private volatile int changes;
+    private volatile int copiedChanges = -1;
+    private volatile byte[] copy;
+
+    public BattleshipGame(Session player1, Session player2, GameShard shard) {
+        this(player1, player2, GameMode.CLASSIC, shard);
+    }
 
-    private String player1;
-    private String player2;
-    private char[][] grid1 = new char[10][10];
-    private char[][] grid2 = new char[10][10];
-    private String currentTurn;
-    private int ships1 = 5;
-    private int ships2 = 5;
-    private GameState gameState;
-    private List<Ship> fleet1 = new ArrayList<>();
-    private List<Ship> fleet2 = new ArrayList<>();
-    private static final int GRID_SIZE = 10;
-
-    public BattleshipGame(String player1, String player2) {
+    public BattleshipGame(Session player1, Session player2, GameMode mode, GameShard shard) {
+        this(ids.getAndIncrement(), player1, player2, new GameEngine(mode), shard);
+        if (mode == GameMode.CLASSIC) {
+            logger.info("New game {} created between '{}' and '{}'", gameId, player1, player2);
+        } else {
+            logger.info("New {} game {} created between '{}' and '{}'", mode.describe(), gameId, player1, player2);
+        }
+        GameJournal.created(gameId, mode, player1.getUsername(), player2.getUsername());
+    }
+
+    private BattleshipGame(long gameId, Session player1, Session player2, GameEngine engine, GameShard shard) {
+        this.gameId = gameId;
         this.player1 = player1;
         this.player2 = player2;
-        this.currentTurn = player1;
-        this.gameState = GameState.WAITING_FOR_PLAYERS;
-        initializeGrid(grid1);
-        initializeGrid(grid2);
-        logger.info("New game created between '{}' and '{}'", player1, player2);
+        this.shard = shard;
+        this.mode = engine.getMode();
+        this.engine = engine;
+        this.gameState = engine.getState();
     }
 
-    private void initializeGrid(char[][] grid) {
-        for (int i = 0; i < 10; i++) {
-            Arrays.fill(grid[i], '~');
+    // A game as snapshot() copied it, with both players' names and tokens claimed
+    // again; null if one of the names is taken
+    static BattleshipGame restore(DataInput in, GameShard shard) throws IOException {
+        long gameId = in.readLong();
+        String modeName = in.readUTF();
+        GameMode mode = GameMode.forName(modeName);
+        if (mode == null) {
+            throw new IOException("Unknown game mode " + modeName);
         }
-    }
+        String[] names = new String[2];
+        String[] tokens = new String[2];
+        boolean[] binary = new boolean[2];
+        for (int seat = 0; seat < 2; seat++) {
+            names[seat] = in.readUTF();
+            tokens[seat] = in.readUTF();
+            binary[seat] = in.readBoolean();
+        }
+        GameEngine engine = GameEngine.readFrom(in, mode);
 
-    public synchronized String getOpponent(String player) {
-        return player.equals(player1) ? player2 : player1;
+        Session player1 = Session.claim(names[0]);
+        Session player2 = player1 != null ? Session.claim(names[1]) : null;
+        if (player2 == null) {
+            if (player1 != null) {
+                player1.release();
+            }
+            return null;
+        }
+        player1.restoreToken(tokens[0], binary[0]);
+        player2.restoreToken(tokens[1], binary[1]);
+        logger.info("Game {} between '{}' and '{}' restored", gameId, player1, player2);
+        BattleshipGame game = new BattleshipGame(gameId, player1, player2, engine, shard);
+        // Here rather than in the constructor, which must not hand out 'this'
+        if (game.gameState != GameState.WAITING_FOR_PLAYERS) {
+            game.setupComplete.complete(game);
+        }
+        return game;
     }
 
-    public synchronized boolean placeShip(String player, String shipType, String positions, PrintWriter out) {
-        logger.info("Player '{}' is placing ship '{}' at '{}'", player, shipType, positions);
-
-        shipType = shipType.replaceAll("\\(\\d+\\)", "").trim();
-        char[][] grid = player.equals(player1) ? grid1 : grid2;
-        List<Ship> fleet = player.equals(player1) ? fleet1 : fleet2;
+    // Any thread. Completes with a copy of the game as restore() reads it, made on the
+    // shard between two commands, so the game never waits for whoever writes the copy
+    // out. A game that has not changed since its last copy hands that out again. Null
+    // for games that are not kept: finished ones, and those against the built-in bot,
+    // which cannot come back with RESUME.
+    CompletableFuture<byte[]> snapshot() {
+        if (gameState == GameState.FINISHED || player1.getToken() == null || player2.getToken() == null) {
+            return null;
+        }
+        if (copiedChanges == changes) {
+            return CompletableFuture.completedFuture(copy);
+        }
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        shard.execute(() -> {
+            try {
+                int current = changes;
+                if (copiedChanges != current) {
+                    copy = encode();
+                    copiedChanges = current;
+                }
+                result.complete(copy);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
 
-        for (Ship ship : fleet) {
-            if (ship.getType().equalsIgnoreCase(shipType)) {
-                out.println("ERROR: You have already placed a " + shipType + "!");
-                logger.warn("Player '{}' tried to place multiple '{}' ships.", player, shipType);
-                return false;
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(gameId);
+            out.writeUTF(mode.getName());
+            for (Session player : new Session[]{player1, player2}) {
+                out.writeUTF(player.getUsername());
+                out.writeUTF(player.getToken());
+                out.writeBoolean(player.isBinary());
             }
+            engine.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        // In BattleshipGame.java
-            Set<String> newShipPositions = new HashSet<>(Arrays.asList(positions.split(" ")));
-            if (isAdjacent(player, newShipPositions)) {
-                out.println("ERROR: Ships cannot be placed adjacent to each other!");
-                logger.warn("Player '{}' tried to place a ship adjacent to another ship: {}", player, positions);
-                return false;
-            }
+        return bytes.toByteArray();
+    }
 
+    // Identifies the game in the journal
+    public long getId() {
+        return gameId;
+    }
+
+    public GameMode getMode() {
+        return mode;
+    }
 
+    public Session getOpponent(int player) {
+        return player == player1.getId() ? player2 : player1;
+    }
 
+    // player1 is seat 0 and moves first
+    private int seat(int player) {
+        return player == player1.getId() ? 0 : 1;
+    }
 
-        Set<String> shipCoords = new HashSet<>();
-        for (String coord : positions.split(" ")) {
-            String[] parts = coord.split(",");
-            int x = Integer.parseInt(parts[0].trim());
-            int y = Integer.parseInt(parts[1].trim());
+    Session getPlayer(int seat) {
+        return session(seat);
+    }
 
-            if (grid[x][y] == 'S') {
-                out.println("ERROR: Ship overlaps at: " + coord);
-                logger.warn("Player '{}' attempted to place a ship at an occupied location: {}", player, coord);
-                return false;
+    private Session session(int seat) {
+        return seat == 0 ? player1 : player2;
+    }
+
+    private String name(int seat) {
+        return session(seat).getUsername();
+    }
+
+    // Runs the task on this game's shard, the only thread allowed to mutate the game.
+    // Output is not auto-flushed: whatever the task wrote to either player goes out
+    // as one flush per player once it finishes.
+    public void execute(Runnable task) {
+        shard.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                flushPlayers();
+                spectators.publish();
+            }
+        });
+    }
+
+    private void flushPlayers() {
+        PlayerOutput out1 = player1.getOutput();
+        PlayerOutput out2 = player2.getOutput();
+        if (out1 != null) out1.flush();
+        if (out2 != null) out2.flush();
+    }
+
+    // Shard only: sends the public state so far, then every later event
+    void addSpectator(ClientHandler spectator) {
+        int winner = engine.getWinner();
+        spectators.add(spectator, SpectatorFeed.snapshot(name(0), name(1), engine.getState(),
+                name(engine.getTurn()), winner >= 0 ? name(winner) : null,
+                mode, engine.getBoard(0), engine.getBoard(1)));
+    }
+
+    // Shard only
+    void removeSpectator(ClientHandler spectator) {
+        spectators.remove(spectator);
+    }
+
+    // Shard only: tells a player who took over their session with RESUME everything
+    // they may know, in one line, and returns how many ships they have placed.
+    //   RESUME: bob classic IN_PROGRESS YOUR_TURN | SHIPS Battleship 0,1 1,1* 2,1 3,1; ...
+    //           | FIRED 3,4 5,5* | SUNK 5,5 5,6; ... | MISSES 9,9
+    // Turn is YOUR_TURN, OPPONENT_TURN, WON, LOST or SETUP. SHIPS is the player's own
+    // fleet and FIRED their shots, '*' marking hits; SUNK lists the opponent's sunk
+    // ships and MISSES the opponent's shots that hit water.
+    int resume(int id, PlayerOutput out) {
+        int seat = seat(id);
+        Board own = engine.getBoard(seat);
+        Board enemy = engine.getBoard(1 - seat);
+        GameState state = engine.getState();
+        String turn = switch (state) {
+            case WAITING_FOR_PLAYERS -> "SETUP";
+            case IN_PROGRESS -> engine.getTurn() == seat ? "YOUR_TURN" : "OPPONENT_TURN";
+            case FINISHED -> engine.getWinner() == seat ? "WON" : "LOST";
+        };
+
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("RESUME: ").append(name(1 - seat)).append(' ').append(mode).append(' ')
+                .append(state).append(' ').append(turn).append(" | SHIPS");
+        String separator = " ";
+        for (Ship ship : own.getFleet()) {
+            sb.append(separator).append(ship.getType());
+            for (int cell : ship.getCells()) {
+                sb.append(' ').append(mode.coordinate(cell));
+                if (own.getShots().get(cell)) {
+                    sb.append('*');
+                }
+            }
+            separator = "; ";
+        }
+        sb.append(" | FIRED");
+        enemy.getShots().forEach(cell -> {
+            sb.append(' ').append(mode.coordinate(cell));
+            if (enemy.isOccupied(cell)) {
+                sb.append('*');
+            }
+        });
+        sb.append(" | SUNK");
+        separator = " ";
+        for (Ship ship : enemy.getFleet()) {
+            if (ship.isSunk()) {
+                sb.append(separator).append(ship.getCoordinates());
+                separator = "; ";
             }
-            shipCoords.add(coord);
         }
+        sb.append(" | MISSES");
+        own.getShots().forEach(cell -> {
+            if (!own.isOccupied(cell)) {
+                sb.append(' ').append(mode.coordinate(cell));
+            }
+        });
+        out.text(sb.toString());
+        logger.info("Player '{}' resumed the game against '{}'", name(seat), name(1 - seat));
+        return own.getFleet().size();
+    }
 
-        Ship newShip = new Ship(shipType, shipCoords); // Přidáno uložení typu lodi
-        fleet.add(newShip);
+    // cells holds cellCount coordinate pairs as x0, y0, x1, y1, ...
+    public boolean placeShip(int id, ShipType shipType, int[] cells, int cellCount, PlayerOutput out) {
+        int seat = seat(id);
+        String player = name(seat);
+        Level level = session(seat).moveLevel();
 
-        for (String coord : shipCoords) {
-            String[] parts = coord.split(",");
-            int x = Integer.parseInt(parts[0].trim());
-            int y = Integer.parseInt(parts[1].trim());
-            grid[x][y] = 'S';
+        GameEngine.Placement result = engine.placeShip(seat, shipType, cells, 0, cellCount);
+        if (result != GameEngine.Placement.PLACED) {
+            reportPlacementError(player, level, result, out);
+            return false;
+        }
+        GameJournal.placed(gameId, seat, shipType, cells, 0, cellCount);
+        changes++;
+        if (logger.isEnabled(level)) {
+            logger.log(level, "Player '{}' placed ship '{}' at {}", player, shipType, engine.getLastShip().getCoordinates());
         }
 
-        if (isSetupComplete()) {
-            out.println("All ships placed! Game is starting.");
+        if (checkStarted()) {
+            out.text("All ships placed! Game is starting.");
         }
 
-        out.println("SUCCESS: PLACE: " + shipType + " " + positions);
-        logger.info("Player '{}' successfully placed ship '{}'", player, shipType);
+        out.shipPlaced(shipType, cells, 0, cellCount);
         return true;
     }
 
-
-    public synchronized boolean isSetupComplete() {
-        if (gameState == GameState.IN_PROGRESS) {
-            return true;
+    // PLACEALL: ship i is types[i] on the cell pairs [shipStart[i], shipStart[i + 1]).
+    // Either all ships are placed or none (see GameEngine.placeFleet). Returns the
+    // number placed.
+    public int placeFleet(int id, ShipType[] types, int[] shipStart, int shipCount, int[] cells, PlayerOutput out) {
+        int seat = seat(id);
+        String player = name(seat);
+        Level level = session(seat).moveLevel();
+
+        GameEngine.Placement result = engine.placeFleet(seat, types, shipStart, shipCount, cells);
+        if (result != GameEngine.Placement.PLACED) {
+            reportPlacementError(player, level, result, out);
+            return 0;
         }
 
-        if (fleet1.size() == 5 && fleet2.size() == 5) {
-            gameState = GameState.IN_PROGRESS;
-            logger.info("Game between '{}' and '{}' is now in progress", player1, player2);
+        changes++;
+        for (int s = 0; s < shipCount; s++) {
+            GameJournal.placed(gameId, seat, types[s], cells, shipStart[s], shipStart[s + 1] - shipStart[s]);
+            out.shipPlaced(types[s], cells, shipStart[s], shipStart[s + 1] - shipStart[s]);
+        }
+        if (logger.isEnabled(level)) {
+            logger.log(level, "Player '{}' placed {} ships at once", player, Unbox.box(shipCount));
+        }
 
-            PrintWriter out1 = Server.getPlayerOutput(player1);
-            PrintWriter out2 = Server.getPlayerOutput(player2);
+        if (checkStarted()) {
+            out.text("All ships placed! Game is starting.");
+        }
+        return shipCount;
+    }
 
-            if (out1 != null) {
-                out1.println("INFO: Game Started: Your turn.");
+    private void reportPlacementError(String player, Level level, GameEngine.Placement result, PlayerOutput out) {
+        ShipType shipType = engine.getFailedType();
+        boolean log = logger.isEnabled(level);
+        switch (result) {
+            case FLEET_FULL -> {
+                int count = mode.getCount(shipType);
+                if (count == 1) {
+                    out.text("ERROR: You have already placed a " + shipType + "!");
+                } else if (count == 0) {
+                    out.text("ERROR: There is no " + shipType + " in the " + mode + " fleet!");
+                } else {
+                    out.text("ERROR: You have already placed all " + count + " " + shipType + " ships!");
+                }
+                if (log) {
+                    logger.log(level, "Player '{}' tried to place multiple '{}' ships.", player, shipType);
+                }
             }
-            if (out2 != null) {
-                out2.println("INFO: Game Started: Opponent's turn");
+            case OUT_OF_BOUNDS -> {
+                int x = engine.getFailedX();
+                int y = engine.getFailedY();
+                out.text("ERROR: Ship out of bounds at: " + x + "," + y);
+                if (log) {
+                    logger.log(level, "Player '{}' tried to place a ship out of bounds: {},{}", player, Unbox.box(x), Unbox.box(y));
+                }
             }
-
-            return true;
+            case WRONG_LENGTH -> {
+                out.text("ERROR: " + shipType + " must occupy " + shipType.getLength() + " cells!");
+                if (log) {
+                    logger.log(level, "Player '{}' gave {} a wrong number of cells", player, shipType);
+                }
+            }
+            case ADJACENT -> {
+                out.text("ERROR: Ships cannot be placed adjacent to each other!");
+                if (log) {
+                    logger.log(level, "Player '{}' tried to place a {} adjacent to another ship", player, shipType);
+                }
+            }
+            case OVERLAP -> {
+                String coord = mode.coordinate(engine.getFailedCell());
+                out.text("ERROR: Ship overlaps at: " + coord);
+                if (log) {
+                    logger.log(level, "Player '{}' attempted to place a ship at an occupied location: {}", player, coord);
+                }
+            }
+            default -> throw new IllegalStateException("Not an error: " + result);
         }
-        return false;
     }
 
-    // In BattleshipGame.java
-// In BattleshipGame.java
-    public synchronized void processMove(String player, String move, PrintWriter out) {
-        logger.info("Player '{}' attempting move '{}'", player, move);
+    public boolean isSetupComplete() {
+        return engine.getState() != GameState.WAITING_FOR_PLAYERS;
+    }
 
-        if (!isSetupComplete()) {
-            out.println("ERROR: You must place all ships before starting the game!");
-            logger.warn("Player '{}' attempted a move before setup completion", player);
-            return;
+    // Announces the start once the engine has moved to IN_PROGRESS; true if it just did
+    private boolean checkStarted() {
+        if (gameState != GameState.WAITING_FOR_PLAYERS || engine.getState() != GameState.IN_PROGRESS) {
+            return false;
         }
+        gameState = GameState.IN_PROGRESS;
+        logger.info("Game between '{}' and '{}' is now in progress", name(0), name(1));
 
-        if (!player.equals(currentTurn)) {
-            out.println("ERROR: Not your turn!");
-            logger.warn("Player '{}' attempted a move out of turn", player);
-            return;
-        }
+        PlayerOutput out1 = player1.getOutput();
+        PlayerOutput out2 = player2.getOutput();
 
-        String[] parts = move.split(",");
-        if (parts.length != 2) {
-            out.println("ERROR: Invalid move format! Use: x,y");
-            logger.warn("Player '{}' entered invalid move format: '{}'", player, move);
-            return;
+        if (out1 != null) {
+            out1.gameStarted(true);
+        }
+        if (out2 != null) {
+            out2.gameStarted(false);
         }
 
+        spectators.started(name(engine.getTurn()));
+        setupComplete.complete(this);
+        return true;
+    }
 
-        try {
-            int x = Integer.parseInt(parts[0].trim());
-            int y = Integer.parseInt(parts[1].trim());
-            String coord = x + "," + y;
-
-            char[][] enemyGrid = player.equals(player1) ? grid2 : grid1;
-            List<Ship> enemyFleet = player.equals(player1) ? fleet2 : fleet1;
-            PrintWriter opponentOut = Server.getPlayerOutput(getOpponent(player));
+    // Completes when both fleets are placed and the game moves to IN_PROGRESS
+    public CompletableFuture<BattleshipGame> onSetupComplete() {
+        return setupComplete;
+    }
 
-            if (x < 0 || x >= GRID_SIZE || y < 0 || y >= GRID_SIZE) {
-                out.println("ERROR: Move out of bounds! Valid coordinates are between 0 and " + (GRID_SIZE - 1));
+    public void processMove(int id, int x, int y, PlayerOutput out) {
+        int seat = seat(id);
+        String player = name(seat);
+        Level level = session(seat).moveLevel();
+        boolean log = logger.isEnabled(level);
+
+        GameEngine.Shot result = engine.fire(seat, x, y);
+        switch (result) {
+            case NOT_STARTED -> {
+                out.text("ERROR: You must place all ships before starting the game!");
+                if (log) {
+                    logger.log(level, "Player '{}' attempted a move before setup completion", player);
+                }
                 return;
             }
-
-            boolean hit = false;
-            for (Ship ship : enemyFleet) {
-                if (ship.registerHit(coord)) {
-                    hit = true;
-                    out.println("SUCCESS: HIT: " + coord);
-                    if (opponentOut != null) opponentOut.println("SUCCESS: Opponent HIT: " + coord);
-                    logger.info("Player '{}' hit a ship at '{}'", player, coord);
-
-                    if (ship.isSunk()) {
-                        String sunkCoords = String.join(" ", ship.getPositions());
-                        out.println("SUCCESS: SUNK: " + sunkCoords);
-                        if (opponentOut != null) opponentOut.println("SUNK: " + sunkCoords);
-                        logger.info("Player '{}' sunk a ship at '{}'", player, sunkCoords);
-
-                        if (allShipsSunk(enemyFleet)) {
-                            out.println("INFO: You win! All enemy ships have been sunk.");
-                            if (opponentOut != null) opponentOut.println("INFO: You lose! All your ships have been sunk.");
-                            logger.info("Player '{}' wins the game by sinking all enemy ships.", player);
-                            gameState = GameState.FINISHED;
-                        }
-                    }
-                    break;
+            case NOT_YOUR_TURN -> {
+                out.text("ERROR: Not your turn!");
+                if (log) {
+                    logger.log(level, "Player '{}' attempted a move out of turn", player);
+                }
+                return;
+            }
+            case OUT_OF_BOUNDS -> {
+                out.text("ERROR: Move out of bounds! Valid coordinates are between 0 and " + (mode.getSize() - 1));
+                return;
+            }
+            case GAME_OVER -> {
+                out.text("ERROR: The game is over!");
+                if (log) {
+                    logger.log(level, "Player '{}' attempted a move after the game ended", player);
                 }
+                return;
+            }
+            default -> {
+                // MISS, HIT, SUNK or WIN
             }
+        }
+        GameJournal.fired(gameId, seat, x, y, result);
+        changes++;
+
+        PlayerOutput opponentOut = session(1 - seat).getOutput();
+        String coord = mode.coordinate(mode.index(x, y));
+
+        if (result == GameEngine.Shot.MISS) {
+            out.shot(x, y, false, false);
+            if (opponentOut != null) opponentOut.shot(x, y, false, true);
+            spectators.shot(player, coord, false);
+            if (log) {
+                logger.log(level, "Player '{}' missed at '{}'", player, coord);
+            }
+            String next = name(1 - seat);
+            spectators.turn(next);
+            if (opponentOut != null) opponentOut.turn(true, false);
+            out.turn(false, false);
+            return;
+        }
+
+        out.shot(x, y, true, false);
+        if (opponentOut != null) opponentOut.shot(x, y, true, true);
+        spectators.shot(player, coord, true);
+        if (log) {
+            logger.log(level, "Player '{}' hit a ship at '{}'", player, coord);
+        }
 
-            if (!hit) {
-                enemyGrid[x][y] = 'O';
-                out.println("SUCCESS: MISS: " + coord);
-                if (opponentOut != null) opponentOut.println("SUCCESS: Opponent MISS: " + coord);
-                logger.info("Player '{}' missed at '{}'", player, coord);
-                currentTurn = getOpponent(player);
-                if (opponentOut != null) opponentOut.println("SUCCESS: Your turn");
-                out.println("SUCCESS: Opponent's turn");
-            } else {
-                out.println("SUCCESS: Your turn again");
-                if (opponentOut != null) opponentOut.println("SUCCESS: Opponent's turn again");
+        if (result != GameEngine.Shot.HIT) {
+            Ship ship = engine.getLastShip();
+            out.sunk(ship, false);
+            if (opponentOut != null) opponentOut.sunk(ship, true);
+            spectators.sunk(player, ship);
+            if (log) {
+                logger.log(level, "Player '{}' sunk a ship at '{}'", player, ship.getCoordinates());
             }
 
-        } catch (NumberFormatException e) {
-            out.println("ERROR: Invalid coordinates! Use numbers between 0-9.");
-            logger.error("Invalid coordinate format entered by player '{}': '{}'", player, move, e);
+            if (result == GameEngine.Shot.WIN) {
+                out.gameOver(true);
+                if (opponentOut != null) opponentOut.gameOver(false);
+                logger.info("Player '{}' wins the game by sinking all enemy ships.", player);
+                gameState = GameState.FINISHED;
+                GameJournal.finished(gameId, seat, engine.getShots());
+                Ratings.recordWin(session(seat), session(1 - seat));
+                spectators.over(player);
+            }
         }
+
+        out.turn(true, true);
+        if (opponentOut != null) opponentOut.turn(false, true);
     }
 
-    public void forfeit(String player) {
-        if (gameState == GameState.FINISHED) return;
+    public void forfeit(int id) {
+        int seat = seat(id);
+        if (!engine.forfeit(seat)) return;
 
-        String winner = getOpponent(player);
+        String player = name(seat);
+        String winner = name(1 - seat);
         gameState = GameState.FINISHED;
+        GameJournal.forfeit(gameId, seat);
+        changes++;
+        GameJournal.finished(gameId, 1 - seat, engine.getShots());
+        Ratings.recordWin(session(1 - seat), session(seat));
+        spectators.forfeit(player);
+        spectators.over(winner);
         logger.info("Player '{}' forfeited, '{}' wins by default.", player, winner);
 
-        PrintWriter winnerOut = Server.getPlayerOutput(winner);
-        PrintWriter loserOut = Server.getPlayerOutput(player);
+        PlayerOutput winnerOut = session(1 - seat).getOutput();
+        PlayerOutput loserOut = session(seat).getOutput();
 
         if (winnerOut != null) {
-            winnerOut.println("Your opponent forfeited! You win!");
+            winnerOut.text("Your opponent forfeited! You win!");
         }
         if (loserOut != null) {
-            loserOut.println("You forfeited the game!");
+            loserOut.text("You forfeited the game!");
         }
     }
-    // In BattleshipGame.java
-    private synchronized boolean isAdjacent(String player, Set<String> newShipPositions) {
-        List<Ship> fleet = player.equals(player1) ? fleet1 : fleet2;
-        Set<String> allPositions = new HashSet<>();
-        for (Ship ship : fleet) {
-            allPositions.addAll(ship.getPositions());
-        }
 
-        for (String pos : newShipPositions) {
-            int x = Integer.parseInt(pos.split(",")[0]);
-            int y = Integer.parseInt(pos.split(",")[1]);
-            String[] adjacentPositions = {
-                    (x-1) + "," + y, (x+1) + "," + y,
-                    x + "," + (y-1), x + "," + (y+1),
-                    (x-1) + "," + (y-1), (x-1) + "," + (y+1),
-                    (x+1) + "," + (y-1), (x+1) + "," + (y+1)
-            };
-            for (String adjPos : adjacentPositions) {
-                if (allPositions.contains(adjPos)) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-    private synchronized boolean allShipsSunk(List<Ship> fleet) {
-        for (Ship ship : fleet) {
-            if (!ship.isSunk()) {
-                return false;
-            }
-        }
-        return true;
+    // 'cells' are board cells (GameMode.index). Package-private for the benchmarks
+    boolean isAdjacent(int id, int[] cells, int count) {
+        return engine.getBoard(seat(id)).touches(cells, count, null);
     }
 
-    public synchronized GameState getGameState() {
+    public GameState getGameState() {
         return gameState;
     }
-
-    public synchronized void setGameState(GameState newState) {
-        this.gameState = newState;
-    }
 }
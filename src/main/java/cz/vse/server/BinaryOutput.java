@@ -0,0 +1,113 @@
+package cz.vse.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Binary rendering of PlayerOutput, see BinaryProtocol for the frame layout.
+// Frames are assembled in a local buffer and handed to the connection on flush().
+class BinaryOutput implements PlayerOutput {
+    private final ClientHandler handler;
+    private byte[] buf = new byte[64];
+    private int length;
+
+    BinaryOutput(ClientHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public synchronized void text(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        begin(BinaryProtocol.TEXT, bytes.length);
+        System.arraycopy(bytes, 0, buf, length, bytes.length);
+        length += bytes.length;
+    }
+
+    @Override
+    public synchronized void ok() {
+        begin(BinaryProtocol.OK, 0);
+    }
+
+    @Override
+    public synchronized void ping() {
+        begin(BinaryProtocol.PING, 0);
+    }
+
+    @Override
+    public synchronized void opponentFound(String opponent) {
+        byte[] bytes = opponent.getBytes(StandardCharsets.UTF_8);
+        begin(BinaryProtocol.OPPONENT, bytes.length);
+        System.arraycopy(bytes, 0, buf, length, bytes.length);
+        length += bytes.length;
+    }
+
+    @Override
+    public synchronized void shipPlaced(ShipType type, int[] cells, int firstCell, int cellCount) {
+        begin(BinaryProtocol.PLACED, 2 + cellCount);
+        buf[length++] = (byte) type.ordinal();
+        buf[length++] = (byte) cellCount;
+        for (int i = firstCell; i < firstCell + cellCount; i++) {
+            buf[length++] = (byte) Bitboard.index(cells[2 * i], cells[2 * i + 1]);
+        }
+    }
+
+    @Override
+    public synchronized void gameStarted(boolean yourTurn) {
+        begin(BinaryProtocol.GAME_STARTED, 1);
+        buf[length++] = (byte) (yourTurn ? 1 : 0);
+    }
+
+    @Override
+    public synchronized void shot(int x, int y, boolean hit, boolean byOpponent) {
+        byte opcode = byOpponent
+                ? (hit ? BinaryProtocol.OPPONENT_HIT : BinaryProtocol.OPPONENT_MISS)
+                : (hit ? BinaryProtocol.HIT : BinaryProtocol.MISS);
+        begin(opcode, 1);
+        buf[length++] = (byte) Bitboard.index(x, y);
+    }
+
+    @Override
+    public synchronized void sunk(Ship ship, boolean byOpponent) {
+        int[] cells = ship.getCells();
+        begin(byOpponent ? BinaryProtocol.OPPONENT_SUNK : BinaryProtocol.SUNK, 1 + cells.length);
+        buf[length++] = (byte) cells.length;
+        for (int cell : cells) {
+            buf[length++] = (byte) cell;
+        }
+    }
+
+    @Override
+    public synchronized void turn(boolean yours, boolean again) {
+        if (yours) {
+            begin(again ? BinaryProtocol.YOUR_TURN_AGAIN : BinaryProtocol.YOUR_TURN, 0);
+        } else {
+            begin(again ? BinaryProtocol.OPPONENT_TURN_AGAIN : BinaryProtocol.OPPONENT_TURN, 0);
+        }
+    }
+
+    @Override
+    public synchronized void gameOver(boolean won) {
+        begin(won ? BinaryProtocol.WIN : BinaryProtocol.LOSE, 0);
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (length == 0) {
+            return;
+        }
+        handler.enqueue(ByteBuffer.wrap(Arrays.copyOf(buf, length)));
+        length = 0;
+    }
+
+    // Writes the frame header and makes room for the payload
+    private void begin(byte opcode, int payloadLength) {
+        int frameLength = BinaryProtocol.HEADER_LENGTH + 1 + payloadLength;
+        if (length + frameLength > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + frameLength));
+        }
+        int bodyLength = 1 + payloadLength;
+        buf[length++] = (byte) (bodyLength >>> 8);
+        buf[length++] = (byte) bodyLength;
+        buf[length++] = opcode;
+    }
+}
@@ -0,0 +1,132 @@
+package cz.vse.server;
+
+// Compact framing negotiated with "LOGIN-BINARY: name". Once the server has answered
+// the login with its (text) welcome line, both directions switch to frames:
+//
+//   [length: u16 big-endian][opcode: u8][payload: length - 1 bytes]
+//
+// A cell is one byte, x * 10 + y, so binary connections only play GameMode.CLASSIC.
+// Ship types are ShipType ordinals.
+final class BinaryProtocol {
+    static final int HEADER_LENGTH = 2;
+
+    // Client -> server
+    static final byte CHECK = 0x01;
+    static final byte EXIT = 0x02;
+    static final byte READY = 0x03;
+    static final byte PLACE = 0x10; // [type][count][cell]*count
+    static final byte FIRE = 0x11; // [cell]
+    static final byte PLACE_ALL = 0x12; // [ships]([type][count][cell]*count)*ships
+
+    // Server -> client
+    static final byte OK = 0x01;
+    static final byte PING = 0x02;
+    static final byte TEXT = 0x03; // [UTF-8 line]
+    static final byte OPPONENT = 0x04; // [UTF-8 name]
+    static final byte PLACED = 0x10; // [type][count][cell]*count
+    static final byte GAME_STARTED = 0x11; // [1 = your turn, 0 = opponent's]
+    static final byte HIT = 0x20; // [cell]
+    static final byte MISS = 0x21; // [cell]
+    static final byte SUNK = 0x22; // [count][cell]*count
+    static final byte OPPONENT_HIT = 0x23;
+    static final byte OPPONENT_MISS = 0x24;
+    static final byte OPPONENT_SUNK = 0x25;
+    static final byte YOUR_TURN = 0x30;
+    static final byte OPPONENT_TURN = 0x31;
+    static final byte YOUR_TURN_AGAIN = 0x32;
+    static final byte OPPONENT_TURN_AGAIN = 0x33;
+    static final byte WIN = 0x40;
+    static final byte LOSE = 0x41;
+
+    private static final ShipType[] SHIP_TYPES = ShipType.values();
+
+    private BinaryProtocol() {
+    }
+
+    // Decodes the frame body buf[0, length) into the reusable command
+    static Command decode(byte[] buf, int length, Command command) {
+        command.reset();
+        if (length < 1) {
+            return command;
+        }
+        switch (buf[0]) {
+            case CHECK -> command.type = CommandType.CHECK;
+            case EXIT -> command.type = CommandType.EXIT;
+            case READY -> command.type = CommandType.READY;
+            case PLACE -> {
+                command.type = CommandType.PLACE;
+                if (decodeShip(buf, 1, length, command) != length && command.isValid()) {
+                    command.error = ParseError.INVALID_PLACE_FORMAT;
+                }
+            }
+            case PLACE_ALL -> {
+                command.type = CommandType.PLACE_ALL;
+                if (length < 2 || buf[1] == 0) {
+                    command.error = ParseError.INVALID_PLACE_ALL_FORMAT;
+                    return command;
+                }
+                int ships = buf[1] & 0xFF;
+                if (ships > Command.MAX_SHIPS) {
+                    command.error = ParseError.TOO_MANY_SHIPS;
+                    return command;
+                }
+                int pos = 2;
+                for (int i = 0; i < ships; i++) {
+                    command.shipStart[i] = command.cellCount;
+                    pos = decodeShip(buf, pos, length, command);
+                    if (pos < 0) {
+                        if (command.error == ParseError.INVALID_PLACE_FORMAT) {
+                            command.error = ParseError.INVALID_PLACE_ALL_FORMAT;
+                        }
+                        return command;
+                    }
+                    command.shipTypes[i] = command.shipType;
+                }
+                command.shipCount = ships;
+                command.shipStart[ships] = command.cellCount;
+                command.shipType = null;
+                if (pos != length) {
+                    command.error = ParseError.INVALID_PLACE_ALL_FORMAT;
+                }
+            }
+            case FIRE -> {
+                command.type = CommandType.FIRE;
+                if (length != 2) {
+                    command.error = ParseError.INVALID_MOVE_FORMAT;
+                    return command;
+                }
+                int cell = buf[1] & 0xFF;
+                command.x = cell / Bitboard.SIZE;
+                command.y = cell % Bitboard.SIZE;
+            }
+            default -> command.type = CommandType.UNKNOWN;
+        }
+        return command;
+    }
+
+    // Reads [type][count][cell]*count at pos, appending the cells to the command.
+    // Returns the position after the ship, or -1 with command.error set.
+    private static int decodeShip(byte[] buf, int pos, int length, Command command) {
+        if (pos + 2 > length || pos + 2 + (buf[pos + 1] & 0xFF) > length) {
+            command.error = ParseError.INVALID_PLACE_FORMAT;
+            return -1;
+        }
+        int type = buf[pos] & 0xFF;
+        int count = buf[pos + 1] & 0xFF;
+        if (type >= SHIP_TYPES.length) {
+            command.error = ParseError.UNKNOWN_SHIP_TYPE;
+            return -1;
+        }
+        if (count == 0 || count > Command.MAX_CELLS) {
+            command.error = count == 0 ? ParseError.INVALID_PLACE_FORMAT : ParseError.TOO_MANY_CELLS;
+            return -1;
+        }
+        command.shipType = SHIP_TYPES[type];
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            int cell = buf[pos++] & 0xFF;
+            command.addCell(cell / Bitboard.SIZE, cell % Bitboard.SIZE);
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,157 @@
+package cz.vse.server;
+
+// 128-bit set of board cells stored in two longs. Cell (x, y) maps to bit x * 10 + y,
+// so the whole 10x10 board fits into bits 0..99.
+public final class Bitboard {
+    public static final int SIZE = 10;
+    public static final int CELLS = SIZE * SIZE;
+
+    // Cells that exist on the board (bits 0..99)
+    private static final long BOARD_LO = -1L;
+    private static final long BOARD_HI = (1L << (CELLS - 64)) - 1;
+    // Cells that are not in the first / last column, used to stop shifts wrapping across rows
+    private static final long NOT_FIRST_COL_LO;
+    private static final long NOT_FIRST_COL_HI;
+    private static final long NOT_LAST_COL_LO;
+    private static final long NOT_LAST_COL_HI;
+
+    static {
+        long firstLo = 0, firstHi = 0, lastLo = 0, lastHi = 0;
+        for (int x = 0; x < SIZE; x++) {
+            int first = index(x, 0);
+            int last = index(x, SIZE - 1);
+            if (first < 64) firstLo |= 1L << first; else firstHi |= 1L << (first - 64);
+            if (last < 64) lastLo |= 1L << last; else lastHi |= 1L << (last - 64);
+        }
+        NOT_FIRST_COL_LO = BOARD_LO & ~firstLo;
+        NOT_FIRST_COL_HI = BOARD_HI & ~firstHi;
+        NOT_LAST_COL_LO = BOARD_LO & ~lastLo;
+        NOT_LAST_COL_HI = BOARD_HI & ~lastHi;
+    }
+
+    // "x,y" text for every cell, so hot paths never build coordinate strings
+    private static final String[] COORDINATES = new String[CELLS];
+
+    static {
+        for (int i = 0; i < CELLS; i++) {
+            COORDINATES[i] = row(i) + "," + column(i);
+        }
+    }
+
+    private long lo;
+    private long hi;
+
+    public static boolean inBounds(int x, int y) {
+        return x >= 0 && x < SIZE && y >= 0 && y < SIZE;
+    }
+
+    public static int index(int x, int y) {
+        return x * SIZE + y;
+    }
+
+    public static int row(int index) {
+        return index / SIZE;
+    }
+
+    public static int column(int index) {
+        return index % SIZE;
+    }
+
+    public static String coordinate(int index) {
+        return COORDINATES[index];
+    }
+
+    public boolean get(int index) {
+        return index < 64 ? (lo & (1L << index)) != 0 : (hi & (1L << (index - 64))) != 0;
+    }
+
+    public void set(int index) {
+        if (index < 64) lo |= 1L << index;
+        else hi |= 1L << (index - 64);
+    }
+
+    public void clear() {
+        lo = 0;
+        hi = 0;
+    }
+
+    public void or(Bitboard other) {
+        lo |= other.lo;
+        hi |= other.hi;
+    }
+
+    public void andNot(Bitboard other) {
+        lo &= ~other.lo;
+        hi &= ~other.hi;
+    }
+
+    public boolean intersects(Bitboard other) {
+        return (lo & other.lo) != 0 || (hi & other.hi) != 0;
+    }
+
+    public boolean containsAll(Bitboard other) {
+        return (lo & other.lo) == other.lo && (hi & other.hi) == other.hi;
+    }
+
+    public boolean isEmpty() {
+        return lo == 0 && hi == 0;
+    }
+
+    public int cardinality() {
+        return Long.bitCount(lo) + Long.bitCount(hi);
+    }
+
+    // Number of cells set in both boards
+    public int intersectionCount(Bitboard other) {
+        return Long.bitCount(lo & other.lo) + Long.bitCount(hi & other.hi);
+    }
+
+    // Index of the lowest set cell at or after 'from', or -1
+    public int nextSetBit(int from) {
+        if (from < 64) {
+            long word = lo & (-1L << from);
+            if (word != 0) return Long.numberOfTrailingZeros(word);
+            from = 64;
+        }
+        if (from >= 128) return -1;
+        long word = hi & (-1L << (from - 64));
+        return word != 0 ? 64 + Long.numberOfTrailingZeros(word) : -1;
+    }
+
+    // Index of the lowest cell set in both boards, or -1
+    public int firstCommon(Bitboard other) {
+        long l = lo & other.lo;
+        if (l != 0) return Long.numberOfTrailingZeros(l);
+        long h = hi & other.hi;
+        return h != 0 ? 64 + Long.numberOfTrailingZeros(h) : -1;
+    }
+
+    // Writes this set grown by one cell in all eight directions into 'target'
+    public void dilateInto(Bitboard target) {
+        // Horizontal neighbours (same row, y - 1 and y + 1)
+        long right0 = lo & NOT_LAST_COL_LO, right1 = hi & NOT_LAST_COL_HI;
+        long left0 = lo & NOT_FIRST_COL_LO, left1 = hi & NOT_FIRST_COL_HI;
+        long rowLo = lo | (right0 << 1) | (left0 >>> 1) | (left1 << 63);
+        long rowHi = hi | (right1 << 1) | (right0 >>> 63) | (left1 >>> 1);
+        // Vertical neighbours (x - 1 and x + 1), applied to the widened row
+        long lo2 = rowLo | (rowLo << SIZE) | (rowLo >>> SIZE) | (rowHi << (64 - SIZE));
+        long hi2 = rowHi | (rowHi << SIZE) | (rowLo >>> (64 - SIZE)) | (rowHi >>> SIZE);
+        target.lo = lo2 & BOARD_LO;
+        target.hi = hi2 & BOARD_HI;
+    }
+
+    // Space separated "x,y" list in index order, as used by the text protocol
+    public String toCoordinates() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1)) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(COORDINATES[i]);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toCoordinates();
+    }
+}
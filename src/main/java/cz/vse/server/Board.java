@@ -0,0 +1,91 @@
+package cz.vse.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// One player's side of a game: the fleet, indexed by cell so that a shot finds its
+// ship in O(1), and the shots fired at it. Both grow with ships and shots, never with
+// the board's area. Shard only, like the rest of the engine.
+final class Board {
+    private final GameMode mode;
+    private final List<Ship> fleet = new ArrayList<>();
+    private final IntMap<Ship> shipsByCell;
+    private final CellSet shots;
+    private final int[] placed = new int[ShipType.values().length];
+    private int afloat;
+
+    Board(GameMode mode) {
+        this.mode = mode;
+        this.shipsByCell = new IntMap<>(mode.getFleetSize() * 4);
+        this.shots = new CellSet(mode.getSize());
+    }
+
+    void add(Ship ship) {
+        fleet.add(ship);
+        for (int cell : ship.getCells()) {
+            shipsByCell.put(cell, ship);
+        }
+        placed[ship.getType().ordinal()]++;
+        afloat++;
+    }
+
+    boolean isOccupied(int cell) {
+        return shipsByCell.get(cell) != null;
+    }
+
+    Ship shipAt(int cell) {
+        return shipsByCell.get(cell);
+    }
+
+    // True if one of the cells, or any of their eight neighbours, holds a ship of this
+    // board or is in 'pending' (ships accepted but not added yet, may be null)
+    boolean touches(int[] cells, int count, CellSet pending) {
+        for (int i = 0; i < count; i++) {
+            int x = mode.row(cells[i]);
+            int y = mode.column(cells[i]);
+            for (int nx = x - 1; nx <= x + 1; nx++) {
+                for (int ny = y - 1; ny <= y + 1; ny++) {
+                    if (!mode.inBounds(nx, ny)) {
+                        continue;
+                    }
+                    int neighbour = mode.index(nx, ny);
+                    if (shipsByCell.get(neighbour) != null || (pending != null && pending.get(neighbour))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    int placed(ShipType type) {
+        return placed[type.ordinal()];
+    }
+
+    boolean isComplete() {
+        return fleet.size() == mode.getFleetSize();
+    }
+
+    // Records the shot and returns the ship at the cell, or null for water
+    Ship shoot(int cell) {
+        shots.set(cell);
+        return shipsByCell.get(cell);
+    }
+
+    void shipSunk() {
+        afloat--;
+    }
+
+    // Every ship of the complete fleet has gone down
+    boolean isDefeated() {
+        return afloat == 0 && isComplete();
+    }
+
+    List<Ship> getFleet() {
+        return fleet;
+    }
+
+    CellSet getShots() {
+        return shots;
+    }
+}
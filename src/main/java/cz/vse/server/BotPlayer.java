@@ -0,0 +1,149 @@
+package cz.vse.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+import java.util.List;
+import java.util.Random;
+
+// Built-in opponent without a socket. Its Session holds it as the output, like a
+// connection's, so BattleshipGame reports to it exactly as to a human, and it answers by
+// calling the engine on the game's shard. Game events arrive on the shard; the text
+// and flush calls a ClientHandler makes for disconnects may come from an event loop
+// and are ignored.
+final class BotPlayer implements PlayerOutput {
+    private static final Logger logger = LogManager.getLogger(BotPlayer.class);
+
+    // Delay before each shot, so a human can follow the game
+    static final long THINK_TIME = Long.getLong("battleship.bot.thinkTime", 500);
+    // Largest board the bot plays; its density pass grows with the board's area
+    static final int MAX_SIZE = 100;
+
+    private final Session session;
+    private final String name;
+    private final BattleshipGame game;
+    private final GameMode mode;
+    private final BotTargeting targeting;
+    // Shard only
+    private boolean finished;
+
+    BotPlayer(Session session, BattleshipGame game) {
+        this.session = session;
+        this.name = session.getUsername();
+        this.game = game;
+        this.mode = game.getMode();
+        this.targeting = new BotTargeting(new Random(), mode);
+    }
+
+    static boolean plays(GameMode mode) {
+        return mode.getSize() <= MAX_SIZE;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    // Places the fleet from BotTargeting.randomFleet in one go
+    void start(List<int[]> fleet) {
+        game.execute(() -> {
+            ShipType[] types = new ShipType[fleet.size()];
+            int s = 0;
+            for (ShipType type : ShipType.values()) {
+                for (int n = 0; n < mode.getCount(type); n++) {
+                    types[s++] = type;
+                }
+            }
+            int[] shipStart = new int[types.length + 1];
+            for (s = 0; s < types.length; s++) {
+                shipStart[s + 1] = shipStart[s] + fleet.get(s).length / 2;
+            }
+            int[] cells = new int[shipStart[types.length] * 2];
+            for (s = 0; s < types.length; s++) {
+                System.arraycopy(fleet.get(s), 0, cells, shipStart[s] * 2, fleet.get(s).length);
+            }
+            game.placeFleet(session.getId(), types, shipStart, types.length, cells, this);
+        });
+    }
+
+    private void scheduleShot() {
+        if (finished) {
+            return;
+        }
+        if (THINK_TIME > 0) {
+            Server.getTimers().schedule(() -> game.execute(this::shoot), THINK_TIME);
+        } else {
+            game.execute(this::shoot);
+        }
+    }
+
+    private void shoot() {
+        if (finished || game.getGameState() != GameState.IN_PROGRESS) {
+            return;
+        }
+        long start = System.nanoTime();
+        int cell = targeting.nextShot();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Bot '{}' picked {} in {} us", name, mode.coordinate(cell), Unbox.box((System.nanoTime() - start) / 1000));
+        }
+        game.processMove(session.getId(), mode.row(cell), mode.column(cell), this);
+    }
+
+    @Override
+    public void text(String line) {
+    }
+
+    @Override
+    public void ok() {
+    }
+
+    @Override
+    public void ping() {
+    }
+
+    @Override
+    public void opponentFound(String opponent) {
+    }
+
+    @Override
+    public void shipPlaced(ShipType type, int[] cells, int firstCell, int cellCount) {
+    }
+
+    @Override
+    public void gameStarted(boolean yourTurn) {
+        if (yourTurn) {
+            scheduleShot();
+        }
+    }
+
+    @Override
+    public void shot(int x, int y, boolean hit, boolean byOpponent) {
+        if (!byOpponent) {
+            targeting.recordShot(mode.index(x, y), hit);
+        }
+    }
+
+    @Override
+    public void sunk(Ship ship, boolean byOpponent) {
+        if (!byOpponent) {
+            targeting.recordSunk(ship);
+        }
+    }
+
+    @Override
+    public void turn(boolean yours, boolean again) {
+        if (yours) {
+            scheduleShot();
+        }
+    }
+
+    @Override
+    public void gameOver(boolean won) {
+        finished = true;
+        logger.info("Bot '{}' {} its game", name, won ? "won" : "lost");
+    }
+
+    @Override
+    public void flush() {
+    }
+}
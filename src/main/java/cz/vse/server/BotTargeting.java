@@ -0,0 +1,357 @@
+package cz.vse.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Shot selection for the built-in bot, on the board of any GameMode. Every legal
+// placement of every ship still afloat adds weight to the cells it covers; the bot
+// fires at the heaviest untried cell. A placement is illegal when it covers a miss or
+// touches a sunk ship (ships never touch). While there are unresolved hits only
+// placements through them count, weighted by how many they cover, which walks along
+// a wounded ship.
+//
+// A placement is a rotation or mirror of a ShipType's standard shape at some origin:
+// ~1000 of them on the classic board, a few microseconds on the game's shard, but
+// ~100 times as many on a 100x100 one. From PARALLEL_THRESHOLD cells on, the origins
+// are split by row across the common fork/join pool, each part summing into its own
+// array. The sums, and so the shots, are the same as those of the sequential pass.
+// Opponents that place other shapes than ShipType's standard ones may leave no legal
+// placement; the bot then fires at random untried cells.
+final class BotTargeting {
+    private static final ShipType[] TYPES = ShipType.values();
+    // Distinct rotations/mirrors of each ShipType's shape, by ordinal
+    private static final Shape[][] SHAPES = new Shape[TYPES.length][];
+    // Board cells from which the density is computed on the fork/join pool
+    static final int PARALLEL_THRESHOLD = 2500;
+    // Placement origins a fork/join task sums without splitting further
+    private static final int SEQUENTIAL_CHUNK = 1024;
+
+    static {
+        for (ShipType type : TYPES) {
+            SHAPES[type.ordinal()] = shapes(type.getShape());
+        }
+    }
+
+    // x0, y0, x1, y1, ... shifted so the smallest x and y are 0, and the rows and
+    // columns the cells span
+    private record Shape(int[] cells, int height, int width) {
+    }
+
+    private final Random random;
+    private final GameMode mode;
+    private final int size;
+    private final int parallelThreshold;
+    private final boolean[] shots;
+    // Hits on ships not yet sunk
+    private final boolean[] hits;
+    // Misses plus every sunk ship grown by one cell
+    private final boolean[] blocked;
+    // Ships not yet sunk per ShipType ordinal
+    private final int[] afloat = new int[TYPES.length];
+    private final long[] density;
+    private int shotCount;
+    private int hitCount;
+
+    BotTargeting(Random random, GameMode mode) {
+        this(random, mode, PARALLEL_THRESHOLD);
+    }
+
+    // Tests compare both paths on the same board through 'parallelThreshold'
+    BotTargeting(Random random, GameMode mode, int parallelThreshold) {
+        this.random = random;
+        this.mode = mode;
+        this.size = mode.getSize();
+        this.parallelThreshold = parallelThreshold;
+        int cells = size * size;
+        this.shots = new boolean[cells];
+        this.hits = new boolean[cells];
+        this.blocked = new boolean[cells];
+        this.density = new long[cells];
+        for (ShipType type : TYPES) {
+            afloat[type.ordinal()] = mode.getCount(type);
+        }
+    }
+
+    void recordShot(int cell, boolean hit) {
+        if (shots[cell]) {
+            return;
+        }
+        shots[cell] = true;
+        shotCount++;
+        if (hit) {
+            hits[cell] = true;
+            hitCount++;
+        } else {
+            blocked[cell] = true;
+        }
+    }
+
+    void recordSunk(Ship ship) {
+        afloat[ship.getType().ordinal()]--;
+        for (int cell : ship.getCells()) {
+            if (hits[cell]) {
+                hits[cell] = false;
+                hitCount--;
+            }
+            int x = mode.row(cell);
+            int y = mode.column(cell);
+            for (int nx = x - 1; nx <= x + 1; nx++) {
+                for (int ny = y - 1; ny <= y + 1; ny++) {
+                    if (mode.inBounds(nx, ny)) {
+                        blocked[mode.index(nx, ny)] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    // Cell index of the next shot, never one already fired at (unless all were)
+    int nextShot() {
+        boolean target = hitCount > 0;
+        if (!accumulate(target) && target) {
+            accumulate(false);
+        }
+        int best = -1;
+        long bestWeight = 0;
+        int ties = 0;
+        for (int cell = 0; cell < density.length; cell++) {
+            long weight = density[cell];
+            if (weight == 0 || shots[cell]) {
+                continue;
+            }
+            if (weight > bestWeight) {
+                best = cell;
+                bestWeight = weight;
+                ties = 1;
+            } else if (weight == bestWeight && random.nextInt(++ties) == 0) {
+                best = cell;
+            }
+        }
+        return best >= 0 ? best : randomUntried();
+    }
+
+    // Sets 'density' to the weight of every legal placement; false if there was none
+    private boolean accumulate(boolean target) {
+        if (density.length < parallelThreshold) {
+            Arrays.fill(density, 0);
+            accumulate(0, size, target, density);
+        } else {
+            long[] sum = ForkJoinPool.commonPool().invoke(new DensityTask(0, size, target));
+            System.arraycopy(sum, 0, density, 0, density.length);
+        }
+        for (long weight : density) {
+            if (weight != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Adds the legal placements whose origin is in rows [from, to)
+    private long[] accumulate(int from, int to, boolean target, long[] into) {
+        for (ShipType type : TYPES) {
+            int ships = afloat[type.ordinal()];
+            if (ships <= 0) {
+                continue;
+            }
+            for (Shape shape : SHAPES[type.ordinal()]) {
+                int[] cells = shape.cells();
+                int lastRow = Math.min(to, size - shape.height() + 1);
+                int lastColumn = size - shape.width();
+                for (int x0 = from; x0 < lastRow; x0++) {
+                    for (int y0 = 0; y0 <= lastColumn; y0++) {
+                        int origin = x0 * size + y0;
+                        int covered = 0;
+                        boolean legal = true;
+                        for (int i = 0; i < cells.length && legal; i += 2) {
+                            int cell = origin + cells[i] * size + cells[i + 1];
+                            legal = !blocked[cell];
+                            if (hits[cell]) {
+                                covered++;
+                            }
+                        }
+                        if (!legal || (target && covered == 0)) {
+                            continue;
+                        }
+                        long weight = (target ? 1L << (3 * covered) : 1) * ships;
+                        for (int i = 0; i < cells.length; i += 2) {
+                            into[origin + cells[i] * size + cells[i + 1]] += weight;
+                        }
+                    }
+                }
+            }
+        }
+        return into;
+    }
+
+    private int randomUntried() {
+        int untried = density.length - shotCount;
+        int skip = untried > 0 ? random.nextInt(untried) : 0;
+        for (int cell = 0; cell < density.length; cell++) {
+            if (!shots[cell] && skip-- == 0) {
+                return cell;
+            }
+        }
+        return 0;
+    }
+
+    // Splits a range of origin rows until it is small enough to sum sequentially
+    @SuppressWarnings("serial") // Never serialized
+    private final class DensityTask extends RecursiveTask<long[]> {
+        private final int from;
+        private final int to;
+        private final boolean target;
+
+        DensityTask(int from, int to, boolean target) {
+            this.from = from;
+            this.to = to;
+            this.target = target;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from <= 1 || (to - from) * size <= SEQUENTIAL_CHUNK) {
+                return accumulate(from, to, target, new long[density.length]);
+            }
+            int middle = (from + to) >>> 1;
+            DensityTask right = new DensityTask(middle, to, target);
+            right.fork();
+            long[] left = new DensityTask(from, middle, target).compute();
+            long[] other = right.join();
+            for (int cell = 0; cell < left.length; cell++) {
+                left[cell] += other[cell];
+            }
+            return left;
+        }
+    }
+
+    // A random fleet of standard shapes where no two ships touch, null if the board
+    // has no room for one. The list holds mode.getCount(type) ships of each ShipType
+    // in ordinal order, each as its x0, y0, x1, y1, ... cells.
+    static List<int[]> randomFleet(GameMode mode, Random random) {
+        int size = mode.getSize();
+        for (int round = 0; round < 100; round++) {
+            List<int[]> fleet = new ArrayList<>(mode.getFleetSize());
+            boolean[] taken = new boolean[size * size];
+            boolean placed = true;
+            for (ShipType type : TYPES) {
+                for (int n = 0; n < mode.getCount(type) && placed; n++) {
+                    int[] ship = randomShip(SHAPES[type.ordinal()], size, taken, random);
+                    placed = ship != null;
+                    if (placed) {
+                        fleet.add(ship);
+                    }
+                }
+            }
+            if (placed) {
+                return fleet;
+            }
+        }
+        return null;
+    }
+
+    // Cells of a ship clear of 'taken', which then grows by the ship and its
+    // neighbours; null if a few random tries found no room
+    private static int[] randomShip(Shape[] shapes, int size, boolean[] taken, Random random) {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            Shape shape = shapes[random.nextInt(shapes.length)];
+            if (shape.height() > size || shape.width() > size) {
+                continue;
+            }
+            int x0 = random.nextInt(size - shape.height() + 1);
+            int y0 = random.nextInt(size - shape.width() + 1);
+            int[] cells = shape.cells();
+            boolean free = true;
+            for (int i = 0; i < cells.length && free; i += 2) {
+                free = !taken[(x0 + cells[i]) * size + y0 + cells[i + 1]];
+            }
+            if (!free) {
+                continue;
+            }
+            int[] ship = new int[cells.length];
+            for (int i = 0; i < cells.length; i += 2) {
+                int x = x0 + cells[i];
+                int y = y0 + cells[i + 1];
+                ship[i] = x;
+                ship[i + 1] = y;
+                for (int nx = Math.max(0, x - 1); nx <= Math.min(size - 1, x + 1); nx++) {
+                    for (int ny = Math.max(0, y - 1); ny <= Math.min(size - 1, y + 1); ny++) {
+                        taken[nx * size + ny] = true;
+                    }
+                }
+            }
+            return ship;
+        }
+        return null;
+    }
+
+    private static Shape[] shapes(int[] shape) {
+        List<Shape> result = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (int transform = 0; transform < 8; transform++) {
+            int[] cells = transform(shape, transform);
+            // Symmetric shapes produce the same cells under several transforms
+            int[] sorted = sortedCells(cells);
+            if (!seen.add(Arrays.toString(sorted))) {
+                continue;
+            }
+            int height = 0;
+            int width = 0;
+            for (int i = 0; i < cells.length; i += 2) {
+                height = Math.max(height, cells[i] + 1);
+                width = Math.max(width, cells[i + 1] + 1);
+            }
+            result.add(new Shape(sorted, height, width));
+        }
+        return result.toArray(new Shape[0]);
+    }
+
+    // The cells ordered by x, then y, so equal shapes compare equal
+    private static int[] sortedCells(int[] cells) {
+        long[] keys = new long[cells.length / 2];
+        for (int i = 0; i < cells.length; i += 2) {
+            keys[i / 2] = ((long) cells[i] << 32) | cells[i + 1];
+        }
+        Arrays.sort(keys);
+        int[] sorted = new int[cells.length];
+        for (int i = 0; i < keys.length; i++) {
+            sorted[2 * i] = (int) (keys[i] >>> 32);
+            sorted[2 * i + 1] = (int) keys[i];
+        }
+        return sorted;
+    }
+
+    // Rotation by 90 * (transform % 4) degrees, mirrored for transform >= 4,
+    // shifted back so the smallest x and y are 0
+    private static int[] transform(int[] shape, int transform) {
+        int[] cells = Arrays.copyOf(shape, shape.length);
+        for (int i = 0; i < cells.length; i += 2) {
+            int x = cells[i];
+            int y = transform >= 4 ? -cells[i + 1] : cells[i + 1];
+            for (int r = 0; r < transform % 4; r++) {
+                int t = x;
+                x = y;
+                y = -t;
+            }
+            cells[i] = x;
+            cells[i + 1] = y;
+        }
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        for (int i = 0; i < cells.length; i += 2) {
+            minX = Math.min(minX, cells[i]);
+            minY = Math.min(minY, cells[i + 1]);
+        }
+        for (int i = 0; i < cells.length; i += 2) {
+            cells[i] -= minX;
+            cells[i + 1] -= minY;
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,79 @@
+package cz.vse.server;
+
+import java.util.function.IntConsumer;
+
+// Set of cells on a board of any supported size. The board is cut into 10x10 chunks,
+// each a Bitboard created when its first cell is set, so memory follows the cells in
+// the set rather than the board's area. The classic board is exactly one chunk.
+final class CellSet {
+    private static final int CHUNK = Bitboard.SIZE;
+
+    private final int size;
+    private final int chunksPerRow;
+    private final IntMap<Bitboard> chunks = new IntMap<>(4);
+    private int count;
+
+    CellSet(int size) {
+        this.size = size;
+        this.chunksPerRow = (size + CHUNK - 1) / CHUNK;
+    }
+
+    // 'cell' is x * size + y, see GameMode.index
+    boolean get(int cell) {
+        int x = cell / size;
+        int y = cell % size;
+        Bitboard chunk = chunks.get(chunk(x, y));
+        return chunk != null && chunk.get(Bitboard.index(x % CHUNK, y % CHUNK));
+    }
+
+    // True if the cell was not in the set yet
+    boolean set(int cell) {
+        int x = cell / size;
+        int y = cell % size;
+        int key = chunk(x, y);
+        Bitboard chunk = chunks.get(key);
+        if (chunk == null) {
+            chunk = new Bitboard();
+            chunks.put(key, chunk);
+        }
+        int bit = Bitboard.index(x % CHUNK, y % CHUNK);
+        if (chunk.get(bit)) {
+            return false;
+        }
+        chunk.set(bit);
+        count++;
+        return true;
+    }
+
+    int cardinality() {
+        return count;
+    }
+
+    // Cells in ascending order within each chunk; chunks come in no particular order
+    void forEach(IntConsumer action) {
+        for (int slot = 0; slot < chunks.capacity(); slot++) {
+            int key = chunks.keyAt(slot);
+            if (key < 0) {
+                continue;
+            }
+            Bitboard chunk = chunks.valueAt(slot);
+            int x0 = key / chunksPerRow * CHUNK;
+            int y0 = key % chunksPerRow * CHUNK;
+            for (int bit = chunk.nextSetBit(0); bit >= 0; bit = chunk.nextSetBit(bit + 1)) {
+                action.accept((x0 + Bitboard.row(bit)) * size + y0 + Bitboard.column(bit));
+            }
+        }
+    }
+
+    // The cells in forEach() order
+    int[] toArray() {
+        int[] cells = new int[count];
+        int[] next = {0};
+        forEach(cell -> cells[next[0]++] = cell);
+        return cells;
+    }
+
+    private int chunk(int x, int y) {
+        return x / CHUNK * chunksPerRow + y / CHUNK;
+    }
+}
@@ -0,0 +1,40 @@
+package cz.vse.server;
+
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Writer behind each player's PrintWriter. Characters are collected until flush()
+// and then handed to the owning ClientHandler as a single encoded buffer.
+class ChannelWriter extends Writer {
+    private final ClientHandler handler;
+    private final StringBuilder pending = new StringBuilder(128);
+
+    ChannelWriter(ClientHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        pending.append(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        pending.append(str, off, off + len);
+    }
+
+    @Override
+    public void flush() {
+        if (pending.length() == 0) {
+            return;
+        }
+        handler.enqueue(StandardCharsets.UTF_8.encode(CharBuffer.wrap(pending)));
+        pending.setLength(0);
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+}
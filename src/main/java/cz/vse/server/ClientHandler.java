@@ -1,240 +1,653 @@
 package cz.vse.server;
 
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.*;
-import java.net.Socket;
-import java.net.SocketException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-class ClientHandler implements Runnable {
+// Per-connection state machine driven by its EventLoop. Each complete inbound line
+// is dispatched according to the current ConnectionPhase; nothing here ever blocks.
+class ClientHandler {
     private static final Logger logger = LogManager.getLogger(ClientHandler.class);
 
-    private Socket clientSocket;
-    private BufferedReader in;
-    private PrintWriter out;
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    // Rate-limited commands in a row after which the client is disconnected
+    private static final int MAX_THROTTLED = Integer.getInteger("battleship.rateLimit.maxThrottled", 200);
+
+    private final SocketChannel channel;
+    private final EventLoop eventLoop;
+    private SelectionKey key;
+    private final PrintWriter writer;
+    // Rendering of everything we send; swapped to BinaryOutput after LOGIN-BINARY
+    private volatile PlayerOutput out;
+    private boolean binary;
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private ByteBuffer head; // coalesced data, written before the queue (event loop only)
+    private final AtomicInteger queuedBytes = new AtomicInteger();
+    private volatile boolean closed;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Runnable scheduleFlush;
+    private byte[] lineBuffer = new byte[128];
+    private int lineLength;
+    private final Command command = new Command();
+    // One per RateLimit; a throttled command is dropped without touching any state
+    private final TokenBucket[] rateLimits = RateLimit.newBuckets();
+    private int throttled; // commands dropped since the last accepted one
+
     private String username;
-    private Timer afkTimer;
+    // Set at LOGIN or RESUME, lets a later connection take over after a network failure
+    private Session session;
+    private ConnectionPhase phase = ConnectionPhase.LOGIN;
+    private BattleshipGame game;
+    private int shipsPlaced;
+    // Game this connection spectates instead of playing (WATCH)
+    private BattleshipGame watching;
+
+    private TimingWheel.Timeout afkTimer;
     private static final long AFK_TIMEOUT = 20 * 1000; // 20 seconds
     private final AtomicBoolean isConnected = new AtomicBoolean(true);
 
     // --- KEEP-ALIVE ---
-    private Timer keepAliveTimer;
+    private TimingWheel.Timeout keepAliveTimer;
     private static final long KEEP_ALIVE_INTERVAL = 30 * 1000; // 30 seconds
 
-    public ClientHandler(Socket socket) {
-        this.clientSocket = socket;
+    ClientHandler(SocketChannel channel, EventLoop eventLoop) {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.scheduleFlush = () -> eventLoop.scheduleFlush(this);
+        // No autoflush: everything a command produces is flushed once at its end
+        this.writer = new PrintWriter(new ChannelWriter(this), false);
+        this.out = new TextOutput(writer);
+        Metrics.connectionsOpened.increment();
+        startAfkTimer();
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
     }
 
-    @Override
-    public void run() {
+    EventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    // --- INBOUND ---
+
+    void onReadable(ByteBuffer buffer) {
+        buffer.clear();
+        int read;
         try {
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
-
-            String message;
-            while ((message = in.readLine()) != null) {
-                resetAfkTimer();
-                if (message.equalsIgnoreCase("CHECK")) {
-                    out.println("OK");
-                    out.flush();
-                    continue;
-                }
-                out.println("INFO: Welcome to Battleships Server! Please log in using 'LOGIN: username'");
-                out.flush();
-                if (message.startsWith("LOGIN: ")) {
-                    username = message.substring(7).trim();
-                    if (Server.activeUsers.contains(username)) {
-                        out.println("ERROR: Username already in use. Try another one.");
-                        logger.warn("Login attempt with already used username: {}", username);
-                    } else {
-                        Server.activeUsers.add(username);
-                        Server.registerPlayerOutput(username, out);
-                        GameManager.addPlayerToQueue(username);
-                        out.println("INFO: Welcome, " + username + "! Waiting for an opponent...");
-                        logger.info("User '{}' logged in and added to queue", username);
-                        break;
-                    }
+            read = channel.read(buffer);
+        } catch (IOException e) {
+            logger.debug("Read failed for '{}'", username, e);
+            Metrics.peerClosedDisconnects.increment();
+            handleConnectionLost();
+            return;
+        }
+        if (read < 0) {
+            Metrics.peerClosedDisconnects.increment();
+            handleConnectionLost();
+            return;
+        }
+        Metrics.bytesIn.add(read);
+        buffer.flip();
+        while (buffer.hasRemaining() && isConnected.get()) {
+            // The mode may change in the middle of a read, right after LOGIN-BINARY
+            boolean ok = binary ? readFrame(buffer) : readLine(buffer);
+            if (!ok) {
+                return;
+            }
+        }
+        // One flush for every reply produced by this read
+        out.flush();
+    }
+
+    // Consumes bytes up to and including the next '\n'; false if the connection was dropped
+    private boolean readLine(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                int length = lineLength;
+                if (length > 0 && lineBuffer[length - 1] == '\r') {
+                    length--;
                 }
+                lineLength = 0;
+                handleLine(length);
+                return true;
+            }
+            if (!append(b)) {
+                return false;
             }
+        }
+        return true;
+    }
 
-            startAfkTimer();
-            startKeepAlive();
+    // Consumes bytes of the current frame; dispatches it once complete
+    private boolean readFrame(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            if (!append(buffer.get())) {
+                return false;
+            }
+            if (lineLength < BinaryProtocol.HEADER_LENGTH) {
+                continue;
+            }
+            int bodyLength = ((lineBuffer[0] & 0xFF) << 8) | (lineBuffer[1] & 0xFF);
+            if (lineLength == BinaryProtocol.HEADER_LENGTH + bodyLength) {
+                lineLength = 0;
+                // Drop the header so the body starts at offset 0
+                System.arraycopy(lineBuffer, BinaryProtocol.HEADER_LENGTH, lineBuffer, 0, bodyLength);
+                BinaryProtocol.decode(lineBuffer, bodyLength, command);
+                handleCommand(bodyLength);
+                return true;
+            }
+        }
+        return true;
+    }
 
-            Thread exitMonitor = new Thread(() -> {
-                try {
-                    while (isConnected.get()) {
-                        synchronized (in) {
-                            if (in.ready()) {
-                                String exitMessage = readInput();
-                                resetAfkTimer();
-                                if ("EXIT".equalsIgnoreCase(exitMessage)) {
-                                    out.println("Goodbye, " + username + "!");
-                                    logger.info("User '{}' disconnected voluntarily.", username);
-                                    handleDisconnection();
-                                    return;
-                                }
-                                if ("CHECK".equalsIgnoreCase(exitMessage)) {
-                                    out.println("OK");
-                                    out.flush();
-                                }
-                            }
-                        }
-                        Thread.sleep(100);
-                    }
-                } catch (IOException e) {
-                    if (isConnected.get()) {
-                        logger.debug("Exit monitor detected disconnection for '{}'", username);
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            });
-            exitMonitor.start();
-
-            while (isConnected.get()) {
-                message = in.readLine();
-                if (message == null) {
-                    handleDisconnection();
-                    return;
-                }
-                resetAfkTimer();
-                if (message.equalsIgnoreCase("CHECK")) {
-                    out.println("OK");
-                    out.flush();
-                    continue;
-                }
-                if ("READY".equalsIgnoreCase(message)) {
+    private boolean append(byte b) {
+        if (lineLength == lineBuffer.length) {
+            if (lineLength >= MAX_LINE_LENGTH) {
+                logger.warn("Line too long from '{}', closing connection", username);
+                handleDisconnection();
+                return false;
+            }
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.min(lineLength * 2, MAX_LINE_LENGTH));
+        }
+        lineBuffer[lineLength++] = b;
+        return true;
+    }
+
+    private void handleLine(int length) {
+        CommandParser.parse(lineBuffer, length, command);
+        handleCommand(length);
+    }
+
+    // 'length' is the size of the raw input in lineBuffer, only used for LOGIN and logging
+    private void handleCommand(int length) {
+        RateLimit limit = RateLimit.of(command.getType(), phase);
+        TokenBucket bucket = rateLimits[limit.ordinal()];
+        if (bucket != null && !bucket.tryTake(System.nanoTime())) {
+            throttle(limit);
+            return;
+        }
+        throttled = 0;
+        // Only commands that got through count as activity
+        resetAfkTimer();
+        Metrics.command(command.getType());
+        if (command.getType() == CommandType.CHECK) {
+            out.ok();
+            return;
+        }
+        if (command.getType() == CommandType.WATCH
+                && (phase == ConnectionPhase.LOGIN || phase == ConnectionPhase.WATCHING)) {
+            handleWatch(length);
+            return;
+        }
+        if (phase == ConnectionPhase.LOGIN) {
+            if (command.getType() == CommandType.RESUME) {
+                handleResume(length);
+            } else {
+                handleLogin(length);
+            }
+            return;
+        }
+        if (command.getType() == CommandType.EXIT) {
+            out.text(username != null ? "Goodbye, " + username + "!" : "Goodbye!");
+            logger.info("User '{}' disconnected voluntarily.", username);
+            Metrics.exitDisconnects.increment();
+            handleDisconnection();
+            return;
+        }
+        switch (phase) {
+            case READY -> {
+                if (command.getType() == CommandType.READY) {
                     logger.info("Client '{}' is ready", username);
-                    break;
+                    setPhase(ConnectionPhase.WAITING_FOR_GAME);
+                    GameManager.awaitGame(session).thenAccept(found -> runOnEventLoop(() -> onGameFound(found)));
                 }
             }
-            BattleshipGame game = null;  // Explicitly initialize to null
-            try {
-                while (isConnected.get()) {
-                    game = GameManager.getGame(username);
-                    if (game != null) {
-                        break;  // Found a game, exit the loop
+            case PLACE -> {
+                if (command.getType() == CommandType.PLACE) {
+                    handlePlace(length);
+                } else if (command.getType() == CommandType.PLACE_ALL) {
+                    handlePlaceAll(length);
+                }
+            }
+            case FIRE -> {
+                if (command.getType() == CommandType.FIRE) {
+                    if (!command.isValid()) {
+                        out.text(command.getError().getMessage(game.getMode()));
+                        logInvalid("FIRE", length);
+                        return;
                     }
-                    Thread.sleep(500);
+                    int x = command.getX();
+                    int y = command.getY();
+                    int player = session.getId();
+                    PlayerOutput output = out;
+                    long received = System.nanoTime();
+                    game.execute(() -> {
+                        game.processMove(player, x, y, output);
+                        Metrics.recordMove(System.nanoTime() - received);
+                    });
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                logger.warn("Game waiting loop interrupted for '{}'", username);
-                handleDisconnection();
-                return;
             }
+            default -> {
+                // WAITING_FOR_GAME / WAITING_FOR_SETUP / WATCHING: only CHECK and EXIT
+                // (and WATCH to switch games) are accepted
+            }
+        }
+    }
 
-// Comprehensive null check
-            if (game == null) {
-                if (isConnected.get()) {
-                    // Only log this as an error if we're still connected
-                    logger.error("Failed to find game for player '{}'", username);
-                    out.println("ERROR: Failed to start game");
-                }
-                handleDisconnection();
+    // A flood gets a single error and a single log line, and is cut off if it goes on
+    private void throttle(RateLimit limit) {
+        Metrics.rateLimited(limit);
+        if (++throttled == 1) {
+            out.text("ERROR: Too many commands, slow down.");
+            logger.warn("Rate limiting {} commands from '{}'", limit, username);
+        } else if (throttled >= MAX_THROTTLED) {
+            logger.warn("Closing '{}' after {} rate-limited commands in a row", username, throttled);
+            Metrics.rateLimitDisconnects.increment();
+            handleDisconnection();
+        }
+    }
+
+    private void handleLogin(int length) {
+        out.text("INFO: Welcome to Battleships Server! Please log in using 'LOGIN: username'");
+        if (command.getType() != CommandType.LOGIN) {
+            return;
+        }
+        int start = command.argumentStart;
+        String name = new String(lineBuffer, start, length - start, StandardCharsets.UTF_8).trim();
+        // The Router appends "[pair key]" to the LOGIN lines of two players it paired
+        String pair = null;
+        int pairAt = name.lastIndexOf(Router.PAIR_PREFIX);
+        if (pairAt > 0 && name.endsWith("]")) {
+            pair = name.substring(pairAt + Router.PAIR_PREFIX.length(), name.length() - 1).trim();
+            name = name.substring(0, pairAt).trim();
+        }
+        // "LOGIN: name (mode)" picks a game mode, see GameMode
+        GameMode mode = GameMode.CLASSIC;
+        int open = name.lastIndexOf(" (");
+        if (open > 0 && name.endsWith(")")) {
+            String modeName = name.substring(open + 2, name.length() - 1).trim();
+            mode = GameMode.forName(modeName);
+            if (mode == null) {
+                out.text("ERROR: Unknown game mode '" + modeName + "'. Available: " + String.join(", ", GameMode.names()));
                 return;
             }
-
-// Now we can safely use the game object
-            out.println("OPPONENT: " + game.getOpponent(username));
+            if (command.isBinary() && mode != GameMode.CLASSIC) {
+                out.text("ERROR: The binary protocol only supports the classic mode.");
+                return;
+            }
+            name = name.substring(0, open).trim();
+        }
+        Session claimed = Session.claim(name);
+        if (claimed == null) {
+            out.text("ERROR: Username already in use. Try another one.");
+            logger.warn("Login attempt with already used username: {}", name);
+            return;
+        }
+        session = claimed;
+        username = name;
+        String token = session.openToken(command.isBinary());
+        out.text(mode == GameMode.CLASSIC ? "INFO: Welcome, " + username + "! Waiting for an opponent..."
+                : "INFO: Welcome, " + username + "! Waiting for an opponent in " + mode.describe() + "...");
+        if (command.isBinary()) {
+            // The welcome line is the last text we send, everything after it is framed
             out.flush();
+            out = new BinaryOutput(this);
+            binary = true;
+        }
+        out.text("INFO: Resume token: " + token);
+        session.setOutput(out);
+        GameManager.addPlayerToQueue(session, mode, pair);
+        logger.info("User '{}' logged in and added to the {} queue ({} protocol)", username, mode, binary ? "binary" : "text");
+        setPhase(ConnectionPhase.READY);
+        startKeepAlive();
+    }
 
-            out.println("INFO: Place your ships using 'PLACE shipType x,y x,y' (5 ships total)");
-            int shipsPlaced = 0;
-            while (isConnected.get() && shipsPlaced < 5) {
-                message = in.readLine();
-                if (message == null) {
-                    handleDisconnection();
-                    return;
-                }
-                resetAfkTimer();
-                if (message.equalsIgnoreCase("CHECK")) {
-                    out.println("OK");
-                    out.flush();
-                    continue;
-                }
-                if (message.startsWith("PLACE ")) {
-                    String[] parts = message.split(" ", 3);
-                    if (parts.length < 3) {
-                        out.println("ERROR: Invalid PLACE command format!");
-                        logger.warn("Invalid PLACE format from '{}': {}", username, message);
-                        continue;
-                    }
+    // Takes over a session suspended by a network failure (see Session): the game's
+    // output moves to this connection and a one-line snapshot (BattleshipGame.resume)
+    // replaces whatever was missed. The snapshot is text; a binary session switches
+    // to frames right after it, like LOGIN-BINARY after the welcome line.
+    private void handleResume(int length) {
+        int start = command.argumentStart;
+        String token = new String(lineBuffer, start, length - start, StandardCharsets.US_ASCII).trim();
+        Session resumed = Session.forToken(token);
+        BattleshipGame held = resumed != null ? resumed.resume() : null;
+        if (held == null) {
+            out.text("ERROR: Nothing to resume. Please log in using 'LOGIN: username'");
+            logger.warn("RESUME with an unknown or expired token");
+            return;
+        }
+        session = resumed;
+        username = resumed.getUsername();
+        game = held;
+        setPhase(ConnectionPhase.WAITING_FOR_SETUP);
+        Metrics.sessionsResumed.increment();
+
+        PlayerOutput snapshotOut = out;
+        if (resumed.isBinary()) {
+            out = new BinaryOutput(this);
+            binary = true;
+        }
+        PlayerOutput gameOut = out;
+        // On the shard, so no game event falls between the snapshot and the new output
+        held.execute(() -> {
+            int placed = held.resume(resumed.getId(), snapshotOut);
+            snapshotOut.flush();
+            resumed.setOutput(gameOut);
+            boolean started = held.isSetupComplete();
+            runOnEventLoop(() -> onResumed(placed, started));
+        });
+        startKeepAlive();
+        logger.info("User '{}' resumed the session", username);
+    }
 
-                    String shipType = parts[1];
-                    String positions = parts[2].replaceAll("\\(\\d+\\)", "").trim();
-                    boolean success = game.placeShip(username, shipType, positions, out);
+    private void onResumed(int placed, boolean started) {
+        if (!isConnected.get()) {
+            return;
+        }
+        shipsPlaced = placed;
+        if (started) {
+            setPhase(ConnectionPhase.FIRE);
+        } else if (shipsPlaced < game.getMode().getFleetSize()) {
+            setPhase(ConnectionPhase.PLACE);
+        } else {
+            game.onSetupComplete().thenAccept(ready -> runOnEventLoop(this::onSetupComplete));
+        }
+    }
 
-                    if (success) {
-                        shipsPlaced++;
-                    }
-                }
-            }
+    // Spectators never log in, so they hold no username and cannot be queued. A second
+    // WATCH switches to another game.
+    private void handleWatch(int length) {
+        int start = command.argumentStart;
+        String player = new String(lineBuffer, start, length - start, StandardCharsets.UTF_8).trim();
+        BattleshipGame target = GameManager.getGame(player);
+        if (target == null) {
+            out.text("ERROR: No game found for player '" + player + "'");
+            return;
+        }
+        if (watching != null) {
+            stopWatching();
+        }
+        watching = target;
+        setPhase(ConnectionPhase.WATCHING);
+        target.execute(() -> target.addSpectator(this));
+        if (keepAliveTimer == null) {
+            startKeepAlive();
+        }
+        logger.info("Spectator started watching the game of '{}'", player);
+    }
 
-            if (!isConnected.get()) return;
+    // On the game's shard like the addSpectator() it undoes, so it cannot overtake it
+    private void stopWatching() {
+        BattleshipGame previous = watching;
+        previous.execute(() -> previous.removeSpectator(this));
+    }
 
-            out.println("INFO: All ships placed! Waiting for opponent...");
-            while (isConnected.get() && !game.isSetupComplete()) {
-                Thread.sleep(500);
+    private void handlePlace(int length) {
+        if (!command.isValid()) {
+            out.text(command.getError().getMessage(game.getMode()));
+            logInvalid("PLACE", length);
+            return;
+        }
+
+        // The command buffer is reused for the next line, the shard needs its own copy
+        ShipType shipType = command.getShipType();
+        int cellCount = command.getCellCount();
+        int[] cells = Arrays.copyOf(command.cells, cellCount * 2);
+        BattleshipGame target = game;
+        int player = session.getId();
+        PlayerOutput output = out;
+        target.execute(() -> {
+            int placed = target.placeShip(player, shipType, cells, cellCount, output) ? 1 : 0;
+            runOnEventLoop(() -> onShipsPlaced(placed));
+        });
+    }
+
+    private void handlePlaceAll(int length) {
+        if (!command.isValid()) {
+            out.text(command.getError().getMessage(game.getMode()));
+            logInvalid("PLACEALL", length);
+            return;
+        }
+
+        int shipCount = command.getShipCount();
+        ShipType[] shipTypes = Arrays.copyOf(command.shipTypes, shipCount);
+        int[] shipStart = Arrays.copyOf(command.shipStart, shipCount + 1);
+        int[] cells = Arrays.copyOf(command.cells, command.getCellCount() * 2);
+        BattleshipGame target = game;
+        int player = session.getId();
+        PlayerOutput output = out;
+        target.execute(() -> {
+            int placed = target.placeFleet(player, shipTypes, shipStart, shipCount, cells, output);
+            runOnEventLoop(() -> onShipsPlaced(placed));
+        });
+    }
+
+    private void onShipsPlaced(int placed) {
+        if (placed == 0 || phase != ConnectionPhase.PLACE) {
+            return;
+        }
+        shipsPlaced += placed;
+        if (shipsPlaced == game.getMode().getFleetSize()) {
+            out.text("INFO: All ships placed! Waiting for opponent...");
+            setPhase(ConnectionPhase.WAITING_FOR_SETUP);
+            game.onSetupComplete().thenAccept(started -> runOnEventLoop(this::onSetupComplete));
+        }
+        out.flush();
+    }
+
+    // Logged like the player's moves, see Session.moveLevel()
+    private void logInvalid(String command, int length) {
+        Level level = session.moveLevel();
+        if (logger.isEnabled(level)) {
+            logger.log(level, "Invalid {} from '{}': {}", command, username, describeInput(length));
+        }
+    }
+
+    // Only used on error paths, the regular flow never turns the input into a String
+    private String describeInput(int length) {
+        if (binary) {
+            return "binary frame of " + length + " bytes";
+        }
+        return new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void onGameFound(BattleshipGame found) {
+        if (!isConnected.get() || phase != ConnectionPhase.WAITING_FOR_GAME) {
+            return;
+        }
+        game = found;
+        out.opponentFound(game.getOpponent(session.getId()).getUsername());
+        out.text("INFO: Place your ships using 'PLACE shipType x,y x,y' (" + game.getMode().getFleetSize() + " ships total)");
+        out.flush();
+        setPhase(ConnectionPhase.PLACE);
+    }
+
+    private void onSetupComplete() {
+        if (!isConnected.get() || phase != ConnectionPhase.WAITING_FOR_SETUP) {
+            return;
+        }
+        out.text("INFO: Game started! Your opponent is " + game.getOpponent(session.getId()).getUsername());
+        out.flush();
+        setPhase(ConnectionPhase.FIRE);
+    }
+
+    // Mirrored into the session, where the rest of the server looks the player up
+    private void setPhase(ConnectionPhase next) {
+        phase = next;
+        if (session != null) {
+            session.setPhase(next);
+        }
+    }
+
+    // Game events complete on whichever thread caused them; handler state lives on the loop
+    private void runOnEventLoop(Runnable task) {
+        if (eventLoop.inEventLoop()) {
+            task.run();
+        } else {
+            eventLoop.execute(task);
+        }
+    }
+
+    // --- OUTBOUND ---
+
+    // Called by ChannelWriter on flush, from any thread; never blocks. The actual write
+    // happens once per event loop iteration, together with every other buffer queued
+    // meanwhile. Data that does not fit the outbound budget is dropped and the
+    // connection closed, so one stalled reader cannot exhaust server memory.
+    void enqueue(ByteBuffer data) {
+        int size = data.remaining();
+        if (closed) {
+            return;
+        }
+        int queued = queuedBytes.addAndGet(size);
+        boolean overSoftLimit = queued > OutboundBudget.SOFT_LIMIT;
+        if (queued > OutboundBudget.HARD_LIMIT || !OutboundBudget.tryReserve(size)
+                || (overSoftLimit && OutboundBudget.POLICY == SlowConsumerPolicy.DISCONNECT)) {
+            queuedBytes.addAndGet(-size);
+            slowConsumer(queued);
+            return;
+        }
+        outbound.add(data);
+        if (closed) {
+            // Lost the race with cleanup(), give the reservation back
+            eventLoop.execute(this::discardOutbound);
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            if (eventLoop.inEventLoop()) {
+                eventLoop.scheduleFlush(this);
+            } else {
+                eventLoop.execute(scheduleFlush);
             }
+        }
+    }
+
+    private void slowConsumer(int queued) {
+        if (isConnected.get()) {
+            OutboundBudget.slowConsumerDisconnects.increment();
+            logger.warn("Closing slow consumer '{}' with {} bytes queued (policy {})",
+                    username, queued, OutboundBudget.POLICY);
+            handleDisconnection();
+        }
+    }
 
-            if (!isConnected.get()) return;
+    // True while the client is not keeping up with what we send
+    private boolean isBacklogged() {
+        return queuedBytes.get() > OutboundBudget.SOFT_LIMIT;
+    }
 
-            out.println("INFO: Game started! Your opponent is " + game.getOpponent(username));
-            out.flush();
+    // Event loop only
+    void flush() {
+        flushScheduled.set(false);
+        flushOutbound();
+    }
 
-            while (isConnected.get()) {
-                message = in.readLine();
-                if (message == null) {
-                    handleDisconnection();
-                    return;
+    void onWritable() {
+        flushOutbound();
+    }
+
+    private void flushOutbound() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        if (OutboundBudget.POLICY == SlowConsumerPolicy.COALESCE && isBacklogged()) {
+            coalesceOutbound();
+        }
+        ByteBuffer[] batch = eventLoop.writeBatch();
+        try {
+            while (head != null || !outbound.isEmpty()) {
+                int count = 0;
+                if (head != null) {
+                    batch[count++] = head;
                 }
-                resetAfkTimer();
-                if (message.equalsIgnoreCase("CHECK")) {
-                    out.println("OK");
-                    out.flush();
-                    continue;
+                for (ByteBuffer buffer : outbound) {
+                    if (count == batch.length) {
+                        break;
+                    }
+                    batch[count++] = buffer;
                 }
-                if (message.startsWith("FIRE ")) {
-                    String move = message.substring(5).trim();
-                    game.processMove(username, move, out);
+                // Gathering write: all queued lines go out in a single syscall
+                long written = channel.write(batch, 0, count);
+                EventLoop.writeCalls.increment();
+                Metrics.bytesOut.add(written);
+                release((int) written);
+                for (int i = 0; i < count; i++) {
+                    if (batch[i].hasRemaining()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    if (batch[i] == head) {
+                        head = null;
+                    } else {
+                        outbound.poll();
+                    }
                 }
             }
-
-        } catch (SocketException e) {
-            handleDisconnection();
-        } catch (IOException | InterruptedException e) {
-            logger.error("Connection lost with client: {}", username, e);
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            logger.debug("Write failed for '{}'", username, e);
+            Metrics.writeFailedDisconnects.increment();
+            handleConnectionLost();
         } finally {
-            cleanup();
+            Arrays.fill(batch, null);
         }
     }
 
+    // Merges everything queued into a single buffer at the head of the queue
+    private void coalesceOutbound() {
+        int pending = queuedBytes.get();
+        if (outbound.size() < 2 || pending <= 0) {
+            return;
+        }
+        ByteBuffer merged = ByteBuffer.allocate(pending);
+        if (head != null) {
+            merged.put(head);
+        }
+        ByteBuffer buffer;
+        while (merged.hasRemaining() && (buffer = outbound.peek()) != null && buffer.remaining() <= merged.remaining()) {
+            merged.put(outbound.poll());
+        }
+        merged.flip();
+        head = merged;
+        OutboundBudget.coalesced.increment();
+    }
+
+    private void release(int bytes) {
+        if (bytes > 0) {
+            queuedBytes.addAndGet(-bytes);
+            OutboundBudget.release(bytes);
+        }
+    }
+
+    // Returns whatever was never written to the global budget
+    private void discardOutbound() {
+        head = null;
+        outbound.clear();
+        release(queuedBytes.getAndSet(0));
+    }
+
+    // --- TIMERS ---
+
     private void startAfkTimer() {
-        if (!isConnected.get()) return;
-
-        afkTimer = new Timer(true);
-        afkTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                if (isConnected.get()) {
-                    handleAfk();
-                }
-            }
-        }, AFK_TIMEOUT);
+        afkTimer = Server.getTimers().schedule(() -> eventLoop.execute(this::handleAfk), AFK_TIMEOUT);
     }
 
     private void resetAfkTimer() {
-        if (afkTimer != null) {
-            afkTimer.cancel();
-        }
-        if (isConnected.get()) {
-            startAfkTimer();
-        }
+        afkTimer.touch(AFK_TIMEOUT);
     }
 
     private void handleAfk() {
@@ -242,94 +655,142 @@ class ClientHandler implements Runnable {
             return;
         }
         logger.info("User '{}' is AFK. Declaring as lost.", username);
-        out.println("INFO: You have been inactive for too long. You lose!");
-        String opponent = GameManager.getOpponent(username);
+        Metrics.afkDisconnects.increment();
+        out.text("INFO: You have been inactive for too long. You lose!");
+        Session opponent = GameManager.getOpponent(session);
         if (opponent != null) {
-            PrintWriter opponentOut = Server.getPlayerOutput(opponent);
+            PlayerOutput opponentOut = opponent.getOutput();
             if (opponentOut != null) {
-                opponentOut.println("INFO: Your opponent was inactive for too long. You win!");
+                opponentOut.text("INFO: Your opponent was inactive for too long. You win!");
+                opponentOut.flush();
             }
         }
         handleDisconnection();
     }
 
-    private synchronized String readInput() throws IOException {
-        return in.readLine();
+    private void startKeepAlive() {
+        keepAliveTimer = Server.getTimers().scheduleAtFixedRate(() -> eventLoop.execute(this::sendPing),
+                KEEP_ALIVE_INTERVAL, KEEP_ALIVE_INTERVAL);
+    }
+
+    private void sendPing() {
+        if (!isConnected.get()) {
+            return;
+        }
+        // A client with a backlog is evidently still there and does not need more data
+        if (isBacklogged() && OutboundBudget.POLICY != SlowConsumerPolicy.DISCONNECT) {
+            OutboundBudget.droppedPings.increment();
+            return;
+        }
+        out.ping();
+        out.flush();
+    }
+
+    // --- DISCONNECTION ---
+
+    // The network failed rather than the player leaving: a game in progress is held
+    // for Session.GRACE_PERIOD so the player can RESUME it from a new connection
+    private void handleConnectionLost() {
+        if (session == null || game == null || game.getGameState() == GameState.FINISHED
+                || Session.GRACE_PERIOD <= 0 || !isConnected.get()) {
+            handleDisconnection();
+            return;
+        }
+        isConnected.set(false);
+        logger.info("User '{}' lost the connection, holding the game for {} ms", username, Session.GRACE_PERIOD);
+        notifyOpponent("INFO: Your opponent lost the connection. Waiting up to "
+                + (Session.GRACE_PERIOD + 999) / 1000 + " seconds for them to return.");
+        Metrics.sessionsSuspended.increment();
+
+        Session suspended = session;
+        BattleshipGame held = game;
+        // Queued on the shard before the session can be resumed, so it can never
+        // remove the output a RESUME registers
+        held.execute(() -> suspended.setOutput(null));
+        session.suspend(held, () -> eventLoop.execute(this::expire));
+
+        setPhase(ConnectionPhase.CLOSED);
+        Metrics.connectionsClosed.increment();
+        cancelTimers();
+        close();
+    }
+
+    // The grace period ran out without a RESUME
+    private void expire() {
+        if (!session.expire()) {
+            return;
+        }
+        logger.info("User '{}' did not return in time.", username);
+        Metrics.sessionsExpired.increment();
+        notifyOpponent("INFO: Your opponent has left the game.");
+        GameManager.release(session);
     }
 
-    private synchronized void handleDisconnection() {
+    void handleDisconnection() {
+        if (!eventLoop.inEventLoop()) {
+            eventLoop.execute(this::handleDisconnection);
+            return;
+        }
         if (!isConnected.getAndSet(false)) {
             return;
         }
 
         if (username != null) {
             logger.info("User '{}' disconnected.", username);
-
-            // Notify the opponent
-            String opponent = GameManager.getOpponent(username);
-            if (opponent != null) {
-                PrintWriter opponentOut = Server.getPlayerOutput(opponent);
-                if (opponentOut != null) {
-                    opponentOut.println("INFO: Your opponent has left the game.");
-                    logger.info("Notified opponent '{}' about '{}' disconnection.", opponent, username);
-                }
-            }
+            notifyOpponent("INFO: Your opponent has left the game.");
         }
 
         cleanup();
     }
 
+    private void notifyOpponent(String message) {
+        Session opponent = GameManager.getOpponent(session);
+        if (opponent != null) {
+            PlayerOutput opponentOut = opponent.getOutput();
+            if (opponentOut != null) {
+                opponentOut.text(message);
+                opponentOut.flush();
+                logger.info("Notified opponent '{}' about '{}' disconnection.", opponent, username);
+            }
+        }
+    }
+
     private void cleanup() {
+        setPhase(ConnectionPhase.CLOSED);
+        Metrics.connectionsClosed.increment();
         try {
-            if (afkTimer != null) {
-                afkTimer.cancel();
-                afkTimer = null;
-            }
-            if (keepAliveTimer != null) {
-                keepAliveTimer.cancel();
-                keepAliveTimer = null;
+            cancelTimers();
+            if (watching != null) {
+                stopWatching();
             }
-            if (username != null && isConnected.get()) {
-                Server.activeUsers.remove(username);
-                Server.removePlayerOutput(username);
-                GameManager.removePlayer(username);
-
-                BattleshipGame game = GameManager.getGame(username);
-                if (game != null && game.getGameState() != GameState.FINISHED) {
-                    game.forfeit(username);
-                }
+            if (username != null) {
+                GameManager.release(session);
             }
         } catch (Exception e) {
             logger.error("Error during cleanup for {}", username, e);
         } finally {
-            try {
-                if (in != null) in.close();
-                if (out != null) out.close();
-                if (clientSocket != null) clientSocket.close();
-            } catch (IOException e) {
-                logger.error("Error closing resources for {}", username, e);
-            }
+            close();
         }
     }
 
-    private void startKeepAlive() {
-        keepAliveTimer = new Timer(true);
-        keepAliveTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                if (!isConnected.get()) {
-                    this.cancel();
-                    return;
-                }
-                try {
-                    out.println("PING");
-                    out.flush();
-                    System.out.println("[" + username + "] Server odeslal PING klientovi.");
-                } catch (Exception e) {
-                    logger.error("Keep-alive PING failed for '{}'", username, e);
-                    handleDisconnection();
-                }
-            }
-        }, KEEP_ALIVE_INTERVAL, KEEP_ALIVE_INTERVAL);
+    private void cancelTimers() {
+        afkTimer.cancel();
+        if (keepAliveTimer != null) {
+            keepAliveTimer.cancel();
+        }
+    }
+
+    private void close() {
+        // Best effort: push out whatever is still queued (e.g. "Goodbye") before closing
+        out.flush();
+        flushOutbound();
+        closed = true;
+        discardOutbound();
+        try {
+            if (key != null) key.cancel();
+            channel.close();
+        } catch (IOException e) {
+            logger.error("Error closing resources for {}", username, e);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,106 @@
+package cz.vse.server;
+
+import java.util.Arrays;
+
+// Result of parsing one inbound line. Each connection owns a single instance
+// that CommandParser overwrites for every message.
+public final class Command {
+    public static final int MAX_CELLS = 16;
+    // Ships per PLACEALL; larger fleets are placed with several
+    public static final int MAX_SHIPS = 64;
+
+    CommandType type = CommandType.UNKNOWN;
+    ParseError error = ParseError.NONE;
+    // Offset of the first byte after the command keyword (LOGIN user name etc.)
+    int argumentStart;
+    // LOGIN-BINARY: the client asks to switch to BinaryProtocol after login
+    boolean binary;
+
+    // PLACE (and each ship of PLACEALL, appended one after another)
+    ShipType shipType;
+    int declaredLength; // optional "(n)" suffix, 0 when absent
+    // x0, y0, x1, y1, ...; room for one ship, grown by addCell when PLACEALL needs more
+    int[] cells = new int[MAX_CELLS * 2];
+    int cellCount;
+
+    // PLACEALL: ship i owns cells [shipStart[i], shipStart[i + 1])
+    final ShipType[] shipTypes = new ShipType[MAX_SHIPS];
+    final int[] shipStart = new int[MAX_SHIPS + 1];
+    int shipCount;
+
+    // FIRE
+    int x;
+    int y;
+
+    // Appends a cell; the parsers bound the total by MAX_SHIPS * MAX_CELLS
+    void addCell(int x, int y) {
+        int i = cellCount * 2;
+        if (i == cells.length) {
+            cells = Arrays.copyOf(cells, cells.length * 2);
+        }
+        cells[i] = x;
+        cells[i + 1] = y;
+        cellCount++;
+    }
+
+    void reset() {
+        type = CommandType.UNKNOWN;
+        error = ParseError.NONE;
+        argumentStart = 0;
+        binary = false;
+        shipType = null;
+        declaredLength = 0;
+        cellCount = 0;
+        shipCount = 0;
+        x = 0;
+        y = 0;
+    }
+
+    public CommandType getType() {
+        return type;
+    }
+
+    public ParseError getError() {
+        return error;
+    }
+
+    public boolean isValid() {
+        return error == ParseError.NONE;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public ShipType getShipType() {
+        return shipType;
+    }
+
+    public int getDeclaredLength() {
+        return declaredLength;
+    }
+
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    public int getShipCount() {
+        return shipCount;
+    }
+
+    public int getCellX(int i) {
+        return cells[2 * i];
+    }
+
+    public int getCellY(int i) {
+        return cells[2 * i + 1];
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+}
@@ -0,0 +1,285 @@
+package cz.vse.server;
+
+// Decodes one text protocol line straight from the connection's byte buffer into a
+// reusable Command. Nothing is allocated; malformed input is reported through
+// Command.error instead of exceptions.
+//
+// Accepted forms mirror the original String based handling:
+//   CHECK / EXIT / READY   (case-insensitive)
+//   LOGIN: name [(mode)]   (mode as in GameMode, classic when absent)
+//   LOGIN: name [(mode)] [pair key]  (from the Router, see GameManager.addPlayerToQueue)
+//   LOGIN-BINARY: name     (switches to BinaryProtocol after the welcome line)
+//   PLACE type[(n)] [(n)] x,y x,y ...   ("(n)" length hints may appear anywhere)
+//   PLACEALL type x,y ...; type x,y ... (whole fleet, each ship as in PLACE)
+//   FIRE x,y               (spaces around the numbers are ignored)
+//   WATCH player           (spectate the player's game instead of logging in)
+//   RESUME token           (take over a dropped session, see Session)
+public final class CommandParser {
+    private static final byte[] CHECK = {'C', 'H', 'E', 'C', 'K'};
+    private static final byte[] EXIT = {'E', 'X', 'I', 'T'};
+    private static final byte[] READY = {'R', 'E', 'A', 'D', 'Y'};
+    private static final byte[] LOGIN = {'L', 'O', 'G', 'I', 'N', ':', ' '};
+    private static final byte[] LOGIN_BINARY = {'L', 'O', 'G', 'I', 'N', '-', 'B', 'I', 'N', 'A', 'R', 'Y', ':', ' '};
+    private static final byte[] PLACE = {'P', 'L', 'A', 'C', 'E', ' '};
+    private static final byte[] PLACE_ALL = {'P', 'L', 'A', 'C', 'E', 'A', 'L', 'L', ' '};
+    private static final byte[] FIRE = {'F', 'I', 'R', 'E', ' '};
+    private static final byte[] WATCH = {'W', 'A', 'T', 'C', 'H', ' '};
+    private static final byte[] RESUME = {'R', 'E', 'S', 'U', 'M', 'E', ' '};
+
+    // Longest accepted number, keeps int parsing free of overflow checks
+    private static final int MAX_DIGITS = 9;
+
+    private CommandParser() {
+    }
+
+    public static Command parse(byte[] buf, int len, Command command) {
+        command.reset();
+        if (equalsIgnoreCase(buf, len, CHECK)) {
+            command.type = CommandType.CHECK;
+        } else if (equalsIgnoreCase(buf, len, EXIT)) {
+            command.type = CommandType.EXIT;
+        } else if (equalsIgnoreCase(buf, len, READY)) {
+            command.type = CommandType.READY;
+        } else if (startsWith(buf, len, LOGIN)) {
+            command.type = CommandType.LOGIN;
+            command.argumentStart = LOGIN.length;
+        } else if (startsWith(buf, len, LOGIN_BINARY)) {
+            command.type = CommandType.LOGIN;
+            command.binary = true;
+            command.argumentStart = LOGIN_BINARY.length;
+        } else if (startsWith(buf, len, PLACE_ALL)) {
+            command.type = CommandType.PLACE_ALL;
+            command.argumentStart = PLACE_ALL.length;
+            parsePlaceAll(buf, PLACE_ALL.length, len, command);
+        } else if (startsWith(buf, len, PLACE)) {
+            command.type = CommandType.PLACE;
+            command.argumentStart = PLACE.length;
+            parsePlace(buf, PLACE.length, len, command);
+        } else if (startsWith(buf, len, FIRE)) {
+            command.type = CommandType.FIRE;
+            command.argumentStart = FIRE.length;
+            parseFire(buf, FIRE.length, len, command);
+        } else if (startsWith(buf, len, WATCH)) {
+            command.type = CommandType.WATCH;
+            command.argumentStart = WATCH.length;
+        } else if (startsWith(buf, len, RESUME)) {
+            command.type = CommandType.RESUME;
+            command.argumentStart = RESUME.length;
+        }
+        return command;
+    }
+
+    // Ships are separated by ';', empty segments (e.g. a trailing ';') are ignored
+    private static void parsePlaceAll(byte[] buf, int pos, int end, Command command) {
+        while (true) {
+            int next = pos;
+            while (next < end && buf[next] != ';') {
+                next++;
+            }
+            if (skipSpaces(buf, pos, next) < next) {
+                if (command.shipCount == Command.MAX_SHIPS) {
+                    command.error = ParseError.TOO_MANY_SHIPS;
+                    return;
+                }
+                command.shipStart[command.shipCount] = command.cellCount;
+                parsePlace(buf, pos, next, command);
+                if (command.error == ParseError.INVALID_PLACE_FORMAT) {
+                    command.error = ParseError.INVALID_PLACE_ALL_FORMAT;
+                }
+                if (command.error != ParseError.NONE) {
+                    return;
+                }
+                command.shipTypes[command.shipCount++] = command.shipType;
+            }
+            if (next == end) {
+                break;
+            }
+            pos = next + 1;
+        }
+        command.shipStart[command.shipCount] = command.cellCount;
+        command.shipType = null;
+        if (command.shipCount == 0) {
+            command.error = ParseError.INVALID_PLACE_ALL_FORMAT;
+        }
+    }
+
+    // Appends one ship's cells after the ones already in the command
+    private static void parsePlace(byte[] buf, int pos, int end, Command command) {
+        int firstCell = command.cellCount;
+        pos = skipSpaces(buf, pos, end);
+        int typeStart = pos;
+        while (pos < end && !isSpace(buf[pos]) && buf[pos] != '(') {
+            pos++;
+        }
+        if (pos == typeStart) {
+            command.error = ParseError.INVALID_PLACE_FORMAT;
+            return;
+        }
+        command.shipType = ShipType.match(buf, typeStart, pos);
+
+        while (true) {
+            // "(n)" may follow the type or a coordinate directly, or stand alone
+            if (pos < end && buf[pos] == '(') {
+                pos = parseLengthHint(buf, pos, end, command);
+                if (pos < 0) {
+                    command.error = ParseError.INVALID_PLACE_FORMAT;
+                    return;
+                }
+                continue;
+            }
+            if (pos < end && !isSpace(buf[pos])) {
+                command.error = ParseError.INVALID_PLACE_FORMAT;
+                return;
+            }
+            pos = skipSpaces(buf, pos, end);
+            if (pos == end) {
+                break;
+            }
+            if (buf[pos] == '(') {
+                continue;
+            }
+            if (command.cellCount - firstCell == Command.MAX_CELLS) {
+                command.error = ParseError.TOO_MANY_CELLS;
+                return;
+            }
+            pos = parseCell(buf, pos, end, command);
+            if (pos < 0) {
+                command.error = ParseError.INVALID_PLACE_FORMAT;
+                return;
+            }
+        }
+
+        if (command.cellCount == firstCell) {
+            command.error = ParseError.INVALID_PLACE_FORMAT;
+        } else if (command.shipType == null) {
+            command.error = ParseError.UNKNOWN_SHIP_TYPE;
+        }
+    }
+
+    // Returns the position after ")" or -1
+    private static int parseLengthHint(byte[] buf, int pos, int end, Command command) {
+        pos++;
+        int value = 0;
+        int digits = 0;
+        while (pos < end && isDigit(buf[pos]) && digits < MAX_DIGITS) {
+            value = value * 10 + (buf[pos++] - '0');
+            digits++;
+        }
+        if (digits == 0 || pos == end || buf[pos] != ')') {
+            return -1;
+        }
+        command.declaredLength = value;
+        return pos + 1;
+    }
+
+    // Parses "x,y" into the next cell, returns the position after it or -1
+    private static int parseCell(byte[] buf, int pos, int end, Command command) {
+        long x = parseInt(buf, pos, end);
+        if (x == Long.MIN_VALUE) {
+            return -1;
+        }
+        pos = (int) (x >>> 32);
+        if (pos >= end || buf[pos] != ',') {
+            return -1;
+        }
+        long y = parseInt(buf, pos + 1, end);
+        if (y == Long.MIN_VALUE) {
+            return -1;
+        }
+        command.addCell((int) x, (int) y);
+        return (int) (y >>> 32);
+    }
+
+    private static void parseFire(byte[] buf, int pos, int end, Command command) {
+        int comma = -1;
+        for (int i = pos; i < end; i++) {
+            if (buf[i] == ',') {
+                if (comma >= 0) {
+                    command.error = ParseError.INVALID_MOVE_FORMAT;
+                    return;
+                }
+                comma = i;
+            }
+        }
+        if (comma < 0) {
+            command.error = ParseError.INVALID_MOVE_FORMAT;
+            return;
+        }
+
+        long x = parseInt(buf, skipSpaces(buf, pos, comma), comma);
+        long y = parseInt(buf, skipSpaces(buf, comma + 1, end), end);
+        if (x == Long.MIN_VALUE || y == Long.MIN_VALUE
+                || skipSpaces(buf, (int) (x >>> 32), comma) != comma
+                || skipSpaces(buf, (int) (y >>> 32), end) != end) {
+            command.error = ParseError.INVALID_COORDINATES;
+            return;
+        }
+        command.x = (int) x;
+        command.y = (int) y;
+    }
+
+    // Optionally signed decimal at pos. Packs the end position into the upper 32 bits
+    // and the value into the lower 32 bits, Long.MIN_VALUE when there is no number.
+    private static long parseInt(byte[] buf, int pos, int end) {
+        boolean negative = false;
+        if (pos < end && (buf[pos] == '-' || buf[pos] == '+')) {
+            negative = buf[pos] == '-';
+            pos++;
+        }
+        int value = 0;
+        int digits = 0;
+        while (pos < end && isDigit(buf[pos])) {
+            if (++digits > MAX_DIGITS) {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + (buf[pos++] - '0');
+        }
+        if (digits == 0) {
+            return Long.MIN_VALUE;
+        }
+        return ((long) pos << 32) | ((negative ? -value : value) & 0xFFFFFFFFL);
+    }
+
+    private static int skipSpaces(byte[] buf, int pos, int end) {
+        while (pos < end && isSpace(buf[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean startsWith(byte[] buf, int len, byte[] prefix) {
+        if (len < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] buf, int len, byte[] upperCase) {
+        if (len != upperCase.length) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            byte b = buf[i];
+            if (b >= 'a' && b <= 'z') {
+                b -= 'a' - 'A';
+            }
+            if (b != upperCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
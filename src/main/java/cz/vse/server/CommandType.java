@@ -0,0 +1,14 @@
+package cz.vse.server;
+
+public enum CommandType {
+    CHECK,
+    EXIT,
+    READY,
+    LOGIN,
+    PLACE,
+    PLACE_ALL,
+    FIRE,
+    WATCH,
+    RESUME,
+    UNKNOWN
+}
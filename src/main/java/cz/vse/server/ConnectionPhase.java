@@ -0,0 +1,12 @@
+package cz.vse.server;
+
+public enum ConnectionPhase {
+    LOGIN,
+    READY,
+    WAITING_FOR_GAME,
+    PLACE,
+    WAITING_FOR_SETUP,
+    FIRE,
+    WATCHING,
+    CLOSED
+}
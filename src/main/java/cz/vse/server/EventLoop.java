@@ -0,0 +1,187 @@
+package cz.vse.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// One selector thread serving many connections. Channel I/O and ClientHandler state
+// are only touched on this thread; other threads hand work over via execute().
+class EventLoop implements Runnable {
+    private static final Logger logger = LogManager.getLogger(EventLoop.class);
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int WRITE_BATCH = 64;
+
+    // write() syscalls and flush batches across all loops, to compare against moves played
+    static final LongAdder writeCalls = new LongAdder();
+    static final LongAdder flushBatches = new LongAdder();
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Shared by all connections of this loop, only ever used on the loop thread
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final ByteBuffer[] writeBatch = new ByteBuffer[WRITE_BATCH];
+    // Connections with queued output, written once at the end of the current iteration
+    private final List<ClientHandler> pendingFlushes = new ArrayList<>();
+    private volatile boolean running = true;
+    // How long a task waits for this loop, measured by a probe task (see probeLag)
+    private volatile long probeSent; // 0 while no probe is queued
+    private volatile long lagNanos;
+
+    EventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    // Safe to call from any thread
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                ClientHandler handler = new ClientHandler(channel, this);
+                handler.attach(channel.register(selector, SelectionKey.OP_READ, handler));
+            } catch (IOException e) {
+                logger.error("Failed to register client channel", e);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+    }
+
+    // Loop thread only
+    void scheduleFlush(ClientHandler handler) {
+        pendingFlushes.add(handler);
+    }
+
+    ByteBuffer[] writeBatch() {
+        return writeBatch;
+    }
+
+    // Queues a probe unless the last one is still waiting. Called periodically from one
+    // thread (AdmissionControl on the timing wheel).
+    void probeLag() {
+        if (probeSent != 0) {
+            return;
+        }
+        long sent = System.nanoTime();
+        probeSent = sent;
+        execute(() -> {
+            lagNanos = System.nanoTime() - sent;
+            probeSent = 0;
+        });
+    }
+
+    // The last probe's wait, or longer if the current probe has waited longer already
+    long getLagMillis() {
+        long sent = probeSent;
+        long lag = lagNanos;
+        if (sent != 0) {
+            lag = Math.max(lag, System.nanoTime() - sent);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(lag);
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        logger.info("Event loop '{}' started", thread.getName());
+        while (running) {
+            try {
+                // Tasks queued from the loop itself must not wait for the next I/O event
+                if (tasks.isEmpty() && pendingFlushes.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                runTasks();
+                processSelectedKeys();
+                flushPending();
+            } catch (IOException e) {
+                logger.error("Selector failure in '{}'", thread.getName(), e);
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error in event loop '{}'", thread.getName(), e);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.error("Error closing selector", e);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Task failed in event loop '{}'", thread.getName(), e);
+            }
+        }
+    }
+
+    private void flushPending() {
+        if (pendingFlushes.isEmpty()) {
+            return;
+        }
+        flushBatches.increment();
+        for (int i = 0; i < pendingFlushes.size(); i++) {
+            pendingFlushes.get(i).flush();
+        }
+        pendingFlushes.clear();
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            ClientHandler handler = (ClientHandler) key.attachment();
+            try {
+                if (key.isValid() && key.isWritable()) {
+                    handler.onWritable();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    handler.onReadable(readBuffer);
+                }
+            } catch (CancelledKeyException e) {
+                handler.handleDisconnection();
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package cz.vse.server;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Rules of one game and nothing else: no names, connections, threads or logging.
+// Players are seats 0 (moves first) and 1. Every command returns a typed result;
+// the details of the last one (the ship that was hit, the cell that was rejected)
+// are read from getters, so commands allocate nothing beyond the ships they place.
+//
+// BattleshipGame adapts the engine to connections, shards and spectators; the
+// benchmarks' Simulation drives it directly. Not thread-safe.
+public final class GameEngine {
+    public enum Placement {
+        PLACED,
+        // Every ship of this type in the mode's fleet is already placed
+        FLEET_FULL,
+        OUT_OF_BOUNDS,
+        // PLACEALL only: the cells do not match the ship's length
+        WRONG_LENGTH,
+        ADJACENT,
+        OVERLAP
+    }
+
+    public enum Shot {
+        MISS,
+        HIT,
+        SUNK,
+        // The shot sank the last ship
+        WIN,
+        NOT_STARTED,
+        NOT_YOUR_TURN,
+        OUT_OF_BOUNDS,
+        GAME_OVER
+    }
+
+    private final GameMode mode;
+    private final Board[] boards = new Board[2];
+    private GameState state = GameState.WAITING_FOR_PLAYERS;
+    private int turn;
+    private int winner = -1;
+    private int shots;
+
+    // Details of the last result
+    private Ship lastShip;
+    private ShipType failedType;
+    private int failedX;
+    private int failedY;
+    private int failedCell;
+
+    public GameEngine(GameMode mode) {
+        this.mode = mode;
+        boards[0] = new Board(mode);
+        boards[1] = new Board(mode);
+    }
+
+    // PLACE: cells holds coordinate pairs, the ship is the cellCount pairs starting at
+    // pair firstCell. Like the text command it has always been, the number of cells is
+    // not checked against the ship type.
+    public Placement placeShip(int seat, ShipType type, int[] cells, int firstCell, int cellCount) {
+        Board board = boards[seat];
+        failedType = type;
+        if (board.placed(type) >= mode.getCount(type)) {
+            return Placement.FLEET_FULL;
+        }
+        int[] shipCells = toCells(cells, firstCell, cellCount);
+        if (shipCells == null) {
+            return Placement.OUT_OF_BOUNDS;
+        }
+        // Before touches(), whose neighbourhood includes the ship's own cells
+        for (int cell : shipCells) {
+            if (board.isOccupied(cell)) {
+                failedCell = cell;
+                return Placement.OVERLAP;
+            }
+        }
+        if (board.touches(shipCells, shipCells.length, null)) {
+            return Placement.ADJACENT;
+        }
+        lastShip = new Ship(type, shipCells, mode);
+        board.add(lastShip);
+        checkStarted();
+        return Placement.PLACED;
+    }
+
+    // PLACEALL: ship i is types[i] on the cell pairs [shipStart[i], shipStart[i + 1]).
+    // Every ship is checked against the board plus the ships before it, then either
+    // all of them are added or none; getFailedType() names the ship that was refused.
+    public Placement placeFleet(int seat, ShipType[] types, int[] shipStart, int shipCount, int[] cells) {
+        Board board = boards[seat];
+        int[] placed = new int[ShipType.values().length];
+        CellSet pending = new CellSet(mode.getSize());
+        int[][] positions = new int[shipCount][];
+
+        for (int s = 0; s < shipCount; s++) {
+            ShipType type = types[s];
+            failedType = type;
+            if (board.placed(type) + placed[type.ordinal()]++ >= mode.getCount(type)) {
+                return Placement.FLEET_FULL;
+            }
+            int[] shipCells = toCells(cells, shipStart[s], shipStart[s + 1] - shipStart[s]);
+            if (shipCells == null) {
+                return Placement.OUT_OF_BOUNDS;
+            }
+            // Also catches a cell listed twice
+            if (shipCells.length != type.getLength()) {
+                return Placement.WRONG_LENGTH;
+            }
+            for (int cell : shipCells) {
+                if (board.isOccupied(cell) || pending.get(cell)) {
+                    failedCell = cell;
+                    return Placement.OVERLAP;
+                }
+            }
+            if (board.touches(shipCells, shipCells.length, pending)) {
+                return Placement.ADJACENT;
+            }
+            for (int cell : shipCells) {
+                pending.set(cell);
+            }
+            positions[s] = shipCells;
+        }
+
+        for (int s = 0; s < shipCount; s++) {
+            board.add(new Ship(types[s], positions[s], mode));
+        }
+        checkStarted();
+        return Placement.PLACED;
+    }
+
+    public Shot fire(int seat, int x, int y) {
+        if (state == GameState.FINISHED) {
+            return Shot.GAME_OVER;
+        }
+        if (state != GameState.IN_PROGRESS) {
+            return Shot.NOT_STARTED;
+        }
+        if (seat != turn) {
+            return Shot.NOT_YOUR_TURN;
+        }
+        if (!mode.inBounds(x, y)) {
+            return Shot.OUT_OF_BOUNDS;
+        }
+        shots++;
+        Board enemy = boards[1 - seat];
+        int cell = mode.index(x, y);
+        // O(1) whatever the board size: the ship is found through the cell index
+        Ship ship = enemy.shoot(cell);
+        lastShip = ship;
+        if (ship == null) {
+            turn = 1 - seat;
+            return Shot.MISS;
+        }
+        boolean wasAfloat = !ship.isSunk();
+        ship.registerHit(cell);
+        if (!ship.isSunk()) {
+            return Shot.HIT;
+        }
+        if (wasAfloat) {
+            enemy.shipSunk();
+        }
+        if (enemy.isDefeated()) {
+            state = GameState.FINISHED;
+            winner = seat;
+            return Shot.WIN;
+        }
+        return Shot.SUNK;
+    }
+
+    // The other player wins unless the game is already over; false if it was
+    public boolean forfeit(int seat) {
+        if (state == GameState.FINISHED) {
+            return false;
+        }
+        state = GameState.FINISHED;
+        winner = 1 - seat;
+        return true;
+    }
+
+    private void checkStarted() {
+        if (state == GameState.WAITING_FOR_PLAYERS && boards[0].isComplete() && boards[1].isComplete()) {
+            state = GameState.IN_PROGRESS;
+        }
+    }
+
+    // Sorted, distinct board cells of the pairs, or null with failedX/failedY set
+    private int[] toCells(int[] cells, int firstCell, int cellCount) {
+        int[] result = new int[cellCount];
+        for (int i = 0; i < cellCount; i++) {
+            int x = cells[2 * (firstCell + i)];
+            int y = cells[2 * (firstCell + i) + 1];
+            if (!mode.inBounds(x, y)) {
+                failedX = x;
+                failedY = y;
+                return null;
+            }
+            result[i] = mode.index(x, y);
+        }
+        Arrays.sort(result);
+        int count = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (i == 0 || result[i] != result[i - 1]) {
+                result[count++] = result[i];
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    // Everything readFrom() needs to continue the game
+    void writeTo(DataOutput out) throws IOException {
+        out.writeByte(state.ordinal());
+        out.writeByte(turn);
+        out.writeByte(winner);
+        out.writeInt(shots);
+        for (Board board : boards) {
+            out.writeShort(board.getFleet().size());
+            for (Ship ship : board.getFleet()) {
+                out.writeByte(ship.getType().ordinal());
+                out.writeByte(ship.getCells().length);
+                for (int cell : ship.getCells()) {
+                    out.writeInt(cell);
+                }
+            }
+            int[] shotCells = board.getShots().toArray();
+            out.writeInt(shotCells.length);
+            for (int cell : shotCells) {
+                out.writeInt(cell);
+            }
+        }
+    }
+
+    // The game as writeTo() left it. Fleets are added again and the shots at them
+    // applied without the turn rules; the saved state and turn then take over.
+    static GameEngine readFrom(DataInput in, GameMode mode) throws IOException {
+        GameEngine engine = new GameEngine(mode);
+        GameState state = GameState.values()[in.readByte()];
+        int turn = in.readByte();
+        int winner = in.readByte();
+        int shots = in.readInt();
+        ShipType[] types = ShipType.values();
+        for (Board board : engine.boards) {
+            int ships = in.readShort();
+            for (int s = 0; s < ships; s++) {
+                ShipType type = types[in.readByte()];
+                int[] cells = new int[in.readByte()];
+                for (int i = 0; i < cells.length; i++) {
+                    cells[i] = in.readInt();
+                }
+                board.add(new Ship(type, cells, mode));
+            }
+            int shotCount = in.readInt();
+            for (int i = 0; i < shotCount; i++) {
+                int cell = in.readInt();
+                Ship ship = board.shoot(cell);
+                if (ship != null && !ship.isSunk()) {
+                    ship.registerHit(cell);
+                    if (ship.isSunk()) {
+                        board.shipSunk();
+                    }
+                }
+            }
+        }
+        engine.state = state;
+        engine.turn = turn;
+        engine.winner = winner;
+        engine.shots = shots;
+        return engine;
+    }
+
+    public GameMode getMode() {
+        return mode;
+    }
+
+    public GameState getState() {
+        return state;
+    }
+
+    // Seat to move next
+    public int getTurn() {
+        return turn;
+    }
+
+    // Seat of the winner, -1 while the game is not over
+    public int getWinner() {
+        return winner;
+    }
+
+    // Shots fired by both players that reached a board (errors are not counted)
+    public int getShots() {
+        return shots;
+    }
+
+    // Ship placed by the last successful placeShip, or hit by the last HIT, SUNK or WIN
+    public Ship getLastShip() {
+        return lastShip;
+    }
+
+    // Ship type of the last rejected placement
+    public ShipType getFailedType() {
+        return failedType;
+    }
+
+    // Coordinates of the last OUT_OF_BOUNDS placement
+    public int getFailedX() {
+        return failedX;
+    }
+
+    public int getFailedY() {
+        return failedY;
+    }
+
+    // Cell of the last OVERLAP
+    public int getFailedCell() {
+        return failedCell;
+    }
+
+    Board getBoard(int seat) {
+        return boards[seat];
+    }
+}
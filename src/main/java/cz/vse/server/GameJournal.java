@@ -0,0 +1,435 @@
+package cz.vse.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+// Append-only record of everything games do, as compact binary events in memory-mapped
+// segment files (battleship.journal.dir, battleship.journal.segmentSize bytes each).
+// Game shards append by reserving space with one atomic add and writing straight into
+// the mapping, so they never wait on the disk or on each other. The "journal-sync"
+// thread makes everything appended since its last pass durable with one msync every
+// battleship.journal.syncInterval ms (group commit) and maps the next segment ahead
+// of time. JournalReplay reads the segments back. An empty battleship.journal.dir
+// turns the journal off.
+//
+// Each start begins a new segment; the ones earlier runs left are cut down to the
+// records written into them first, and deleted if they hold none. Only the newest
+// battleship.journal.retain segments are kept (0 keeps them all): the oldest go once
+// a segment is sealed and synced, so the journal stays within retain * segmentSize.
+//
+// Every record is little-endian and padded to 4 bytes:
+//   int length | byte type | byte seat | short arg | long game | payload
+// The length is written last, with release semantics: a reader that sees it sees the
+// whole record, and a length of 0 is where the written part of a segment ends.
+//   CREATED   arg -, payload: long time, mode, player 1, player 2 (short length + UTF-8 each)
+//   PLACED    arg ShipType ordinal, payload: short count, count * (short x, short y)
+//   FIRED     payload: short x, short y
+//   RESULT    arg GameEngine.Shot ordinal of the FIRED before it
+//   FORFEIT   seat gave up
+//   FINISHED  seat won, payload: long time, int shots
+// Only commands the engine accepted are recorded, so replaying them gives the game.
+final class GameJournal {
+    private static final Logger logger = LogManager.getLogger(GameJournal.class);
+
+    static final String DIRECTORY = System.getProperty("battleship.journal.dir", "journal");
+    static final int SEGMENT_SIZE = Integer.getInteger("battleship.journal.segmentSize", 64 << 20);
+    static final long SYNC_INTERVAL = Long.getLong("battleship.journal.syncInterval", 10);
+    static final int RETAIN = Integer.getInteger("battleship.journal.retain", 16);
+    static final String SUFFIX = ".journal";
+
+    static final byte CREATED = 1;
+    static final byte PLACED = 2;
+    static final byte FIRED = 3;
+    static final byte RESULT = 4;
+    static final byte FORFEIT = 5;
+    static final byte FINISHED = 6;
+
+    static final int HEADER = 16;
+    static final VarHandle LENGTH = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    static final LongAdder events = new LongAdder();
+    static final LongAdder syncs = new LongAdder();
+    static final LongAdder syncedBytes = new LongAdder();
+
+    private static final class Segment {
+        final long sequence;
+        final Path path;
+        final MappedByteBuffer buffer;
+        final AtomicInteger reserved = new AtomicInteger();
+        // Where the last record that fitted ends, once a writer found the segment full
+        final AtomicInteger end = new AtomicInteger(Integer.MAX_VALUE);
+        int synced; // journal-sync thread only
+
+        Segment(long sequence, Path path, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        // Offset of 'length' bytes (rounded up to keep records aligned), or -1 if they
+        // do not fit and the writer has to move on to the next segment
+        int reserve(int length) {
+            int padded = (length + 3) & ~3;
+            int at = reserved.getAndAdd(padded);
+            if (at <= buffer.capacity() - padded) {
+                return at;
+            }
+            end.accumulateAndGet(at, Math::min);
+            return -1;
+        }
+
+        boolean created(long game, byte[][] texts) {
+            int length = HEADER + 8;
+            for (byte[] text : texts) {
+                length += 2 + text.length;
+            }
+            int at = reserve(length);
+            if (at < 0) {
+                return false;
+            }
+            buffer.putLong(at + HEADER, System.currentTimeMillis());
+            int offset = at + HEADER + 8;
+            for (byte[] text : texts) {
+                buffer.putShort(offset, (short) text.length);
+                buffer.put(offset + 2, text);
+                offset += 2 + text.length;
+            }
+            commit(at, length, CREATED, 0, 0, game);
+            return true;
+        }
+
+        boolean placed(long game, int seat, ShipType type, int[] cells, int firstCell, int cellCount) {
+            int length = HEADER + 2 + 4 * cellCount;
+            int at = reserve(length);
+            if (at < 0) {
+                return false;
+            }
+            buffer.putShort(at + HEADER, (short) cellCount);
+            for (int i = 0; i < cellCount; i++) {
+                buffer.putShort(at + HEADER + 2 + 4 * i, (short) cells[2 * (firstCell + i)]);
+                buffer.putShort(at + HEADER + 4 + 4 * i, (short) cells[2 * (firstCell + i) + 1]);
+            }
+            commit(at, length, PLACED, seat, type.ordinal(), game);
+            return true;
+        }
+
+        // The FIRED and its RESULT in one reservation
+        boolean fired(long game, int seat, int x, int y, GameEngine.Shot result) {
+            int length = HEADER + 4;
+            int at = reserve(length + HEADER);
+            if (at < 0) {
+                return false;
+            }
+            buffer.putShort(at + HEADER, (short) x);
+            buffer.putShort(at + HEADER + 2, (short) y);
+            commit(at, length, FIRED, seat, 0, game);
+            commit(at + length, HEADER, RESULT, seat, result.ordinal(), game);
+            return true;
+        }
+
+        boolean forfeit(long game, int seat) {
+            int at = reserve(HEADER);
+            if (at < 0) {
+                return false;
+            }
+            commit(at, HEADER, FORFEIT, seat, 0, game);
+            return true;
+        }
+
+        boolean finished(long game, int winner, int shots) {
+            int length = HEADER + 12;
+            int at = reserve(length);
+            if (at < 0) {
+                return false;
+            }
+            buffer.putLong(at + HEADER, System.currentTimeMillis());
+            buffer.putInt(at + HEADER + 8, shots);
+            commit(at, length, FINISHED, winner, 0, game);
+            return true;
+        }
+
+        private void commit(int at, int length, byte type, int seat, int arg, long game) {
+            buffer.put(at + 4, type);
+            buffer.put(at + 5, (byte) seat);
+            buffer.putShort(at + 6, (short) arg);
+            buffer.putLong(at + 8, game);
+            LENGTH.setRelease(buffer, at, (length + 3) & ~3);
+            events.increment();
+        }
+    }
+
+    private static Path directory;
+    private static volatile Segment current; // null while the journal is closed
+    // Mapped by the journal-sync thread before anyone needs it; guarded by GameJournal.class
+    private static Segment next;
+    private static final Queue<Segment> sealed = new ConcurrentLinkedQueue<>();
+    private static Thread syncer;
+    private static volatile boolean running;
+
+    private GameJournal() {
+    }
+
+    // Starts a new segment after the ones already in the directory
+    static synchronized void open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        directory = dir;
+        long last = -1;
+        for (Path segment : segments(dir)) {
+            last = Math.max(last, sequence(segment));
+            trim(segment);
+        }
+        current = map(last + 1);
+        prune(current.sequence);
+        running = true;
+        syncer = new Thread(GameJournal::syncLoop, "journal-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(GameJournal::close, "journal-close"));
+        logger.info("Journal in {}, segments of {} bytes synced every {} ms, {} kept", dir, SEGMENT_SIZE, SYNC_INTERVAL,
+                RETAIN > 0 ? RETAIN : "all");
+    }
+
+    // Stops appending and makes what was appended durable
+    static void close() {
+        Segment last;
+        synchronized (GameJournal.class) {
+            last = current;
+            if (last == null) {
+                return;
+            }
+            current = null;
+            running = false;
+        }
+        LockSupport.unpark(syncer);
+        try {
+            syncer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Writers that read 'current' just before it was cleared are given a moment
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        syncSealed();
+        sync(last);
+        synchronized (GameJournal.class) {
+            if (next != null) {
+                try {
+                    Files.deleteIfExists(next.path);
+                } catch (IOException e) {
+                    logger.debug("Could not remove the unused segment {}", next.path, e);
+                }
+                next = null;
+            }
+        }
+    }
+
+    // Segment files of a journal directory, oldest first
+    static Path[] segments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+                    .sorted((a, b) -> Long.compare(sequence(a), sequence(b)))
+                    .toArray(Path[]::new);
+        }
+    }
+
+    private static long sequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    // Cuts a segment of an earlier run down to its complete records, or deletes it if
+    // it has none. A crash may leave a record without its length, the rest goes with it.
+    private static void trim(Path path) throws IOException {
+        int end;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            end = written(buffer, 0);
+            if (end > 0 && end < channel.size()) {
+                channel.truncate(end);
+            }
+        }
+        if (end == 0) {
+            Files.delete(path);
+        }
+    }
+
+    // Deletes the oldest segments before 'before' (the oldest still open) until at most
+    // RETAIN are left
+    private static void prune(long before) {
+        if (RETAIN <= 0) {
+            return;
+        }
+        try {
+            Path[] all = segments(directory);
+            for (int i = 0; i < all.length - RETAIN && sequence(all[i]) < before; i++) {
+                Files.deleteIfExists(all[i]);
+                logger.debug("Deleted journal segment {}", all[i]);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not remove old journal segments from {}", directory, e);
+        }
+    }
+
+    private static Segment map(long sequence) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", sequence, SUFFIX));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return new Segment(sequence, path, buffer);
+        }
+    }
+
+    // ---- Writing, on the game shards ----
+    // Each event goes into the current segment, and into the next one if it is full.
+    // Nothing is written while the journal is closed.
+
+    static void created(long game, GameMode mode, String player1, String player2) {
+        if (current == null) {
+            return;
+        }
+        byte[][] texts = {
+                mode.getName().getBytes(StandardCharsets.UTF_8),
+                player1.getBytes(StandardCharsets.UTF_8),
+                player2.getBytes(StandardCharsets.UTF_8)
+        };
+        for (Segment segment = current; segment != null && !segment.created(game, texts); ) {
+            segment = roll(segment);
+        }
+    }
+
+    // cells holds coordinate pairs, the ship is the cellCount pairs starting at pair firstCell
+    static void placed(long game, int seat, ShipType type, int[] cells, int firstCell, int cellCount) {
+        for (Segment segment = current; segment != null && !segment.placed(game, seat, type, cells, firstCell, cellCount); ) {
+            segment = roll(segment);
+        }
+    }
+
+    static void fired(long game, int seat, int x, int y, GameEngine.Shot result) {
+        for (Segment segment = current; segment != null && !segment.fired(game, seat, x, y, result); ) {
+            segment = roll(segment);
+        }
+    }
+
+    static void forfeit(long game, int seat) {
+        for (Segment segment = current; segment != null && !segment.forfeit(game, seat); ) {
+            segment = roll(segment);
+        }
+    }
+
+    static void finished(long game, int winner, int shots) {
+        for (Segment segment = current; segment != null && !segment.finished(game, winner, shots); ) {
+            segment = roll(segment);
+        }
+    }
+
+    // Moves every writer that found 'full' full on to the next segment; null if closed
+    private static Segment roll(Segment full) {
+        synchronized (GameJournal.class) {
+            if (current != full) {
+                return current;
+            }
+            Segment segment = next;
+            next = null;
+            if (segment == null) {
+                // The sync thread fell behind: map it here rather than lose events
+                try {
+                    segment = map(full.sequence + 1);
+                } catch (IOException e) {
+                    logger.error("Cannot start journal segment {}, journal closed", full.sequence + 1, e);
+                    current = null;
+                    return null;
+                }
+            }
+            sealed.add(full);
+            current = segment;
+        }
+        LockSupport.unpark(syncer);
+        return current;
+    }
+
+    // ---- Group commit, on the journal-sync thread ----
+
+    private static final Queue<Segment> syncing = new ArrayDeque<>();
+
+    private static void syncLoop() {
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(SYNC_INTERVAL));
+            try {
+                syncSealed();
+                Segment segment = current;
+                if (segment != null) {
+                    sync(segment);
+                }
+                prepareNext();
+            } catch (RuntimeException | IOException e) {
+                logger.error("Journal sync failed", e);
+            }
+        }
+    }
+
+    // Sealed segments are synced until everything reserved in them has been written,
+    // then the oldest segments beyond RETAIN can go
+    private static void syncSealed() {
+        Segment segment;
+        while ((segment = sealed.poll()) != null) {
+            syncing.add(segment);
+        }
+        Segment open = current;
+        if (syncing.removeIf(s -> sync(s) >= s.end.get()) && open != null) {
+            Segment oldest = syncing.peek();
+            prune(oldest != null ? oldest.sequence : open.sequence);
+        }
+    }
+
+    // Forces the complete records after the last sync to disk; returns the synced offset
+    private static int sync(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int from = segment.synced;
+        int to = written(buffer, from);
+        if (to > from) {
+            buffer.force(from, to - from);
+            segment.synced = to;
+            syncs.increment();
+            syncedBytes.add(to - from);
+        }
+        return to;
+    }
+
+    // Offset after the last complete record, reading on from 'from'
+    private static int written(MappedByteBuffer buffer, int from) {
+        int to = from;
+        int length;
+        while (to <= buffer.capacity() - HEADER && (length = (int) LENGTH.getAcquire(buffer, to)) > 0
+                && length <= buffer.capacity() - to) {
+            to += length;
+        }
+        return to;
+    }
+
+    // Maps the segment after the current one. Under the lock, so a writer that rolls
+    // meanwhile waits for this mapping instead of racing it for the same file.
+    private static synchronized void prepareNext() throws IOException {
+        if (next == null && current != null) {
+            next = map(current.sequence + 1);
+        }
+    }
+}
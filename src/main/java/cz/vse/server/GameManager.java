@@ -3,51 +3,272 @@ package cz.vse.server;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.PrintWriter;
-import java.util.HashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GameManager {
     private static final Logger logger = LogManager.getLogger(GameManager.class);
-    private static final Queue<String> waitingPlayers = new ConcurrentLinkedQueue<>();
-    private static final Map<String, BattleshipGame> activeGames = new ConcurrentHashMap<>();
+    private static final Matchmaker matchmaker = new Matchmaker("matchmaker", GameManager::startGame);
+    // Players with a ticket that has not been paired or cancelled yet
+    private static final AtomicInteger waitingPlayers = new AtomicInteger();
+    // The first of two players the Router sent here as a pair, by pair key
+    private static final Map<String, Matchmaker.Ticket> routedPairs = new ConcurrentHashMap<>();
+    // Each player's game is in their Session; this is for counting and GameSnapshots
+    private static final Set<BattleshipGame> activeGames = ConcurrentHashMap.newKeySet();
+    private static final GameShard[] shards = new GameShard[Runtime.getRuntime().availableProcessors()];
+    private static final AtomicInteger nextShard = new AtomicInteger();
+    // How long (ms) a player may wait alone before being paired with a BotPlayer,
+    // -Dbattleship.bot.queueTimeout; negative disables the bot
+    static final long BOT_QUEUE_TIMEOUT = Long.getLong("battleship.bot.queueTimeout", -1);
+    private static final AtomicInteger nextBot = new AtomicInteger();
+
+    static {
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new GameShard("game-shard-" + i);
+            shards[i].start();
+        }
+        matchmaker.start();
+    }
+
+    public static void addPlayerToQueue(Session player) {
+        addPlayerToQueue(player, GameMode.CLASSIC);
+    }
+
+    public static void addPlayerToQueue(Session player, GameMode mode) {
+        addPlayerToQueue(player, mode, null);
+    }
 
-    public static void addPlayerToQueue(String username) {
-        if (!waitingPlayers.isEmpty()) {
-            String opponent = waitingPlayers.poll();
-            BattleshipGame game = new BattleshipGame(username, opponent);
-            activeGames.put(username, game);
-            activeGames.put(opponent, game);
-            logger.info("Game started: {} vs {}", username, opponent);
+    // Never blocks; the game arrives through awaitGame() once the Matchmaker pairs the
+    // player. With a pair key (see Router) the player is paired with the other login
+    // carrying the same key instead, regardless of ratings and never with a bot.
+    public static void addPlayerToQueue(Session player, GameMode mode, String pair) {
+        Matchmaker.Ticket ticket = new Matchmaker.Ticket(player, mode, Ratings.get(player.getUsername()), pair);
+        player.setMatch(new CompletableFuture<>());
+        player.setTicket(ticket);
+        waitingPlayers.incrementAndGet();
+        if (pair != null) {
+            pairRouted(ticket);
+            return;
+        }
+        matchmaker.offer(ticket);
+        logger.info("{} is waiting for an opponent (rating {})", player, ticket.rating);
+        if (BOT_QUEUE_TIMEOUT >= 0 && BotPlayer.plays(mode)) {
+            Server.getTimers().schedule(() -> pairWithBot(ticket), BOT_QUEUE_TIMEOUT);
+        }
+    }
+
+    // The second of a routed pair starts the game; if the first has left meanwhile,
+    // this player waits in its place
+    private static void pairRouted(Matchmaker.Ticket ticket) {
+        while (true) {
+            Matchmaker.Ticket partner = routedPairs.putIfAbsent(ticket.pair, ticket);
+            if (partner == null) {
+                logger.info("{} is waiting for the opponent routed with them", ticket.player);
+                return;
+            }
+            routedPairs.remove(ticket.pair, partner);
+            if (partner.claim()) {
+                if (!ticket.claim()) {
+                    // This player left meanwhile, the partner goes back to waiting
+                    partner.settle(false);
+                    routedPairs.putIfAbsent(partner.pair, partner);
+                    return;
+                }
+                try {
+                    startGame(partner, ticket);
+                } finally {
+                    partner.settle(true);
+                    ticket.settle(true);
+                }
+                return;
+            }
+        }
+    }
+
+    // Matchmaker thread, or the second login of a routed pair; both tickets claimed. The
+    // tickets are dropped only after the game is set, so removePlayer() always finds
+    // one or the other.
+    private static void startGame(Matchmaker.Ticket waiting, Matchmaker.Ticket arrived) {
+        Session player = arrived.player;
+        Session opponent = waiting.player;
+        BattleshipGame game = new BattleshipGame(player, opponent, arrived.mode, nextShard());
+        activeGames.add(game);
+        player.setGame(game);
+        opponent.setGame(game);
+        waitingPlayers.addAndGet(-2);
+        long now = System.nanoTime();
+        Metrics.recordMatchWait(now - waiting.enqueued);
+        Metrics.recordMatchWait(now - arrived.enqueued);
+        logger.info("Game started: {} vs {}", player, opponent);
+        player.getMatch().complete(game);
+        opponent.getMatch().complete(game);
+        player.setTicket(null);
+        opponent.setTicket(null);
+    }
+
+    // Runs on the timing wheel; a no-op if the player was paired or left meanwhile.
+    // The ticket is claimed like in a Matchmaker pairing, so a removePlayer() racing
+    // with this waits until the game is set and then ends it together with the bot.
+    private static void pairWithBot(Matchmaker.Ticket ticket) {
+        if (!ticket.claim()) {
+            return;
+        }
+        Session player = ticket.player;
+        CompletableFuture<BattleshipGame> match = player.getMatch();
+        if (match == null || match.isDone()) {
+            // Gone without cancelling the ticket; leave it to removePlayer()
+            ticket.settle(false);
+            return;
+        }
+        List<int[]> fleet = BotTargeting.randomFleet(ticket.mode, ThreadLocalRandom.current());
+        if (fleet == null) {
+            // The mode's fleet hardly fits its board; the player waits for a human
+            ticket.settle(false);
+            return;
+        }
+        Session bot;
+        do {
+            bot = Session.claim("Bot-" + nextBot.incrementAndGet());
+        } while (bot == null);
+
+        BattleshipGame game;
+        BotPlayer botPlayer;
+        try {
+            game = new BattleshipGame(player, bot, ticket.mode, nextShard());
+            botPlayer = new BotPlayer(bot, game);
+        } catch (RuntimeException e) {
+            bot.release();
+            ticket.settle(false);
+            throw e;
+        }
+        bot.setOutput(botPlayer);
+        activeGames.add(game);
+        player.setGame(game);
+        bot.setGame(game);
+        waitingPlayers.decrementAndGet();
+        logger.info("Game started: {} vs built-in bot {}", player, bot);
+        botPlayer.start(fleet);
+        match.complete(game);
+        ticket.settle(true);
+        player.setTicket(null);
+    }
 
-        } else {
-            waitingPlayers.add(username);
-            logger.info("{} is waiting for an opponent...", username);
+    // Startup only: a game from GameSnapshots, null if a player's name is taken
+    static BattleshipGame restoreGame(DataInput in) throws IOException {
+        BattleshipGame game = BattleshipGame.restore(in, nextShard());
+        if (game != null) {
+            activeGames.add(game);
+            game.getPlayer(0).setGame(game);
+            game.getPlayer(1).setGame(game);
         }
+        return game;
+    }
+
+    private static GameShard nextShard() {
+        return shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)];
     }
 
-    public static String getOpponent(String username) {
-        BattleshipGame game = activeGames.get(username);
+    public static Session getOpponent(Session player) {
+        BattleshipGame game = player.getGame();
         if (game != null) {
-            return game.getOpponent(username);
+            return game.getOpponent(player.getId());
         }
         return null;
     }
 
-    public static synchronized void removePlayer(String username) {
-        waitingPlayers.remove(username);
-        BattleshipGame game = activeGames.remove(username);
+    // Completes once the player has been paired; already completed if the game exists
+    public static CompletableFuture<BattleshipGame> awaitGame(Session player) {
+        return player.getMatch();
+    }
+
+    public static synchronized void removePlayer(Session player) {
+        Matchmaker.Ticket ticket = player.getTicket();
+        // Waits out a pairing in progress, whose game is then removed below
+        if (ticket != null && ticket.cancel()) {
+            waitingPlayers.decrementAndGet();
+            if (ticket.pair != null) {
+                routedPairs.remove(ticket.pair, ticket);
+            }
+        }
+        player.setTicket(null);
+        CompletableFuture<BattleshipGame> match = player.getMatch();
+        if (match != null) {
+            match.cancel(false);
+            player.setMatch(null);
+        }
+        BattleshipGame game = player.getGame();
         if (game != null) {
-            String opponent = game.getOpponent(username);
-            activeGames.remove(opponent);
-            logger.info("Game between {} and {} ended due to disconnection", username, opponent);
+            Session opponent = game.getOpponent(player.getId());
+            player.setGame(null);
+            if (opponent.getGame() == game) {
+                opponent.setGame(null);
+            }
+            activeGames.remove(game);
+            // A bot has no connection of its own to clean up after it
+            if (opponent.getOutput() instanceof BotPlayer) {
+                opponent.release();
+            }
+            logger.info("Game between {} and {} ended due to disconnection", player, opponent);
+        }
+    }
+
+    // The player is gone for good: forfeits their game and frees the name
+    static void release(Session player) {
+        BattleshipGame game = player.getGame();
+        if (game != null && game.getGameState() != GameState.FINISHED) {
+            int leaving = player.getId();
+            game.execute(() -> game.forfeit(leaving));
         }
+        player.setOutput(null);
+        removePlayer(player);
+        player.release();
     }
 
+    // The game of the player with this name, null if there is none
     public static BattleshipGame getGame(String username) {
-        return activeGames.get(username);
+        Session player = Session.forName(username);
+        return player != null ? player.getGame() : null;
+    }
+
+    public static int getQueueDepth() {
+        return waitingPlayers.get();
+    }
+
+    // Live view, safe to iterate while games come and go
+    static Set<BattleshipGame> getActiveGames() {
+        return Collections.unmodifiableSet(activeGames);
+    }
+
+    public static int getActiveGameCount() {
+        return activeGames.size();
+    }
+
+    // Names of the players in games that are not over yet, one per line
+    static String describePlaying() {
+        StringBuilder sb = new StringBuilder();
+        for (BattleshipGame game : activeGames) {
+            if (game.getGameState() != GameState.FINISHED) {
+                sb.append(game.getPlayer(0).getUsername()).append('\n');
+                sb.append(game.getPlayer(1).getUsername()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    // Active games per GameState ordinal
+    public static int[] countGamesByState() {
+        int[] counts = new int[GameState.values().length];
+        for (BattleshipGame game : activeGames) {
+            counts[game.getGameState().ordinal()]++;
+        }
+        return counts;
     }
 }
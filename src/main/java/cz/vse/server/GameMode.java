@@ -0,0 +1,159 @@
+package cz.vse.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Board size and fleet of a game. A player picks one at login with
+// "LOGIN: name (mode)" and is only paired with players of the same mode; plain
+// "LOGIN: name" plays CLASSIC. Further modes can be defined with
+//   -Dbattleship.modes=duel:20:Battleship*2,Destroyer*2,PatrolBoat*3;...
+// as name:size:Type*count,... with sizes of up to MAX_SIZE.
+//
+// A cell is the int x * size + y. Placement and shots only touch the cells involved
+// (see Board), so large boards cost no more than their ships and shots.
+public final class GameMode {
+    private static final Logger logger = LogManager.getLogger(GameMode.class);
+
+    public static final int MAX_SIZE = 1000;
+
+    public static final GameMode CLASSIC = new GameMode("classic", Bitboard.SIZE, new int[]{1, 1, 1, 1, 1});
+    private static final Map<String, GameMode> MODES = new LinkedHashMap<>();
+
+    static {
+        register(CLASSIC);
+        register(new GameMode("large", 100, new int[]{4, 6, 8, 3, 3}));
+        register(new GameMode("huge", MAX_SIZE, new int[]{20, 20, 20, 20, 20}));
+        String custom = System.getProperty("battleship.modes");
+        if (custom != null) {
+            for (String definition : custom.split(";")) {
+                if (!definition.isBlank()) {
+                    try {
+                        register(parse(definition.trim()));
+                    } catch (IllegalArgumentException e) {
+                        logger.error("Ignoring game mode '{}': {}", definition, e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private final String name;
+    private final int size;
+    // Ships per ShipType ordinal
+    private final int[] counts;
+    private final int fleetSize;
+
+    private GameMode(String name, int size, int[] counts) {
+        this.name = name;
+        this.size = size;
+        this.counts = counts;
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        this.fleetSize = total;
+    }
+
+    private static void register(GameMode mode) {
+        MODES.put(mode.name.toLowerCase(Locale.ROOT), mode);
+    }
+
+    // Case-insensitive, null when there is no such mode
+    public static GameMode forName(String name) {
+        return MODES.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    public static List<String> names() {
+        return Collections.unmodifiableList(new ArrayList<>(MODES.keySet()));
+    }
+
+    private static GameMode parse(String definition) {
+        String[] parts = definition.split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("expected name:size:fleet");
+        }
+        int size;
+        try {
+            size = Integer.parseInt(parts[1].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("size is not a number");
+        }
+        if (size < 1 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("size must be between 1 and " + MAX_SIZE);
+        }
+        int[] counts = new int[ShipType.values().length];
+        for (String ship : parts[2].split(",")) {
+            String[] typeAndCount = ship.trim().split("\\*");
+            byte[] typeName = typeAndCount[0].trim().getBytes();
+            ShipType type = ShipType.match(typeName, 0, typeName.length);
+            if (type == null) {
+                throw new IllegalArgumentException("unknown ship type " + typeAndCount[0]);
+            }
+            try {
+                counts[type.ordinal()] += typeAndCount.length > 1 ? Integer.parseInt(typeAndCount[1].trim()) : 1;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("ship count is not a number");
+            }
+        }
+        GameMode mode = new GameMode(parts[0].trim(), size, counts);
+        if (mode.fleetSize == 0) {
+            throw new IllegalArgumentException("empty fleet");
+        }
+        return mode;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getFleetSize() {
+        return fleetSize;
+    }
+
+    // Ships of this type in the fleet
+    public int getCount(ShipType type) {
+        return counts[type.ordinal()];
+    }
+
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && x < size && y >= 0 && y < size;
+    }
+
+    public int index(int x, int y) {
+        return x * size + y;
+    }
+
+    public int row(int cell) {
+        return cell / size;
+    }
+
+    public int column(int cell) {
+        return cell % size;
+    }
+
+    // "x,y"; cached for the classic board, built on demand for the others
+    public String coordinate(int cell) {
+        return size == Bitboard.SIZE ? Bitboard.coordinate(cell) : row(cell) + "," + column(cell);
+    }
+
+    // e.g. "large (100x100, 24 ships)"
+    public String describe() {
+        return name + " (" + size + "x" + size + ", " + fleetSize + " ships)";
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
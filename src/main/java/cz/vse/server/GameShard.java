@@ -0,0 +1,66 @@
+package cz.vse.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+// Single writer for a subset of games. Every mutation of a BattleshipGame is queued
+// to the game's shard and runs on the shard thread, so the engine needs no locks.
+class GameShard implements Runnable {
+    private static final Logger logger = LogManager.getLogger(GameShard.class);
+
+    private final Queue<Runnable> inbound = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean parked;
+    private volatile boolean running = true;
+
+    GameShard(String name) {
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    boolean inShard() {
+        return Thread.currentThread() == thread;
+    }
+
+    // Safe to call from any thread
+    void execute(Runnable task) {
+        inbound.add(task);
+        if (parked) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            Runnable task = inbound.poll();
+            if (task == null) {
+                parked = true;
+                // Re-check after publishing 'parked' so a concurrent execute() cannot be missed
+                if (inbound.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+                continue;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Game task failed on '{}'", thread.getName(), e);
+            }
+        }
+    }
+}
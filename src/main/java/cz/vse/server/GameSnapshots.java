@@ -0,0 +1,198 @@
+package cz.vse.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Keeps running games across a server restart. Every battleship.snapshot.interval ms
+// the "game-snapshots" thread collects a copy of each game (see
+// BattleshipGame.snapshot(): games that did not change hand out their last copy, the
+// others copy themselves on their shard between two commands) and writes them all to
+// battleship.snapshot.file, replacing the previous snapshot atomically. No game waits
+// for the file. A last snapshot is taken when the JVM shuts down.
+//
+// The file is always rewritten whole: it is a few hundred bytes per game, so even
+// 10,000 games are a few MB every interval, and a single file is what makes the
+// replacement atomic. When every game handed out the same copy as last time (nothing
+// moved, none started or ended) the file already holds them and is not written.
+//
+// On startup the games of the last snapshot are restored before the first connection
+// is accepted. Both players start out suspended, as if their connection had just
+// failed, and take their game back with "RESUME token" within Session.GRACE_PERIOD.
+// An empty battleship.snapshot.file turns snapshots off.
+final class GameSnapshots {
+    private static final Logger logger = LogManager.getLogger(GameSnapshots.class);
+
+    static final String FILE = System.getProperty("battleship.snapshot.file", "games.snapshot");
+    static final long INTERVAL = Long.getLong("battleship.snapshot.interval", 5000);
+
+    private static final int MAGIC = 0x42535331; // "BSS1"
+
+    // Of the last snapshot, and the games restored at startup
+    static volatile int lastGames;
+    static volatile long lastMillis;
+    static volatile int restored;
+
+    private static Path file;
+    // The copies in the file, BattleshipGame hands out the same array until its game
+    // changes; null until the first write, which replaces whatever the last run left
+    private static Set<byte[]> written;
+
+    private GameSnapshots() {
+    }
+
+    // Restores the last snapshot, then keeps taking new ones
+    static void start(Path path) {
+        file = path;
+        if (Files.exists(file)) {
+            restore(file);
+        }
+        Thread writer = new Thread(GameSnapshots::run, "game-snapshots");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(GameSnapshots::snapshot, "game-snapshots-final"));
+        logger.info("Snapshots of running games to {} every {} ms", file, INTERVAL);
+    }
+
+    private static void run() {
+        while (true) {
+            try {
+                Thread.sleep(INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+            snapshot();
+        }
+    }
+
+    private static synchronized void snapshot() {
+        long start = System.nanoTime();
+        List<CompletableFuture<byte[]>> pending = new ArrayList<>();
+        for (BattleshipGame game : GameManager.getActiveGames()) {
+            CompletableFuture<byte[]> copy = game.snapshot();
+            if (copy != null) {
+                pending.add(copy);
+            }
+        }
+        // A shard that does not get to the copy within an interval leaves its game out
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(INTERVAL);
+        List<byte[]> copies = new ArrayList<>(pending.size());
+        int late = 0;
+        for (CompletableFuture<byte[]> copy : pending) {
+            try {
+                copies.add(copy.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException | ExecutionException e) {
+                late++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        Set<byte[]> current = Collections.newSetFromMap(new IdentityHashMap<>(copies.size() * 2));
+        current.addAll(copies);
+        if (current.equals(written)) {
+            logger.debug("Snapshot of {} games unchanged", copies.size());
+            return;
+        }
+        try {
+            write(file, copies);
+        } catch (IOException e) {
+            logger.error("Cannot write the snapshot to {}", file, e);
+            return;
+        }
+        written = current;
+        lastGames = copies.size();
+        lastMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (late > 0) {
+            logger.warn("Snapshot of {} games left out {} whose shards were busy", copies.size(), late);
+        }
+        logger.debug("Snapshot of {} games in {} ms", copies.size(), lastMillis);
+    }
+
+    // Into a new file that then replaces the old one, so a crash never leaves half a snapshot
+    static void write(Path file, List<byte[]> copies) throws IOException {
+        Path next = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(next, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(copies.size());
+            for (byte[] copy : copies) {
+                out.writeInt(copy.length);
+                out.write(copy);
+            }
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static void restore(Path file) {
+        long start = System.nanoTime();
+        int count = 0;
+        int skipped = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a snapshot file");
+            }
+            int games = in.readInt();
+            for (int i = 0; i < games; i++) {
+                byte[] copy = new byte[in.readInt()];
+                in.readFully(copy);
+                // One game at a time, so a game that cannot be read costs only itself
+                try {
+                    BattleshipGame game = GameManager.restoreGame(new DataInputStream(new ByteArrayInputStream(copy)));
+                    if (game == null) {
+                        skipped++;
+                        continue;
+                    }
+                    for (int seat = 0; seat < 2; seat++) {
+                        Session player = game.getPlayer(seat);
+                        player.suspend(game, () -> expire(player));
+                        Metrics.sessionsSuspended.increment();
+                    }
+                    count++;
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Skipping game {} of the snapshot: {}", i, e.toString());
+                    skipped++;
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Cannot read the snapshot {}, restored {} games", file, count, e);
+        }
+        restored = count;
+        logger.info("Restored {} games from {} in {} ms ({} skipped), holding them for {} ms",
+                count, file, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), skipped, Session.GRACE_PERIOD);
+    }
+
+    // Timing wheel: the player of a restored game did not come back
+    private static void expire(Session player) {
+        if (!player.expire()) {
+            return;
+        }
+        logger.info("User '{}' did not return to the restored game in time.", player);
+        Metrics.sessionsExpired.increment();
+        GameManager.release(player);
+    }
+}
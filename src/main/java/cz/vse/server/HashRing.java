@@ -0,0 +1,78 @@
+package cz.vse.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+// Consistent hashing: every node owns a number of virtual points on a 64-bit ring and
+// a key belongs to the first point at or after its own hash. Taking a node out of
+// the walk (see Router) only moves the keys next to its points; every other key
+// keeps its node. Immutable.
+final class HashRing<T> {
+    private final long[] points;
+    private final List<T> owners;
+    private final int nodeCount;
+
+    HashRing(List<T> nodes, int virtualNodes, Function<T, String> name) {
+        long[][] entries = new long[nodes.size() * virtualNodes][];
+        int e = 0;
+        for (int n = 0; n < nodes.size(); n++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                entries[e++] = new long[]{hash(name.apply(nodes.get(n)) + "#" + v), n};
+            }
+        }
+        Arrays.sort(entries, (a, b) -> Long.compareUnsigned(a[0], b[0]));
+        points = new long[entries.length];
+        owners = new ArrayList<>(entries.length);
+        for (int i = 0; i < entries.length; i++) {
+            points[i] = entries[i][0];
+            owners.add(nodes.get((int) entries[i][1]));
+        }
+        nodeCount = nodes.size();
+    }
+
+    // Every node once, in ring order starting at the key's point: the first is the
+    // key's owner, the others are where it goes when the ones before are skipped
+    List<T> walk(String key) {
+        List<T> order = new ArrayList<>(nodeCount);
+        if (points.length == 0) {
+            return order;
+        }
+        int start = firstAtOrAfter(hash(key));
+        for (int i = 0; i < points.length && order.size() < nodeCount; i++) {
+            T owner = owners.get((start + i) % points.length);
+            if (!order.contains(owner)) {
+                order.add(owner);
+            }
+        }
+        return order;
+    }
+
+    private int firstAtOrAfter(long hash) {
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(points[middle], hash) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low == points.length ? 0 : low;
+    }
+
+    // FNV-1a, then a finalizer so that similar names land far apart
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
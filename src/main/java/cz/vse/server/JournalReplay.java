@@ -0,0 +1,242 @@
+package cz.vse.server;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Reads GameJournal segments back through GameEngine. With --game it rebuilds one
+// game and prints its boards; without, it streams every event of the segments through
+// the engine, checks each recorded result against what the engine says now, and
+// reports events per second. --passes repeats the run, which also warms up the JIT.
+//
+//   java -cp target/server-1.0-SNAPSHOT.jar cz.vse.server.JournalReplay journal
+//   java -cp ... cz.vse.server.JournalReplay --game 1812345678901234 journal/00000000000000000003.journal
+//
+// Arguments are journal directories (all segments, oldest first) or segment files.
+// Games whose CREATED is in an earlier segment than the ones given are skipped.
+public final class JournalReplay {
+    private final long only; // the game of --game, or -1
+    private final Map<Long, GameEngine> games = new HashMap<>();
+    private final Map<Long, String[]> players = new HashMap<>();
+    private final int[] cells = new int[2 * Command.MAX_SHIPS * Command.MAX_CELLS];
+    private final ShipType[] shipTypes = ShipType.values();
+    private final GameEngine.Shot[] shots = GameEngine.Shot.values();
+
+    // The engine of the last event, which is usually the next one's too
+    private long lastGame = -1;
+    private GameEngine lastEngine;
+    private GameEngine.Shot lastShot;
+
+    long events;
+    long created;
+    long finished;
+    long skipped;
+    long mismatches;
+
+    JournalReplay(long only) {
+        this.only = only;
+    }
+
+    public static void main(String[] args) throws IOException {
+        long only = -1;
+        int passes = 1;
+        List<Path> segments = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--game" -> only = Long.parseLong(args[++i]);
+                case "--passes" -> passes = Integer.parseInt(args[++i]);
+                default -> {
+                    Path path = Path.of(args[i]);
+                    segments.addAll(Files.isDirectory(path) ? List.of(GameJournal.segments(path)) : List.of(path));
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            System.err.println("Usage: JournalReplay [--game id] [--passes n] <journal directory or segment>...");
+            System.exit(2);
+        }
+
+        List<MappedByteBuffer> buffers = new ArrayList<>();
+        long bytes = 0;
+        for (Path segment : segments) {
+            MappedByteBuffer buffer = map(segment);
+            buffers.add(buffer);
+            bytes += buffer.capacity();
+        }
+        System.out.printf("Replaying %d segments (%d MB)%n", segments.size(), bytes >> 20);
+
+        JournalReplay replay = null;
+        for (int pass = 1; pass <= passes; pass++) {
+            replay = new JournalReplay(only);
+            long start = System.nanoTime();
+            for (MappedByteBuffer buffer : buffers) {
+                replay.replay(buffer);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf(Locale.ROOT, "Pass %d: %d events in %.3f s (%.1f million/s)%n",
+                    pass, replay.events, seconds, replay.events / seconds / 1e6);
+        }
+        if (only >= 0) {
+            replay.print(only);
+        } else {
+            System.out.printf("Games: %d created, %d finished, %d still open; %d events of unknown games, %d mismatches%n",
+                    replay.created, replay.finished, replay.games.size(), replay.skipped, replay.mismatches);
+        }
+        System.exit(replay.mismatches == 0 ? 0 : 1);
+    }
+
+    // The whole segment file, read-only and in the journal's byte order
+    static MappedByteBuffer map(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    // Every complete record of the segment, in order
+    void replay(MappedByteBuffer buffer) {
+        int limit = buffer.capacity() - GameJournal.HEADER;
+        int at = 0;
+        int length;
+        while (at <= limit && (length = buffer.getInt(at)) > 0) {
+            long game = buffer.getLong(at + 8);
+            if (only < 0 || game == only) {
+                apply(buffer, at, game);
+            }
+            at += length;
+        }
+    }
+
+    private void apply(MappedByteBuffer buffer, int at, long game) {
+        events++;
+        byte type = buffer.get(at + 4);
+        int seat = buffer.get(at + 5);
+        int arg = buffer.getShort(at + 6);
+        int payload = at + GameJournal.HEADER;
+        if (type == GameJournal.CREATED) {
+            created(buffer, payload, game);
+            return;
+        }
+        GameEngine engine = engine(game);
+        if (engine == null) {
+            skipped++;
+            return;
+        }
+        switch (type) {
+            case GameJournal.PLACED -> {
+                int count = buffer.getShort(payload);
+                for (int i = 0; i < 2 * count; i++) {
+                    cells[i] = buffer.getShort(payload + 2 + 2 * i);
+                }
+                GameEngine.Placement placement = engine.placeShip(seat, shipTypes[arg], cells, 0, count);
+                if (placement != GameEngine.Placement.PLACED) {
+                    mismatch(game, "placement of a " + shipTypes[arg] + " was " + placement);
+                }
+            }
+            case GameJournal.FIRED -> lastShot = engine.fire(seat, buffer.getShort(payload), buffer.getShort(payload + 2));
+            case GameJournal.RESULT -> {
+                if (lastShot != shots[arg]) {
+                    mismatch(game, "shot recorded as " + shots[arg] + " replayed as " + lastShot);
+                }
+            }
+            case GameJournal.FORFEIT -> engine.forfeit(seat);
+            case GameJournal.FINISHED -> {
+                int recordedShots = buffer.getInt(payload + 8);
+                if (engine.getWinner() != seat || engine.getShots() != recordedShots) {
+                    mismatch(game, "recorded seat " + seat + " winning after " + recordedShots + " shots, replayed seat "
+                            + engine.getWinner() + " after " + engine.getShots());
+                }
+                finished++;
+                if (only < 0) {
+                    games.remove(game);
+                    lastGame = -1;
+                }
+            }
+            default -> mismatch(game, "unknown event type " + type);
+        }
+    }
+
+    private void created(MappedByteBuffer buffer, int payload, long game) {
+        String[] texts = new String[3];
+        int offset = payload + 8;
+        for (int i = 0; i < texts.length; i++) {
+            byte[] text = new byte[buffer.getShort(offset)];
+            buffer.get(offset + 2, text);
+            texts[i] = new String(text, StandardCharsets.UTF_8);
+            offset += 2 + text.length;
+        }
+        GameMode mode = GameMode.forName(texts[0]);
+        if (mode == null) {
+            // Defined with -Dbattleship.modes on the server, see GameMode
+            mismatch(game, "unknown game mode " + texts[0]);
+            return;
+        }
+        created++;
+        games.put(game, new GameEngine(mode));
+        if (game == only) {
+            players.put(game, new String[]{texts[1], texts[2]});
+        }
+    }
+
+    private GameEngine engine(long game) {
+        if (game != lastGame) {
+            lastEngine = games.get(game);
+            lastGame = lastEngine != null ? game : -1;
+        }
+        return lastEngine;
+    }
+
+    private void mismatch(long game, String problem) {
+        mismatches++;
+        if (mismatches <= 20) {
+            System.out.printf("Game %d: %s%n", game, problem);
+        }
+    }
+
+    // Both boards, from the point of view of a spectator who sees everything:
+    // 'o' ship, 'X' hit ship, '*' shot into water, '.' water
+    private void print(long game) {
+        GameEngine engine = games.get(game);
+        String[] names = players.get(game);
+        if (engine == null || names == null) {
+            System.out.println("Game " + game + " is not in the given segments");
+            return;
+        }
+        GameMode mode = engine.getMode();
+        String status = switch (engine.getState()) {
+            case WAITING_FOR_PLAYERS -> "placing ships";
+            case IN_PROGRESS -> names[engine.getTurn()] + " to move";
+            case FINISHED -> names[engine.getWinner()] + " won";
+        };
+        System.out.printf("Game %d: %s vs %s, %s, %d shots, %s%n", game, names[0], names[1], mode, engine.getShots(), status);
+        for (int seat = 0; seat < 2; seat++) {
+            Board board = engine.getBoard(seat);
+            System.out.printf("%s's board (%d ships):%n", names[seat], board.getFleet().size());
+            if (mode.getSize() > 100) {
+                System.out.println("  too large to print");
+                continue;
+            }
+            StringBuilder row = new StringBuilder(mode.getSize() + 8);
+            for (int x = 0; x < mode.getSize(); x++) {
+                row.setLength(0);
+                row.append(String.format("%4d ", x));
+                for (int y = 0; y < mode.getSize(); y++) {
+                    int cell = mode.index(x, y);
+                    boolean shot = board.getShots().get(cell);
+                    row.append(board.isOccupied(cell) ? (shot ? 'X' : 'o') : (shot ? '*' : '.'));
+                }
+                System.out.println(row);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package cz.vse.server;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.async.AsyncQueueFullPolicy;
+import org.apache.logging.log4j.core.async.EventRoute;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// What the asynchronous loggers do when their ring buffer is full, selected in
+// log4j2.component.properties. Log4j's default makes the caller wait for a free slot,
+// which would stall a game shard behind the disk. Here INFO and below are dropped and
+// counted instead; warnings and errors still wait, they are rare and worth keeping.
+public final class LogQueuePolicy implements AsyncQueueFullPolicy {
+    static final LongAdder dropped = new LongAdder();
+
+    @Override
+    public EventRoute getRoute(long backgroundThreadId, Level level) {
+        // The logging thread itself cannot wait for itself
+        if (Thread.currentThread().threadId() == backgroundThreadId) {
+            return EventRoute.SYNCHRONOUS;
+        }
+        if (level.isLessSpecificThan(Level.INFO)) {
+            dropped.increment();
+            return EventRoute.DISCARD;
+        }
+        return EventRoute.ENQUEUE;
+    }
+}
@@ -0,0 +1,259 @@
+package cz.vse.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+// Pairs waiting players of the same GameMode. Logins only append a Ticket to a
+// lock-free queue; one matchmaker thread drains everything that arrived since its
+// last pass and pairs it in one go, so a burst of logins costs one pass rather than
+// one contended handoff each. Only this thread decides pairings, and a pairing and
+// a cancellation race on the ticket's state alone, so no player is ever paired twice
+// or with someone who already left.
+//
+// Waiting players are kept in rating buckets of battleship.match.bucketWidth points
+// (see Ratings), oldest first. A player is paired within their own bucket at once and
+// reaches one bucket further for every battleship.match.widenInterval ms they wait.
+final class Matchmaker implements Runnable {
+    private static final Logger logger = LogManager.getLogger(Matchmaker.class);
+
+    static final int BUCKET_WIDTH = Integer.getInteger("battleship.match.bucketWidth", 100);
+    static final long WIDEN_INTERVAL = Long.getLong("battleship.match.widenInterval", 2000);
+    // Ratings at or above BUCKETS * BUCKET_WIDTH share the top bucket
+    private static final int BUCKETS = 40;
+    // How often waiting players are looked at again while nobody arrives
+    private static final long RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final int WAITING = 0;
+    private static final int CLAIMED = 1; // being paired, settles to MATCHED or WAITING
+    private static final int MATCHED = 2;
+    private static final int CANCELLED = 3;
+
+    // A player's place in the queue
+    static final class Ticket {
+        final Session player;
+        final GameMode mode;
+        final int rating;
+        // Set for players the Router sent here as a pair; GameManager pairs those itself
+        final String pair;
+        final long enqueued = System.nanoTime();
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        Ticket(Session player, GameMode mode, int rating) {
+            this(player, mode, rating, null);
+        }
+
+        Ticket(Session player, GameMode mode, int rating, String pair) {
+            this.player = player;
+            this.mode = mode;
+            this.rating = rating;
+            this.pair = pair;
+        }
+
+        boolean isWaiting() {
+            return state.get() == WAITING;
+        }
+
+        // Takes a waiting ticket for a pairing, which must end in settle(). Meanwhile
+        // cancel() waits, so the player cannot leave halfway through.
+        boolean claim() {
+            return state.compareAndSet(WAITING, CLAIMED);
+        }
+
+        // MATCHED once the game is set, or back to WAITING if the pairing fell through
+        void settle(boolean matched) {
+            state.set(matched ? MATCHED : WAITING);
+        }
+
+        // O(1), from any thread: true if the player was taken out of the queue, false
+        // if they were paired (the match is complete by then) or cancelled before
+        boolean cancel() {
+            while (true) {
+                int current = state.get();
+                if (current == CLAIMED) {
+                    Thread.onSpinWait();
+                } else if (current != WAITING) {
+                    return false;
+                } else if (state.compareAndSet(WAITING, CANCELLED)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    // Waiting tickets of one mode by rating bucket, matchmaker thread only
+    private static final class Pool {
+        final List<ArrayDeque<Ticket>> buckets = new ArrayList<>(BUCKETS);
+
+        Pool() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.add(new ArrayDeque<>());
+            }
+        }
+    }
+
+    private final Queue<Ticket> arrivals = new ConcurrentLinkedQueue<>();
+    private final Map<GameMode, Pool> pools = new HashMap<>();
+    // Called on the matchmaker thread with both tickets claimed, the older one first
+    private final BiConsumer<Ticket, Ticket> onMatch;
+    private final Thread thread;
+    private final AtomicBoolean sleeping = new AtomicBoolean();
+    private long waiting; // tickets left in the pools after the last pass
+
+    Matchmaker(String name, BiConsumer<Ticket, Ticket> onMatch) {
+        this.onMatch = onMatch;
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    // Any thread, never blocks
+    void offer(Ticket ticket) {
+        arrivals.add(ticket);
+        if (sleeping.get() && sleeping.compareAndSet(true, false)) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public void run() {
+        logger.info("Matchmaker started with rating buckets of {} widening every {} ms", BUCKET_WIDTH, WIDEN_INTERVAL);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                pass();
+            } catch (RuntimeException e) {
+                logger.error("Matchmaking pass failed", e);
+            }
+            sleeping.set(true);
+            // An offer() between the pass and here either sees the flag or is seen below
+            if (arrivals.isEmpty()) {
+                if (waiting > 0) {
+                    LockSupport.parkNanos(this, RECHECK_NANOS);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+            sleeping.set(false);
+        }
+    }
+
+    private void pass() {
+        Ticket ticket;
+        int arrived = 0;
+        while ((ticket = arrivals.poll()) != null) {
+            if (ticket.isWaiting()) {
+                pools.computeIfAbsent(ticket.mode, m -> new Pool()).buckets.get(bucket(ticket.rating)).add(ticket);
+                arrived++;
+            }
+        }
+        long now = System.nanoTime();
+        long left = 0;
+        int paired = 0;
+        for (Pool pool : pools.values()) {
+            paired += pair(pool, now);
+            for (ArrayDeque<Ticket> bucket : pool.buckets) {
+                left += bucket.size();
+            }
+        }
+        waiting = left;
+        if (arrived > 1 || paired > 1) {
+            logger.debug("Matchmaking pass: {} arrived, {} pairs, {} waiting", arrived, paired, left);
+        }
+    }
+
+    // Pairs within every bucket, oldest first. What is left is at most one ticket per
+    // bucket; each is offered to the next bucket up that one of the two can reach.
+    private int pair(Pool pool, long now) {
+        int paired = 0;
+        int carryBucket = -1;
+        for (int b = 0; b < BUCKETS; b++) {
+            ArrayDeque<Ticket> bucket = pool.buckets.get(b);
+            if (carryBucket >= 0) {
+                ArrayDeque<Ticket> below = pool.buckets.get(carryBucket);
+                Ticket carry = head(below);
+                Ticket first = head(bucket);
+                if (carry == null) {
+                    carryBucket = -1;
+                } else if (first != null && b - carryBucket <= Math.max(reach(carry, now), reach(first, now))) {
+                    below.poll();
+                    bucket.poll();
+                    paired += match(carry, first, below, bucket);
+                    carryBucket = -1;
+                }
+            }
+            Ticket first;
+            while ((first = head(bucket)) != null) {
+                bucket.poll();
+                Ticket second = head(bucket);
+                if (second == null) {
+                    bucket.addFirst(first);
+                    break;
+                }
+                bucket.poll();
+                paired += match(first, second, bucket, bucket);
+            }
+            if (!bucket.isEmpty()) {
+                carryBucket = b;
+            }
+        }
+        return paired;
+    }
+
+    // Claims both tickets and hands them to onMatch; a ticket that is still waiting
+    // after a failed claim goes back to the front of its bucket
+    private int match(Ticket a, Ticket b, ArrayDeque<Ticket> bucketA, ArrayDeque<Ticket> bucketB) {
+        if (a.claim()) {
+            if (b.claim()) {
+                Ticket older = a.enqueued - b.enqueued <= 0 ? a : b;
+                try {
+                    onMatch.accept(older, older == a ? b : a);
+                } finally {
+                    a.settle(true);
+                    b.settle(true);
+                }
+                return 1;
+            }
+            a.settle(false);
+        }
+        if (b.isWaiting()) {
+            bucketB.addFirst(b);
+        }
+        if (a.isWaiting()) {
+            bucketA.addFirst(a);
+        }
+        return 0;
+    }
+
+    // Oldest ticket still waiting, dropping cancelled ones on the way
+    private static Ticket head(ArrayDeque<Ticket> bucket) {
+        Ticket ticket;
+        while ((ticket = bucket.peek()) != null && !ticket.isWaiting()) {
+            bucket.poll();
+        }
+        return ticket;
+    }
+
+    private static int bucket(int rating) {
+        return Math.min(BUCKETS - 1, Math.max(0, rating / BUCKET_WIDTH));
+    }
+
+    // Buckets away from its own that a ticket accepts an opponent from
+    private static long reach(Ticket ticket, long now) {
+        return WIDEN_INTERVAL <= 0 ? BUCKETS : (now - ticket.enqueued) / TimeUnit.MILLISECONDS.toNanos(WIDEN_INTERVAL);
+    }
+}
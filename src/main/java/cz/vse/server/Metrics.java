@@ -0,0 +1,127 @@
+package cz.vse.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Server-wide counters, written from the event loops and shards. LongAdder stripes
+// its cells per thread, so hot paths never contend on one cache line; readers sum
+// the cells only when ServerMetrics is asked for a value.
+final class Metrics {
+    static final LongAdder connectionsOpened = new LongAdder();
+    static final LongAdder connectionsClosed = new LongAdder();
+    static final LongAdder bytesIn = new LongAdder();
+    static final LongAdder bytesOut = new LongAdder();
+
+    // Why connections ended (slow consumers are counted by OutboundBudget)
+    static final LongAdder exitDisconnects = new LongAdder();
+    static final LongAdder afkDisconnects = new LongAdder();
+    static final LongAdder peerClosedDisconnects = new LongAdder(); // EOF or failed read
+    static final LongAdder writeFailedDisconnects = new LongAdder(); // e.g. a PING to a dead peer
+    static final LongAdder rateLimitDisconnects = new LongAdder(); // kept flooding after being throttled
+
+    // Games held for a player whose connection failed (see Session), and how that ended
+    static final LongAdder sessionsSuspended = new LongAdder();
+    static final LongAdder sessionsResumed = new LongAdder();
+    static final LongAdder sessionsExpired = new LongAdder();
+
+    // WATCH connections currently subscribed, and event buffers fanned out to them
+    static final LongAdder spectators = new LongAdder();
+    static final LongAdder spectatorBuffers = new LongAdder();
+
+    // Commands dropped by a connection's RateLimit buckets, per class
+    private static final LongAdder[] rateLimited = new LongAdder[RateLimit.values().length];
+
+    private static final CommandType[] COMMAND_TYPES = CommandType.values();
+    private static final LongAdder[] commands = new LongAdder[COMMAND_TYPES.length];
+    // Commands per second over the last sampling interval, replaced as a whole
+    private static volatile double[] commandRates = new double[COMMAND_TYPES.length];
+    private static final long[] lastCommandCounts = new long[COMMAND_TYPES.length];
+    private static long lastSample = System.nanoTime();
+
+    // FIRE received -> processMove done on the shard, shard queueing included.
+    // Percentiles come from the last complete window; a record racing the window
+    // switch may be missing from the lifetime total.
+    private static volatile LatencyHistogram moveWindow = new LatencyHistogram();
+    private static volatile LatencyHistogram lastMoveWindow = new LatencyHistogram();
+    private static final LatencyHistogram moveTotal = new LatencyHistogram();
+    // Queued -> paired by the Matchmaker, per player, windowed like moves
+    private static volatile LatencyHistogram matchWindow = new LatencyHistogram();
+    private static volatile LatencyHistogram lastMatchWindow = new LatencyHistogram();
+    static final LongAdder matchedPlayers = new LongAdder();
+
+    static {
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = new LongAdder();
+        }
+        for (int i = 0; i < rateLimited.length; i++) {
+            rateLimited[i] = new LongAdder();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    static void command(CommandType type) {
+        commands[type.ordinal()].increment();
+    }
+
+    static long commandCount(CommandType type) {
+        return commands[type.ordinal()].sum();
+    }
+
+    static void rateLimited(RateLimit limit) {
+        rateLimited[limit.ordinal()].increment();
+    }
+
+    static long rateLimitedCount(RateLimit limit) {
+        return rateLimited[limit.ordinal()].sum();
+    }
+
+    static double commandRate(CommandType type) {
+        return commandRates[type.ordinal()];
+    }
+
+    static void recordMove(long nanos) {
+        moveWindow.record(nanos);
+    }
+
+    static void recordMatchWait(long nanos) {
+        matchWindow.record(nanos);
+        matchedPlayers.increment();
+    }
+
+    static LatencyHistogram lastMatchWindow() {
+        return lastMatchWindow;
+    }
+
+    static LatencyHistogram lastMoveWindow() {
+        return lastMoveWindow;
+    }
+
+    static long moveCount() {
+        return moveTotal.getCount() + moveWindow.getCount();
+    }
+
+    // Called by the timing wheel once per second
+    static synchronized void sampleRates() {
+        long now = System.nanoTime();
+        double seconds = (now - lastSample) / 1e9;
+        double[] rates = new double[COMMAND_TYPES.length];
+        for (int i = 0; i < rates.length; i++) {
+            long count = commands[i].sum();
+            rates[i] = (count - lastCommandCounts[i]) / seconds;
+            lastCommandCounts[i] = count;
+        }
+        commandRates = rates;
+        lastSample = now;
+    }
+
+    // Called by the timing wheel once per latency window
+    static synchronized void rotateLatencyWindows() {
+        LatencyHistogram done = moveWindow;
+        moveWindow = new LatencyHistogram();
+        moveTotal.add(done);
+        lastMoveWindow = done;
+        lastMatchWindow = matchWindow;
+        matchWindow = new LatencyHistogram();
+    }
+}
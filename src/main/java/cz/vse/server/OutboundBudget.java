@@ -0,0 +1,50 @@
+package cz.vse.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Limits for queued outbound data, per connection and across the whole server.
+// Configured through system properties, e.g. -Dbattleship.outbound.policy=DISCONNECT
+final class OutboundBudget {
+    private static final Logger logger = LogManager.getLogger(OutboundBudget.class);
+
+    static final int SOFT_LIMIT = Integer.getInteger("battleship.outbound.softLimit", 16 * 1024);
+    static final int HARD_LIMIT = Integer.getInteger("battleship.outbound.hardLimit", 256 * 1024);
+    static final long GLOBAL_LIMIT = Long.getLong("battleship.outbound.globalLimit", 256L * 1024 * 1024);
+    static final SlowConsumerPolicy POLICY = SlowConsumerPolicy.valueOf(
+            System.getProperty("battleship.outbound.policy", SlowConsumerPolicy.DROP_PINGS.name()));
+
+    private static final AtomicLong globalQueued = new AtomicLong();
+    static final LongAdder droppedPings = new LongAdder();
+    static final LongAdder coalesced = new LongAdder();
+    static final LongAdder slowConsumerDisconnects = new LongAdder();
+
+    static {
+        logger.info("Outbound limits: soft {} B, hard {} B, global {} B, policy {}",
+                SOFT_LIMIT, HARD_LIMIT, GLOBAL_LIMIT, POLICY);
+    }
+
+    private OutboundBudget() {
+    }
+
+    // Reserves global memory for a new buffer; false when the server-wide cap is reached
+    static boolean tryReserve(int bytes) {
+        long total = globalQueued.addAndGet(bytes);
+        if (total > GLOBAL_LIMIT) {
+            globalQueued.addAndGet(-bytes);
+            return false;
+        }
+        return true;
+    }
+
+    static void release(int bytes) {
+        globalQueued.addAndGet(-bytes);
+    }
+
+    static long getGlobalQueued() {
+        return globalQueued.get();
+    }
+}
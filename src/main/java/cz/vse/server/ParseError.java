@@ -0,0 +1,24 @@
+package cz.vse.server;
+
+public enum ParseError {
+    NONE(null),
+    INVALID_PLACE_FORMAT("ERROR: Invalid PLACE command format!"),
+    UNKNOWN_SHIP_TYPE("ERROR: Unknown ship type!"),
+    TOO_MANY_CELLS("ERROR: Too many ship positions!"),
+    INVALID_PLACE_ALL_FORMAT("ERROR: Invalid PLACEALL command format! Use: PLACEALL type x,y ...; type x,y ..."),
+    TOO_MANY_SHIPS("ERROR: Too many ships!"),
+    INVALID_MOVE_FORMAT("ERROR: Invalid move format! Use: x,y"),
+    // Completed with the mode's largest coordinate, see getMessage(GameMode)
+    INVALID_COORDINATES("ERROR: Invalid coordinates! Use numbers between 0-");
+
+    private final String message;
+
+    ParseError(String message) {
+        this.message = message;
+    }
+
+    // Line sent back to the client
+    public String getMessage(GameMode mode) {
+        return this == INVALID_COORDINATES ? message + (mode.getSize() - 1) + "." : message;
+    }
+}
@@ -0,0 +1,32 @@
+package cz.vse.server;
+
+// Everything the server tells a player. The engine reports typed events and each
+// connection renders them in its negotiated wire format (TextOutput or BinaryOutput).
+// Nothing is sent before flush().
+public interface PlayerOutput {
+    // Free-form line without a dedicated event (errors, hints, greetings)
+    void text(String line);
+
+    void ok();
+
+    void ping();
+
+    void opponentFound(String opponent);
+
+    // cells holds coordinate pairs as x0, y0, x1, y1, ...; the ship is the cellCount
+    // pairs starting at pair 'firstCell'
+    void shipPlaced(ShipType type, int[] cells, int firstCell, int cellCount);
+
+    void gameStarted(boolean yourTurn);
+
+    // Shot at x,y; byOpponent is true when the shot was fired at this player's board
+    void shot(int x, int y, boolean hit, boolean byOpponent);
+
+    void sunk(Ship ship, boolean byOpponent);
+
+    void turn(boolean yours, boolean again);
+
+    void gameOver(boolean won);
+
+    void flush();
+}
@@ -0,0 +1,61 @@
+package cz.vse.server;
+
+// Command classes, each with its own token bucket per connection. Configured as
+// -Dbattleship.rateLimit.<class>=perSecond[/burst], e.g. -Dbattleship.rateLimit.game=50/100;
+// a rate of 0 turns the limit off. The defaults leave room for scripted clients and
+// only stop floods.
+enum RateLimit {
+    // CHECK, EXIT, READY and unknown input
+    CONTROL(20, 40),
+    // LOGIN, WATCH, RESUME and anything else sent before logging in
+    SESSION(2, 10),
+    // PLACE, PLACEALL and FIRE
+    GAME(100, 200);
+
+    private static final RateLimit[] VALUES = values();
+
+    private final double perSecond;
+    private final double burst;
+
+    RateLimit(double defaultRate, double defaultBurst) {
+        String value = System.getProperty("battleship.rateLimit." + name().toLowerCase());
+        if (value == null) {
+            perSecond = defaultRate;
+            burst = defaultBurst;
+        } else {
+            int slash = value.indexOf('/');
+            perSecond = Double.parseDouble(slash < 0 ? value : value.substring(0, slash));
+            burst = slash < 0 ? Math.max(1, perSecond) : Double.parseDouble(value.substring(slash + 1));
+        }
+    }
+
+    static RateLimit of(CommandType type, ConnectionPhase phase) {
+        return switch (type) {
+            case LOGIN, WATCH, RESUME -> SESSION;
+            case PLACE, PLACE_ALL, FIRE -> GAME;
+            // The welcome banner answers every line before LOGIN, so CHECK is the only cheap one
+            default -> phase == ConnectionPhase.LOGIN && type != CommandType.CHECK ? SESSION : CONTROL;
+        };
+    }
+
+    // Indexed by ordinal, null where the limit is off
+    static TokenBucket[] newBuckets() {
+        TokenBucket[] buckets = new TokenBucket[VALUES.length];
+        for (RateLimit limit : VALUES) {
+            if (limit.perSecond > 0) {
+                buckets[limit.ordinal()] = new TokenBucket(limit.perSecond, limit.burst);
+            }
+        }
+        return buckets;
+    }
+
+    static String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (RateLimit limit : VALUES) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(limit.name()).append(limit.perSecond > 0
+                    ? " " + limit.perSecond + "/s (burst " + limit.burst + ")" : " unlimited");
+        }
+        return sb.toString();
+    }
+}
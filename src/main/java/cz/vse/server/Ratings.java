@@ -0,0 +1,52 @@
+package cz.vse.server;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Elo ratings by username, kept in memory for the life of the server and used by the
+// Matchmaker to pair players of similar strength. Everyone starts at INITIAL; each
+// finished game (sunk fleet or forfeit) moves both players by up to K points. Games
+// against bots are not rated. Only the battleship.ratings.maxPlayers players seen
+// most recently are kept; anyone older starts over at INITIAL.
+final class Ratings {
+    static final int INITIAL = 1200;
+    static final int MAX_PLAYERS = Integer.getInteger("battleship.ratings.maxPlayers", 100_000);
+    private static final int K = 32;
+
+    private static final Map<String, Integer> ratings = Collections.synchronizedMap(new RecentlySeen());
+
+    private Ratings() {
+    }
+
+    // In access order, dropping the least recently seen player beyond MAX_PLAYERS
+    private static final class RecentlySeen extends LinkedHashMap<String, Integer> {
+        private static final long serialVersionUID = 1L;
+
+        RecentlySeen() {
+            super(1024, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_PLAYERS;
+        }
+    }
+
+    static int get(String username) {
+        return ratings.getOrDefault(username, INITIAL);
+    }
+
+    static void recordWin(Session winner, Session loser) {
+        if (winner.isBot() || loser.isBot()) {
+            return;
+        }
+        int winnerRating = get(winner.getUsername());
+        int loserRating = get(loser.getUsername());
+        double expected = 1 / (1 + Math.pow(10, (loserRating - winnerRating) / 400.0));
+        int change = (int) Math.round(K * (1 - expected));
+        // Two games of one player never run at the same time, so a plain put is enough
+        ratings.put(winner.getUsername(), winnerRating + change);
+        ratings.put(loser.getUsername(), loserRating - change);
+    }
+}
@@ -0,0 +1,342 @@
+package cz.vse.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Front process for several Server processes, so capacity grows by adding backends.
+// Clients connect to the router as they would to a Server. The router logs them in,
+// pairs players of the same mode, and sends each pair to one backend. From then on it
+// either copies the traffic (proxy, the default) or tells both clients where to
+// reconnect (battleship.router.mode=redirect). WATCH and RESUME go to the backend
+// that has the player or the token. A redirected player's name stays with the backend
+// until its /players list (see ServerMetrics) no longer has them in a game.
+//
+// The backend must pair exactly the two players sent to it together, whatever their
+// ratings (its Matchmaker would not), so both LOGIN lines get the same random
+// "[pair key]" suffix. In proxy mode the router adds it to the replayed LOGIN; in
+// redirect mode it is part of the REDIRECT line and the client appends it itself:
+//   REDIRECT: host:port [pair 5f0c...]  ->  LOGIN: alice [pair 5f0c...]
+//
+// A pair's backend comes from consistent hashing of the two names (HashRing), with
+// bounded loads: the backend that owns the key is skipped while it is down or holds
+// more than battleship.router.loadFactor times the average load. Health and load are
+// read from every backend's /metrics endpoint each battleship.router.healthInterval ms.
+//
+// The whole topology runs on one host; each process needs its own ports and log file:
+//   java -Dbattleship.port=12346 -Dbattleship.metrics.port=9101 -Dbattleship.log.name=backend-1 \
+//        -jar target/server-1.0-SNAPSHOT.jar
+//   java -Dbattleship.port=12347 -Dbattleship.metrics.port=9102 -Dbattleship.log.name=backend-2 \
+//        -jar target/server-1.0-SNAPSHOT.jar
+//   java -Dbattleship.router.backends=localhost:12346/9101,localhost:12347/9102 -Dbattleship.log.name=router \
+//        -cp target/server-1.0-SNAPSHOT.jar cz.vse.server.Router
+public final class Router {
+    private static final Logger logger = LogManager.getLogger(Router.class);
+
+    static final int PORT = Integer.getInteger("battleship.router.port", 12345);
+    static final int CONNECT_TIMEOUT = 1000;
+    private static final boolean REDIRECT = "redirect".equalsIgnoreCase(System.getProperty("battleship.router.mode", "proxy"));
+    private static final int VIRTUAL_NODES = Integer.getInteger("battleship.router.virtualNodes", 128);
+    private static final double LOAD_FACTOR = Double.parseDouble(System.getProperty("battleship.router.loadFactor", "1.25"));
+    private static final long HEALTH_INTERVAL = Long.getLong("battleship.router.healthInterval", 1000);
+    // How long a redirected player may take to show up in a game on the backend
+    private static final long REDIRECT_TIMEOUT = Long.getLong("battleship.router.redirectTimeout", 30 * 1000);
+    // Ends a LOGIN line, followed by the pair key and ']'
+    static final String PAIR_PREFIX = " [pair ";
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private static final TimingWheel timers = new TimingWheel("router-timers", 100, 512);
+    private static final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT)).build();
+    private static List<Backend> backends;
+    private static HashRing<Backend> ring;
+
+    // Logged-in names and the connection holding each
+    private static final Map<String, RouterConnection> users = new ConcurrentHashMap<>();
+    // Connections holding a resume token
+    private static final Map<String, RouterConnection> tokens = new ConcurrentHashMap<>();
+    // Redirected players whose connection is closed, with the time by which they must
+    // be in a game on their backend, or 0 once they were; names are released when the
+    // backend stops listing them
+    private static final Map<RouterConnection, Long> redirected = new ConcurrentHashMap<>();
+    // Player waiting for a partner, per mode; guarded by Router.class
+    private static final Map<GameMode, RouterConnection> waiting = new HashMap<>();
+
+    private Router() {
+    }
+
+    public static void main(String[] args) {
+        String definitions = System.getProperty("battleship.router.backends", "localhost:12346/9101");
+        List<Backend> configured = new ArrayList<>();
+        for (String definition : definitions.split(",")) {
+            if (!definition.isBlank()) {
+                configured.add(Backend.parse(definition));
+            }
+        }
+        backends = List.copyOf(configured);
+        ring = new HashRing<>(backends, VIRTUAL_NODES, Backend::toString);
+        logger.info("Router is starting on port {} in {} mode for backends {}", PORT, REDIRECT ? "redirect" : "proxy", backends);
+
+        timers.start();
+        Thread.ofVirtual().name("backend-monitor").start(Router::monitor);
+        timers.scheduleAtFixedRate(() -> logger.info("Backends: {}", describeBackends()), 60 * 1000, 60 * 1000);
+
+        try (ServerSocket serverSocket = new ServerSocket()) {
+            serverSocket.bind(new InetSocketAddress(PORT), 1024);
+            while (true) {
+                Socket client = serverSocket.accept();
+                client.setTcpNoDelay(true);
+                logger.info("New client connected: {}", client.getRemoteSocketAddress());
+                Thread.ofVirtual().name("router-client").start(new RouterConnection(client));
+            }
+        } catch (IOException e) {
+            logger.error("Router stopped", e);
+        }
+    }
+
+    static boolean claim(String name, RouterConnection connection) {
+        return users.putIfAbsent(name, connection) == null;
+    }
+
+    // Backend of the game a logged-in player is in, null if none
+    static Backend backendOf(String player) {
+        RouterConnection connection = users.get(player);
+        return connection != null ? connection.getBackend() : null;
+    }
+
+    // The connection that held the token, now replaced by 'resuming' as the owner of
+    // its name and token; null if the token is unknown
+    static RouterConnection resume(String token, RouterConnection resuming) {
+        RouterConnection owner = tokens.get(token);
+        if (owner == null || owner.getBackend() == null || !tokens.replace(token, owner, resuming)) {
+            return null;
+        }
+        users.replace(owner.getName(), owner, resuming);
+        return owner;
+    }
+
+    // Waits for a partner in the same mode, or pairs with the one already waiting
+    static void enqueue(RouterConnection connection) {
+        RouterConnection partner;
+        synchronized (Router.class) {
+            partner = waiting.remove(connection.getMode());
+            if (partner == null || partner.isClosed()) {
+                waiting.put(connection.getMode(), connection);
+                logger.info("User '{}' is waiting for an opponent", connection.getName());
+                return;
+            }
+        }
+        assign(partner, connection);
+    }
+
+    private static void assign(RouterConnection first, RouterConnection second) {
+        String key = first.getName() + '\n' + second.getName();
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String pair = PAIR_PREFIX + HexFormat.of().formatHex(bytes) + ']';
+        for (Backend backend : candidates(key)) {
+            try {
+                if (REDIRECT) {
+                    first.redirect(backend, pair);
+                    second.redirect(backend, pair);
+                } else {
+                    first.connect(backend, pair);
+                    second.connect(backend, pair);
+                    register(first);
+                    register(second);
+                    first.start();
+                    second.start();
+                }
+                backend.assigned(2);
+                logger.info("Paired '{}' and '{}' on {}", first.getName(), second.getName(), backend);
+                return;
+            } catch (IOException e) {
+                logger.warn("Backend {} failed to take '{}' and '{}': {}", backend, first.getName(), second.getName(), e.getMessage());
+                backend.markDown();
+                first.detach();
+                second.detach();
+            }
+        }
+        logger.error("No backend available for '{}' and '{}'", first.getName(), second.getName());
+        first.fail("ERROR: No game server is available. Try again later.");
+        second.fail("ERROR: No game server is available. Try again later.");
+    }
+
+    private static void register(RouterConnection connection) {
+        if (connection.getToken() != null) {
+            tokens.put(connection.getToken(), connection);
+        }
+    }
+
+    // Healthy backends within the load bound in ring order, then the overloaded ones,
+    // then those marked down (the monitor may not have noticed their recovery yet)
+    private static List<Backend> candidates(String key) {
+        List<Backend> order = ring.walk(key);
+        int healthy = 0;
+        long load = 0;
+        for (Backend backend : order) {
+            if (backend.isHealthy()) {
+                healthy++;
+                load += backend.getLoad();
+            }
+        }
+        double bound = healthy == 0 ? 0 : Math.ceil((load + 2) * LOAD_FACTOR / healthy);
+        List<Backend> preferred = new ArrayList<>(order.size());
+        List<Backend> overloaded = new ArrayList<>();
+        List<Backend> down = new ArrayList<>();
+        for (Backend backend : order) {
+            if (!backend.isHealthy()) {
+                down.add(backend);
+            } else if (backend.getLoad() + 2 <= bound) {
+                preferred.add(backend);
+            } else {
+                overloaded.add(backend);
+            }
+        }
+        preferred.addAll(overloaded);
+        preferred.addAll(down);
+        return preferred;
+    }
+
+    // The connection ended. A player who reached a backend keeps the name for the
+    // backend's grace period, in which the game can still be resumed (see Session). A
+    // redirected one keeps it while the backend lists them as playing (see monitor).
+    static void closed(RouterConnection connection) {
+        synchronized (Router.class) {
+            waiting.remove(connection.getMode(), connection);
+        }
+        String name = connection.getName();
+        if (name == null || users.get(name) != connection) {
+            return;
+        }
+        Backend backend = connection.getBackend();
+        if (REDIRECT && backend != null && backend.getMetricsPort() >= 0) {
+            redirected.put(connection, System.currentTimeMillis() + REDIRECT_TIMEOUT);
+        } else if (backend == null || REDIRECT || connection.getToken() == null) {
+            release(connection);
+        } else {
+            timers.schedule(() -> release(connection), Session.GRACE_PERIOD);
+        }
+    }
+
+    private static void release(RouterConnection connection) {
+        users.remove(connection.getName(), connection);
+        if (connection.getToken() != null) {
+            tokens.remove(connection.getToken(), connection);
+        }
+    }
+
+    // Polls every backend's /metrics (or just connects, without a metrics port)
+    private static void monitor() {
+        while (true) {
+            for (Backend backend : backends) {
+                boolean wasHealthy = backend.isHealthy();
+                try {
+                    backend.reportHealthy(check(backend));
+                    if (!wasHealthy) {
+                        logger.info("Backend {} is up", backend);
+                    }
+                    if (!redirected.isEmpty() && backend.getMetricsPort() >= 0) {
+                        settleRedirected(backend, playing(backend));
+                    }
+                } catch (IOException e) {
+                    if (backend.reportFailure()) {
+                        logger.warn("Backend {} is down: {}", backend, e.getMessage());
+                        // Its games are gone with it
+                        settleRedirected(backend, Set.of());
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            try {
+                Thread.sleep(HEALTH_INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Releases the names of redirected players on this backend that are no longer in a
+    // game there, or never got into one in time
+    private static void settleRedirected(Backend backend, Set<String> playing) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<RouterConnection, Long> entry : redirected.entrySet()) {
+            RouterConnection connection = entry.getKey();
+            if (connection.getBackend() != backend) {
+                continue;
+            }
+            if (playing.contains(connection.getName())) {
+                entry.setValue(0L);
+            } else if (entry.getValue() == 0 || now >= entry.getValue()) {
+                redirected.remove(connection);
+                release(connection);
+            }
+        }
+    }
+
+    // Connections the backend reports
+    private static int check(Backend backend) throws IOException, InterruptedException {
+        if (backend.getMetricsPort() < 0) {
+            try (Socket socket = new Socket()) {
+                socket.connect(backend.address(), CONNECT_TIMEOUT);
+            }
+            return 0;
+        }
+        for (String line : get(backend, "/metrics").split("\n")) {
+            if (line.startsWith("battleship_connections ")) {
+                return (int) Double.parseDouble(line.substring("battleship_connections ".length()).trim());
+            }
+        }
+        throw new IOException("no battleship_connections in the metrics");
+    }
+
+    // Names of the players in an unfinished game on the backend
+    private static Set<String> playing(Backend backend) throws IOException, InterruptedException {
+        Set<String> names = new HashSet<>();
+        for (String line : get(backend, "/players").split("\n")) {
+            if (!line.isEmpty()) {
+                names.add(line);
+            }
+        }
+        return names;
+    }
+
+    private static String get(Backend backend, String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(
+                        URI.create("http://" + backend.getHost() + ":" + backend.getMetricsPort() + path))
+                .timeout(Duration.ofMillis(CONNECT_TIMEOUT)).build();
+        HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException(path + " answered " + response.statusCode());
+        }
+        return response.body();
+    }
+
+    private static String describeBackends() {
+        StringBuilder sb = new StringBuilder();
+        for (Backend backend : backends) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(backend).append(backend.isHealthy() ? " up, load " + backend.getLoad() : " down");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,479 @@
+package cz.vse.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// One client of the Router, served by its own virtual thread with blocking I/O. The
+// router answers the login phase itself, exactly as a Server would, and queues the
+// player for a partner. Once the pair has a backend, the original LOGIN line is
+// replayed there and from then on bytes are copied both ways untouched. While the
+// player waits for a partner the router answers CHECK itself; other input is kept
+// and sent after the login.
+final class RouterConnection implements Runnable {
+    private static final Logger logger = LogManager.getLogger(RouterConnection.class);
+
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    // The backend has this long to answer a replayed LOGIN
+    private static final int HANDSHAKE_TIMEOUT = 5 * 1000;
+    private static final byte[] OK_FRAME = {0, 1, BinaryProtocol.OK};
+
+    private final Socket client;
+    private final InputStream clientIn;
+    private final OutputStream clientOut;
+    private final Command command = new Command();
+
+    private String name;
+    private GameMode mode;
+    private boolean binary;
+    private byte[] loginLine;
+    private String token;
+    private volatile boolean closed;
+
+    // Guarded by this: input kept until the backend connection is up
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private Socket backendSocket;
+    private InputStream backendIn;
+    private OutputStream backendOut;
+    private Backend backend;
+
+    RouterConnection(Socket client) throws IOException {
+        this.client = client;
+        this.clientIn = new BufferedInputStream(client.getInputStream());
+        this.clientOut = client.getOutputStream();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    GameMode getMode() {
+        return mode;
+    }
+
+    Backend getBackend() {
+        return backend;
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (!loginPhase()) {
+                return;
+            }
+            waitingPhase();
+            // Paired: everything else is for the backend
+            byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((read = clientIn.read(buffer)) >= 0) {
+                forward(buffer, read);
+            }
+        } catch (IOException e) {
+            logger.debug("Connection of '{}' failed", name, e);
+        } finally {
+            close();
+        }
+    }
+
+    // Serves lines until the player is logged in (true) or the connection is over
+    private boolean loginPhase() throws IOException {
+        byte[] line;
+        while ((line = readLine(clientIn)) != null) {
+            CommandParser.parse(line, line.length, command);
+            switch (command.getType()) {
+                case CHECK -> send("OK");
+                case EXIT -> {
+                    send("Goodbye!");
+                    return false;
+                }
+                case WATCH -> {
+                    String player = argument(line);
+                    Backend hosting = Router.backendOf(player);
+                    if (hosting == null) {
+                        send("ERROR: No game found for player '" + player + "'");
+                    } else {
+                        pipe(hosting, line);
+                        return false;
+                    }
+                }
+                case RESUME -> {
+                    RouterConnection owner = Router.resume(argument(line), this);
+                    if (owner == null) {
+                        send("ERROR: Nothing to resume. Please log in using 'LOGIN: username'");
+                    } else {
+                        name = owner.name;
+                        token = owner.token;
+                        pipe(owner.backend, line);
+                        return false;
+                    }
+                }
+                case LOGIN -> {
+                    if (login(line)) {
+                        Router.enqueue(this);
+                        return true;
+                    }
+                }
+                default -> send("INFO: Welcome to Battleships Server! Please log in using 'LOGIN: username'");
+            }
+        }
+        return false;
+    }
+
+    // Reads whole lines (frames) until the pair has a backend: CHECK is answered here,
+    // as the backend would, and the rest kept for the backend. Returns once the input
+    // can be copied untouched.
+    private void waitingPhase() throws IOException {
+        while (true) {
+            synchronized (this) {
+                if (pending == null) {
+                    return;
+                }
+            }
+            byte[] message = binary ? readFrame(clientIn) : readLine(clientIn);
+            if (message == null) {
+                return;
+            }
+            if (binary) {
+                BinaryProtocol.decode(Arrays.copyOfRange(message, BinaryProtocol.HEADER_LENGTH, message.length),
+                        message.length - BinaryProtocol.HEADER_LENGTH, command);
+            } else {
+                CommandParser.parse(message, message.length, command);
+            }
+            synchronized (this) {
+                if (pending != null && command.getType() == CommandType.CHECK) {
+                    if (binary) {
+                        writeToClient(OK_FRAME, OK_FRAME.length);
+                    } else {
+                        send("OK");
+                    }
+                    continue;
+                }
+            }
+            if (binary) {
+                forward(message, message.length);
+            } else {
+                byte[] withNewline = Arrays.copyOf(message, message.length + 1);
+                withNewline[message.length] = '\n';
+                forward(withNewline, withNewline.length);
+            }
+        }
+    }
+
+    // Same checks and answers as ClientHandler.handleLogin
+    private boolean login(byte[] line) throws IOException {
+        send("INFO: Welcome to Battleships Server! Please log in using 'LOGIN: username'");
+        String requested = argument(line);
+        GameMode requestedMode = GameMode.CLASSIC;
+        int open = requested.lastIndexOf(" (");
+        if (open > 0 && requested.endsWith(")")) {
+            String modeName = requested.substring(open + 2, requested.length() - 1).trim();
+            requestedMode = GameMode.forName(modeName);
+            if (requestedMode == null) {
+                send("ERROR: Unknown game mode '" + modeName + "'. Available: " + String.join(", ", GameMode.names()));
+                return false;
+            }
+            if (command.isBinary() && requestedMode != GameMode.CLASSIC) {
+                send("ERROR: The binary protocol only supports the classic mode.");
+                return false;
+            }
+            requested = requested.substring(0, open).trim();
+        }
+        if (!Router.claim(requested, this)) {
+            send("ERROR: Username already in use. Try another one.");
+            return false;
+        }
+        name = requested;
+        mode = requestedMode;
+        loginLine = line;
+        send(mode == GameMode.CLASSIC ? "INFO: Welcome, " + name + "! Waiting for an opponent..."
+                : "INFO: Welcome, " + name + "! Waiting for an opponent in " + mode.describe() + "...");
+        binary = command.isBinary();
+        return true;
+    }
+
+    // WATCH and RESUME: the backend does all the talking from the first line on
+    private void pipe(Backend target, byte[] firstLine) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(target.address(), Router.CONNECT_TIMEOUT);
+        } catch (IOException e) {
+            socket.close();
+            target.markDown();
+            send("ERROR: The game server is not available. Try again later.");
+            return;
+        }
+        socket.setTcpNoDelay(true);
+        OutputStream out = socket.getOutputStream();
+        out.write(firstLine);
+        out.write('\n');
+        out.flush();
+        synchronized (this) {
+            backendSocket = socket;
+            backendIn = socket.getInputStream();
+            backendOut = out;
+            backend = target;
+            pending = null;
+        }
+        Thread.ofVirtual().name("router-backend").start(this::copyBackendToClient);
+        byte[] buffer = new byte[8 * 1024];
+        int read;
+        while ((read = clientIn.read(buffer)) >= 0) {
+            forward(buffer, read);
+        }
+    }
+
+    // Replays the LOGIN with the pair's suffix (see Router), so the backend pairs this
+    // player with the partner connected the same way
+    synchronized void connect(Backend target, String pair) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(target.address(), Router.CONNECT_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            out.write(loginLine);
+            out.write(pair.getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+            out.flush();
+            // The prompt and the welcome line were already sent by the router
+            byte[] reply;
+            do {
+                reply = readLine(in);
+                if (reply == null) {
+                    throw new IOException("closed during login");
+                }
+                if (startsWith(reply, "ERROR")) {
+                    throw new IOException("login refused: " + new String(reply, StandardCharsets.UTF_8));
+                }
+            } while (!startsWith(reply, "INFO: Welcome, "));
+            // The resume token follows; note which backend it belongs to
+            byte[] tokenMessage = binary ? readFrame(in) : readLine(in);
+            if (tokenMessage == null) {
+                throw new IOException("closed during login");
+            }
+            String text = new String(tokenMessage, binary ? BinaryProtocol.HEADER_LENGTH + 1 : 0,
+                    tokenMessage.length - (binary ? BinaryProtocol.HEADER_LENGTH + 1 : 0), StandardCharsets.UTF_8);
+            if (text.startsWith("INFO: Resume token: ")) {
+                token = text.substring("INFO: Resume token: ".length()).trim();
+            }
+            socket.setSoTimeout(0);
+            backendSocket = socket;
+            backendIn = in;
+            backendOut = out;
+            backend = target;
+            if (binary) {
+                writeToClient(tokenMessage, tokenMessage.length);
+            } else {
+                byte[] withNewline = Arrays.copyOf(tokenMessage, tokenMessage.length + 1);
+                withNewline[tokenMessage.length] = '\n';
+                writeToClient(withNewline, withNewline.length);
+            }
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // Sends what arrived meanwhile and starts copying the backend's output to the client
+    synchronized void start() throws IOException {
+        if (closed) {
+            backendSocket.close();
+            return;
+        }
+        pending.writeTo(backendOut);
+        backendOut.flush();
+        pending = null;
+        Thread.ofVirtual().name("router-backend-" + name).start(this::copyBackendToClient);
+    }
+
+    // Undoes connect() after the partner could not be placed on the same backend
+    synchronized void detach() {
+        if (backendSocket != null) {
+            try {
+                backendSocket.close();
+            } catch (IOException ignored) {
+                // Already gone
+            }
+        }
+        backendSocket = null;
+        backendIn = null;
+        backendOut = null;
+        backend = null;
+        token = null;
+    }
+
+    // Redirect mode: the client logs in again at the backend with the pair's suffix
+    // appended, and the backend pairs the two players sent there together
+    synchronized void redirect(Backend target, String pair) throws IOException {
+        backend = target;
+        send("REDIRECT: " + target.getHost() + ":" + target.getPort() + pair);
+        client.shutdownOutput();
+    }
+
+    // No backend could take the pair
+    void fail(String message) {
+        try {
+            send(message);
+        } catch (IOException ignored) {
+            // The client is gone as well
+        }
+        close();
+    }
+
+    private synchronized void forward(byte[] buffer, int length) throws IOException {
+        if (backendOut == null || pending != null) {
+            if (pending == null || pending.size() + length > MAX_LINE_LENGTH * 8) {
+                throw new IOException("too much input while waiting for an opponent");
+            }
+            pending.write(buffer, 0, length);
+            return;
+        }
+        backendOut.write(buffer, 0, length);
+        backendOut.flush();
+    }
+
+    private void copyBackendToClient() {
+        byte[] buffer = new byte[8 * 1024];
+        try {
+            InputStream in;
+            synchronized (this) {
+                in = backendIn;
+            }
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                writeToClient(buffer, read);
+            }
+        } catch (IOException e) {
+            logger.debug("Backend connection of '{}' failed", name, e);
+        } finally {
+            close();
+        }
+    }
+
+    private void send(String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        if (binary) {
+            byte[] frame = new byte[BinaryProtocol.HEADER_LENGTH + 1 + body.length];
+            int length = body.length + 1;
+            frame[0] = (byte) (length >>> 8);
+            frame[1] = (byte) length;
+            frame[2] = BinaryProtocol.TEXT;
+            System.arraycopy(body, 0, frame, 3, body.length);
+            writeToClient(frame, frame.length);
+        } else {
+            byte[] line = Arrays.copyOf(body, body.length + 1);
+            line[body.length] = '\n';
+            writeToClient(line, line.length);
+        }
+    }
+
+    private void writeToClient(byte[] data, int length) throws IOException {
+        synchronized (clientOut) {
+            clientOut.write(data, 0, length);
+            clientOut.flush();
+        }
+    }
+
+    // Either side closing ends both; the backend then treats the player as it would
+    // any dropped connection (and may hold the game for a RESUME)
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (backendSocket != null) {
+                    backendSocket.close();
+                }
+            } catch (IOException ignored) {
+                // Nothing left to do
+            }
+        }
+        try {
+            client.close();
+        } catch (IOException ignored) {
+            // Nothing left to do
+        }
+        Router.closed(this);
+    }
+
+    private String argument(byte[] line) {
+        int start = command.argumentStart;
+        return new String(line, start, line.length - start, StandardCharsets.UTF_8).trim();
+    }
+
+    // The next line without its '\r\n', or null at the end of the stream
+    private static byte[] readLine(InputStream in) throws IOException {
+        byte[] line = new byte[128];
+        int length = 0;
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') {
+                if (length > 0 && line[length - 1] == '\r') {
+                    length--;
+                }
+                return Arrays.copyOf(line, length);
+            }
+            if (length == MAX_LINE_LENGTH) {
+                throw new IOException("line too long");
+            }
+            if (length == line.length) {
+                line = Arrays.copyOf(line, length * 2);
+            }
+            line[length++] = (byte) b;
+        }
+        return null;
+    }
+
+    // One whole frame, header included, or null at the end of the stream
+    private static byte[] readFrame(InputStream in) throws IOException {
+        int high = in.read();
+        int low = in.read();
+        if (high < 0 || low < 0) {
+            return null;
+        }
+        int length = (high << 8) | low;
+        byte[] frame = new byte[BinaryProtocol.HEADER_LENGTH + length];
+        frame[0] = (byte) high;
+        frame[1] = (byte) low;
+        int read = BinaryProtocol.HEADER_LENGTH;
+        while (read < frame.length) {
+            int n = in.read(frame, read, frame.length - read);
+            if (n < 0) {
+                return null;
+            }
+            read += n;
+        }
+        return frame;
+    }
+
+    private static boolean startsWith(byte[] line, String prefix) {
+        if (line.length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
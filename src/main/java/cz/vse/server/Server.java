@@ -5,53 +5,75 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.*;
 import java.net.*;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
 
 
 public class Server {
-    private static final int PORT = 12345;
-    private static final ExecutorService clientThreads = Executors.newCachedThreadPool();
-    public static final Set<String> activeUsers = ConcurrentHashMap.newKeySet();
-    private static final Map<String, PrintWriter> playerOutputs = new ConcurrentHashMap<>();
+    // Several servers can share a host behind a Router, see there
+    private static final int PORT = Integer.getInteger("battleship.port", 12345);
+    private static final int EVENT_LOOPS = Runtime.getRuntime().availableProcessors();
     private static final Logger logger = LogManager.getLogger(Server.class);
+    private static final TimingWheel timers = new TimingWheel("timing-wheel", 100, 512);
+    private static EventLoop[] eventLoops;
+    private static int nextEventLoop; // accept and timer threads, only used under AdmissionControl's lock
 
-    public static void registerPlayerOutput(String username, PrintWriter out) {
-        playerOutputs.put(username, out);
-    }
-
-    public static PrintWriter getPlayerOutput(String username) {
-        return playerOutputs.get(username);
-    }
-
-    public static void removePlayerOutput(String username) {
-        playerOutputs.remove(username);
+    static TimingWheel getTimers() {
+        return timers;
     }
 
     public static void main(String[] args) {
         logger.info("Server is starting on port {}", PORT);
 
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(PORT), 1024);
+            timers.start();
+            ServerMetrics.start(timers);
+            if (!GameJournal.DIRECTORY.isEmpty()) {
+                try {
+                    GameJournal.open(Path.of(GameJournal.DIRECTORY));
+                } catch (IOException e) {
+                    logger.error("Cannot open the journal in {}, games are not journaled", GameJournal.DIRECTORY, e);
+                }
+            }
+            // Before the first connection, so every restored game can be resumed
+            if (!GameSnapshots.FILE.isEmpty()) {
+                GameSnapshots.start(Path.of(GameSnapshots.FILE));
+            }
+            timers.scheduleAtFixedRate(() -> logger.debug("Timers: {} pending, tick lag {} ms, {} expirations/s",
+                    timers.getPendingTimers(), timers.getTickLagMillis(), timers.getExpirationsPerSecond()),
+                    60 * 1000, 60 * 1000);
+
+            eventLoops = new EventLoop[EVENT_LOOPS];
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new EventLoop("event-loop-" + i);
+                eventLoops[i].start();
+            }
+            logger.info("Started {} event loops", eventLoops.length);
+            AdmissionControl.start(timers, eventLoops, Server::register);
+
             while (true) {
-                Socket clientSocket = serverSocket.accept();
-                logger.info("New client connected: {}", clientSocket.getInetAddress());
-                clientThreads.execute(new ClientHandler(clientSocket));
+                AdmissionControl.offer(serverChannel.accept());
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
-    public static void checkAndShutdown() {
-        System.out.println("Checking if server should shut down...");
 
-        if (activeUsers.isEmpty()) {
-            System.out.println("No active users remaining. Shutting down server...");
+    // Hands an admitted connection to the next event loop
+    private static void register(SocketChannel clientChannel) {
+        logger.info("New client connected: {}", clientChannel.socket().getRemoteSocketAddress());
+        eventLoops[nextEventLoop].register(clientChannel);
+        nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+    }
+
+    public static void checkAndShutdown() {
+        if (Session.count() == 0) {
             logger.info("No active users remaining. Server is shutting down.");
             System.exit(0); // Vypne server
         } else {
-            System.out.println("Active users still connected: " + activeUsers);
-            logger.info("Active users remaining: {}", activeUsers.size());
+            logger.info("Active users remaining: {}", Session.count());
         }
     }
 
@@ -0,0 +1,338 @@
+package cz.vse.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Read side of Metrics plus the gauges that are computed on demand (users, queue,
+// games). Exposed as an MXBean and as plain text on http://127.0.0.1:<port>/metrics,
+// one "name{label} value" line per sample. The port comes from
+// -Dbattleship.metrics.port (default 9100, negative disables the endpoint).
+// /players on the same port lists who is in an unfinished game, one name per line.
+public final class ServerMetrics implements ServerMetricsMXBean {
+    private static final Logger logger = LogManager.getLogger(ServerMetrics.class);
+
+    static final int HTTP_PORT = Integer.getInteger("battleship.metrics.port", 9100);
+    // Length of a move latency window in milliseconds
+    static final long LATENCY_WINDOW = Long.getLong("battleship.metrics.latencyWindow", 60 * 1000);
+
+    private ServerMetrics() {
+    }
+
+    static void start(TimingWheel timers) {
+        ServerMetrics metrics = new ServerMetrics();
+        timers.scheduleAtFixedRate(Metrics::sampleRates, 1000, 1000);
+        timers.scheduleAtFixedRate(Metrics::rotateLatencyWindows, LATENCY_WINDOW, LATENCY_WINDOW);
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(metrics, new ObjectName("cz.vse.server:type=ServerMetrics"));
+        } catch (Exception e) {
+            logger.error("Could not register the metrics MBean", e);
+        }
+        if (HTTP_PORT >= 0) {
+            try {
+                HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), HTTP_PORT), 0);
+                http.createContext("/metrics", exchange -> reply(exchange, metrics.toText()));
+                // For the Router in redirect mode, which holds these names meanwhile
+                http.createContext("/players", exchange -> reply(exchange, GameManager.describePlaying()));
+                http.start();
+                logger.info("Metrics available on http://{}:{}/metrics",
+                        http.getAddress().getHostString(), http.getAddress().getPort());
+            } catch (IOException e) {
+                logger.error("Could not start the metrics endpoint on port {}", HTTP_PORT, e);
+            }
+        }
+    }
+
+    private static void reply(HttpExchange exchange, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    @Override
+    public long getConnections() {
+        return Metrics.connectionsOpened.sum() - Metrics.connectionsClosed.sum();
+    }
+
+    @Override
+    public int getLoggedInUsers() {
+        return Session.count();
+    }
+
+    @Override
+    public Map<String, Integer> getPlayersByPhase() {
+        int[] counts = Session.countByPhase();
+        Map<String, Integer> players = new LinkedHashMap<>();
+        for (ConnectionPhase phase : ConnectionPhase.values()) {
+            players.put(phase.name(), counts[phase.ordinal()]);
+        }
+        return players;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return GameManager.getQueueDepth();
+    }
+
+    @Override
+    public Map<String, Integer> getActiveGames() {
+        int[] counts = GameManager.countGamesByState();
+        Map<String, Integer> games = new LinkedHashMap<>();
+        for (GameState state : GameState.values()) {
+            games.put(state.name(), counts[state.ordinal()]);
+        }
+        return games;
+    }
+
+    @Override
+    public Map<String, Long> getCommands() {
+        Map<String, Long> commands = new LinkedHashMap<>();
+        for (CommandType type : CommandType.values()) {
+            commands.put(type.name(), Metrics.commandCount(type));
+        }
+        return commands;
+    }
+
+    @Override
+    public Map<String, Double> getCommandsPerSecond() {
+        Map<String, Double> rates = new LinkedHashMap<>();
+        for (CommandType type : CommandType.values()) {
+            rates.put(type.name(), Metrics.commandRate(type));
+        }
+        return rates;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return Metrics.bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return Metrics.bytesOut.sum();
+    }
+
+    @Override
+    public Map<String, Long> getDisconnects() {
+        Map<String, Long> disconnects = new LinkedHashMap<>();
+        disconnects.put("EXIT", Metrics.exitDisconnects.sum());
+        disconnects.put("AFK", Metrics.afkDisconnects.sum());
+        disconnects.put("PEER_CLOSED", Metrics.peerClosedDisconnects.sum());
+        disconnects.put("WRITE_FAILED", Metrics.writeFailedDisconnects.sum());
+        disconnects.put("SLOW_CONSUMER", OutboundBudget.slowConsumerDisconnects.sum());
+        disconnects.put("RATE_LIMITED", Metrics.rateLimitDisconnects.sum());
+        return disconnects;
+    }
+
+    @Override
+    public Map<String, Long> getRateLimited() {
+        Map<String, Long> limited = new LinkedHashMap<>();
+        for (RateLimit limit : RateLimit.values()) {
+            limited.put(limit.name(), Metrics.rateLimitedCount(limit));
+        }
+        return limited;
+    }
+
+    @Override
+    public Map<String, Long> getAdmissions() {
+        Map<String, Long> admissions = new LinkedHashMap<>();
+        admissions.put("ADMITTED", AdmissionControl.admitted.sum());
+        admissions.put("QUEUED", AdmissionControl.queued.sum());
+        admissions.put("REJECTED", AdmissionControl.rejected.sum());
+        admissions.put("TIMED_OUT", AdmissionControl.timedOut.sum());
+        return admissions;
+    }
+
+    @Override
+    public int getAdmissionQueue() {
+        return AdmissionControl.getQueued();
+    }
+
+    @Override
+    public long getEventLoopLagMillis() {
+        return AdmissionControl.getLagMillis();
+    }
+
+    @Override
+    public int getSuspendedSessions() {
+        return Session.suspendedCount();
+    }
+
+    @Override
+    public Map<String, Long> getSessionOutcomes() {
+        Map<String, Long> outcomes = new LinkedHashMap<>();
+        outcomes.put("SUSPENDED", Metrics.sessionsSuspended.sum());
+        outcomes.put("RESUMED", Metrics.sessionsResumed.sum());
+        outcomes.put("EXPIRED", Metrics.sessionsExpired.sum());
+        return outcomes;
+    }
+
+    @Override
+    public long getSpectators() {
+        return Metrics.spectators.sum();
+    }
+
+    @Override
+    public long getJournalEvents() {
+        return GameJournal.events.sum();
+    }
+
+    @Override
+    public long getJournalSyncs() {
+        return GameJournal.syncs.sum();
+    }
+
+    @Override
+    public long getJournalSyncedBytes() {
+        return GameJournal.syncedBytes.sum();
+    }
+
+    @Override
+    public int getSnapshotGames() {
+        return GameSnapshots.lastGames;
+    }
+
+    @Override
+    public long getSnapshotMillis() {
+        return GameSnapshots.lastMillis;
+    }
+
+    @Override
+    public int getRestoredGames() {
+        return GameSnapshots.restored;
+    }
+
+    @Override
+    public long getLogDropped() {
+        return LogQueuePolicy.dropped.sum();
+    }
+
+    @Override
+    public String[] getTracedPlayers() {
+        return Session.tracedNames().toArray(new String[0]);
+    }
+
+    @Override
+    public boolean setTraced(String username, boolean traced) {
+        logger.info("Tracing of '{}' turned {}", username, traced ? "on" : "off");
+        return Session.trace(username, traced);
+    }
+
+    @Override
+    public long getMatchedPlayers() {
+        return Metrics.matchedPlayers.sum();
+    }
+
+    @Override
+    public double getMatchWaitP50Millis() {
+        return Metrics.lastMatchWindow().getValueAtPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getMatchWaitP99Millis() {
+        return Metrics.lastMatchWindow().getValueAtPercentile(99) / 1e6;
+    }
+
+    @Override
+    public long getMoves() {
+        return Metrics.moveCount();
+    }
+
+    @Override
+    public double getMoveLatencyP50Micros() {
+        return Metrics.lastMoveWindow().getValueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getMoveLatencyP99Micros() {
+        return Metrics.lastMoveWindow().getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getMoveLatencyP999Micros() {
+        return Metrics.lastMoveWindow().getValueAtPercentile(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getMoveLatencyMaxMicros() {
+        return Metrics.lastMoveWindow().getMax() / 1000.0;
+    }
+
+    String toText() {
+        StringBuilder sb = new StringBuilder(2048);
+        line(sb, "battleship_connections", null, getConnections());
+        line(sb, "battleship_logged_in_users", null, getLoggedInUsers());
+        getPlayersByPhase().forEach((phase, count) -> line(sb, "battleship_players", "phase=\"" + phase + "\"", count));
+        line(sb, "battleship_queue_depth", null, getQueueDepth());
+        getActiveGames().forEach((state, count) -> line(sb, "battleship_games", "state=\"" + state + "\"", count));
+        getCommands().forEach((type, count) -> line(sb, "battleship_commands_total", "type=\"" + type + "\"", count));
+        getCommandsPerSecond().forEach((type, rate) ->
+                line(sb, "battleship_commands_per_second", "type=\"" + type + "\"", rate));
+        line(sb, "battleship_bytes_in_total", null, getBytesIn());
+        line(sb, "battleship_bytes_out_total", null, getBytesOut());
+        getDisconnects().forEach((reason, count) ->
+                line(sb, "battleship_disconnects_total", "reason=\"" + reason + "\"", count));
+        getRateLimited().forEach((limit, count) ->
+                line(sb, "battleship_rate_limited_total", "class=\"" + limit + "\"", count));
+        getAdmissions().forEach((outcome, count) ->
+                line(sb, "battleship_admissions_total", "outcome=\"" + outcome + "\"", count));
+        line(sb, "battleship_admission_queue", null, getAdmissionQueue());
+        line(sb, "battleship_event_loop_lag_millis", null, getEventLoopLagMillis());
+        line(sb, "battleship_suspended_sessions", null, getSuspendedSessions());
+        getSessionOutcomes().forEach((outcome, count) ->
+                line(sb, "battleship_sessions_total", "outcome=\"" + outcome + "\"", count));
+        line(sb, "battleship_spectators", null, getSpectators());
+        line(sb, "battleship_spectator_buffers_total", null, Metrics.spectatorBuffers.sum());
+        line(sb, "battleship_journal_events_total", null, getJournalEvents());
+        line(sb, "battleship_journal_syncs_total", null, getJournalSyncs());
+        line(sb, "battleship_journal_synced_bytes_total", null, getJournalSyncedBytes());
+        line(sb, "battleship_snapshot_games", null, getSnapshotGames());
+        line(sb, "battleship_snapshot_millis", null, getSnapshotMillis());
+        line(sb, "battleship_restored_games", null, getRestoredGames());
+        line(sb, "battleship_log_dropped_total", null, getLogDropped());
+        line(sb, "battleship_traced_players", null, Session.tracedNames().size());
+        line(sb, "battleship_matched_players_total", null, getMatchedPlayers());
+        line(sb, "battleship_match_wait_millis", "quantile=\"0.5\"", getMatchWaitP50Millis());
+        line(sb, "battleship_match_wait_millis", "quantile=\"0.99\"", getMatchWaitP99Millis());
+        line(sb, "battleship_moves_total", null, getMoves());
+        line(sb, "battleship_move_latency_micros", "quantile=\"0.5\"", getMoveLatencyP50Micros());
+        line(sb, "battleship_move_latency_micros", "quantile=\"0.99\"", getMoveLatencyP99Micros());
+        line(sb, "battleship_move_latency_micros", "quantile=\"0.999\"", getMoveLatencyP999Micros());
+        line(sb, "battleship_move_latency_micros", "quantile=\"1\"", getMoveLatencyMaxMicros());
+        line(sb, "battleship_outbound_queued_bytes", null, OutboundBudget.getGlobalQueued());
+        line(sb, "battleship_outbound_dropped_pings_total", null, OutboundBudget.droppedPings.sum());
+        line(sb, "battleship_write_calls_total", null, EventLoop.writeCalls.sum());
+        line(sb, "battleship_flush_batches_total", null, EventLoop.flushBatches.sum());
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, String labels, Number value) {
+        sb.append(name);
+        if (labels != null) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ');
+        if (value instanceof Double d) {
+            sb.append(String.format(Locale.ROOT, "%.3f", d));
+        } else {
+            sb.append(value);
+        }
+        sb.append('\n');
+    }
+}
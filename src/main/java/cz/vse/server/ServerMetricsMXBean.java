@@ -0,0 +1,90 @@
+package cz.vse.server;
+
+import java.util.Map;
+
+// Live server state over JMX, registered as cz.vse.server:type=ServerMetrics.
+// Maps are keyed by enum name (CommandType, GameState, disconnect reason).
+public interface ServerMetricsMXBean {
+    long getConnections();
+
+    int getLoggedInUsers();
+
+    // Logged-in players by ConnectionPhase, without bots
+    Map<String, Integer> getPlayersByPhase();
+
+    int getQueueDepth();
+
+    Map<String, Integer> getActiveGames();
+
+    Map<String, Long> getCommands();
+
+    Map<String, Double> getCommandsPerSecond();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    Map<String, Long> getDisconnects();
+
+    // Commands dropped by the per-connection rate limits, by RateLimit
+    Map<String, Long> getRateLimited();
+
+    // New connections by AdmissionControl outcome (QUEUED ones are ADMITTED too)
+    Map<String, Long> getAdmissions();
+
+    int getAdmissionQueue();
+
+    // Worst event loop lag seen by the last probe
+    long getEventLoopLagMillis();
+
+    // Games held for players whose connection failed, waiting for RESUME
+    int getSuspendedSessions();
+
+    // Suspended sessions by what became of them (SUSPENDED counts all of them)
+    Map<String, Long> getSessionOutcomes();
+
+    // Connections currently watching a game
+    long getSpectators();
+
+    // Events appended to the GameJournal, and the group commits that made them durable
+    long getJournalEvents();
+
+    long getJournalSyncs();
+
+    long getJournalSyncedBytes();
+
+    // Games in the last GameSnapshots snapshot and how long it took; games restored at startup
+    int getSnapshotGames();
+
+    long getSnapshotMillis();
+
+    int getRestoredGames();
+
+    // INFO and DEBUG events dropped because the asynchronous loggers were full
+    long getLogDropped();
+
+    // Players whose placements and shots are logged at INFO rather than DEBUG
+    String[] getTracedPlayers();
+
+    // Turns that on or off from the player's next command, or for when they log in;
+    // true if they are logged in now
+    boolean setTraced(String username, boolean traced);
+
+    // Players paired by the Matchmaker, and how long they waited over the last window
+    long getMatchedPlayers();
+
+    double getMatchWaitP50Millis();
+
+    double getMatchWaitP99Millis();
+
+    long getMoves();
+
+    // Over the last complete latency window
+    double getMoveLatencyP50Micros();
+
+    double getMoveLatencyP99Micros();
+
+    double getMoveLatencyP999Micros();
+
+    double getMoveLatencyMaxMicros();
+}
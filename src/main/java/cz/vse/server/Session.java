@@ -0,0 +1,300 @@
+package cz.vse.server;
+
+import org.apache.logging.log4j.Level;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Everything the server knows about a logged-in player (or bot), in one record: the
+// claimed name, a compact int id, where their output goes, their game and the phase
+// of their connection. claim() and release() are the only ways in and out of the
+// registry and are atomic, so a name is held by exactly one session at a time. Game
+// code identifies players by id and reaches the record in one array read.
+//
+// A session can outlive one connection. LOGIN hands out a random token; when the
+// connection fails in the middle of a game the session is suspended: the name and
+// the game are held for GRACE_PERIOD and "RESUME token" on a new connection takes
+// them over. When the period runs out the player forfeits as if they had left.
+// Sessions of games restored by GameSnapshots start out suspended.
+final class Session {
+    // Milliseconds a game is held for a dropped player; 0 forfeits immediately
+    static final long GRACE_PERIOD = Long.getLong("battleship.resume.gracePeriod", 30 * 1000);
+
+    private static final SecureRandom random = new SecureRandom();
+    private static final Map<String, Session> byName = new ConcurrentHashMap<>();
+    private static final Map<String, Session> byToken = new ConcurrentHashMap<>();
+    // Replaced as a whole when it grows; ids of released sessions are handed out again
+    private static volatile AtomicReferenceArray<Session> byId = new AtomicReferenceArray<>(1024);
+    // Guarded by byName, like every change to the registry
+    private static int[] freeIds = new int[64];
+    private static int freeCount;
+    private static int nextId;
+    // Players whose per-move events are logged at INFO rather than DEBUG, by name so
+    // a trace can be set up before they log in; battleship.log.traced lists the first ones
+    private static final Set<String> tracedNames = ConcurrentHashMap.newKeySet();
+
+    static {
+        for (String name : System.getProperty("battleship.log.traced", "").split(",")) {
+            if (!name.isBlank()) {
+                tracedNames.add(name.trim());
+            }
+        }
+    }
+
+    private final int id;
+    private final String username;
+    private volatile String token; // null for bots
+    private volatile boolean binary;
+    private volatile PlayerOutput output;
+    // The game GameManager has this player in, null once it has ended for them
+    private volatile BattleshipGame game;
+    // As last set by the player's connection
+    private volatile ConnectionPhase phase = ConnectionPhase.READY;
+    private volatile boolean traced;
+    // Set while waiting for an opponent, see GameManager
+    private volatile Matchmaker.Ticket ticket;
+    private volatile CompletableFuture<BattleshipGame> match;
+    // Guarded by this
+    private BattleshipGame held;
+    private TimingWheel.Timeout expiry;
+
+    private Session(int id, String username) {
+        this.id = id;
+        this.username = username;
+    }
+
+    // The new session, or null if someone holds the name
+    static Session claim(String username) {
+        synchronized (byName) {
+            if (byName.containsKey(username)) {
+                return null;
+            }
+            Session session = new Session(allocateId(), username);
+            session.traced = tracedNames.contains(username);
+            byName.put(username, session);
+            byId.set(session.id, session);
+            return session;
+        }
+    }
+
+    private static int allocateId() {
+        if (freeCount > 0) {
+            return freeIds[--freeCount];
+        }
+        int id = nextId++;
+        AtomicReferenceArray<Session> table = byId;
+        if (id == table.length()) {
+            AtomicReferenceArray<Session> grown = new AtomicReferenceArray<>(table.length() * 2);
+            for (int i = 0; i < table.length(); i++) {
+                grown.set(i, table.get(i));
+            }
+            byId = grown;
+        }
+        return id;
+    }
+
+    // Frees the name, the id and the token; the player must be out of GameManager
+    void release() {
+        synchronized (byName) {
+            if (!byName.remove(username, this)) {
+                return;
+            }
+            byId.set(id, null);
+            if (freeCount == freeIds.length) {
+                freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+            }
+            freeIds[freeCount++] = id;
+        }
+        String current = token;
+        if (current != null) {
+            byToken.remove(current, this);
+        }
+    }
+
+    // A token for RESUME, handed out once at LOGIN
+    String openToken(boolean binary) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String token = HexFormat.of().formatHex(bytes);
+        restoreToken(token, binary);
+        return token;
+    }
+
+    // The token the player had before a restart, see GameSnapshots
+    void restoreToken(String token, boolean binary) {
+        this.binary = binary;
+        this.token = token;
+        byToken.put(token, this);
+    }
+
+    static Session forName(String username) {
+        return byName.get(username);
+    }
+
+    // Null for unknown or released sessions
+    static Session forToken(String token) {
+        return byToken.get(token);
+    }
+
+    // One array read; the game and output of a player are then one field away
+    static Session forId(int id) {
+        AtomicReferenceArray<Session> table = byId;
+        return id >= 0 && id < table.length() ? table.get(id) : null;
+    }
+
+    // From any thread, takes effect with the player's next command; true if they are logged in
+    static boolean trace(String username, boolean traced) {
+        if (traced) {
+            tracedNames.add(username);
+        } else {
+            tracedNames.remove(username);
+        }
+        Session session = byName.get(username);
+        if (session != null) {
+            session.traced = traced;
+        }
+        return session != null;
+    }
+
+    static Set<String> tracedNames() {
+        return Collections.unmodifiableSet(tracedNames);
+    }
+
+    static int count() {
+        return byName.size();
+    }
+
+    // Connected players by ConnectionPhase ordinal; bots have no connection and no token
+    static int[] countByPhase() {
+        int[] counts = new int[ConnectionPhase.values().length];
+        for (Session session : byName.values()) {
+            if (session.token != null) {
+                counts[session.phase.ordinal()]++;
+            }
+        }
+        return counts;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    // Bots are the only sessions that never get a token
+    boolean isBot() {
+        return token == null;
+    }
+
+    boolean isBinary() {
+        return binary;
+    }
+
+    // Null while the player has no connection (suspended, or between LOGIN steps)
+    PlayerOutput getOutput() {
+        return output;
+    }
+
+    void setOutput(PlayerOutput output) {
+        this.output = output;
+    }
+
+    BattleshipGame getGame() {
+        return game;
+    }
+
+    void setGame(BattleshipGame game) {
+        this.game = game;
+    }
+
+    Matchmaker.Ticket getTicket() {
+        return ticket;
+    }
+
+    void setTicket(Matchmaker.Ticket ticket) {
+        this.ticket = ticket;
+    }
+
+    CompletableFuture<BattleshipGame> getMatch() {
+        return match;
+    }
+
+    void setMatch(CompletableFuture<BattleshipGame> match) {
+        this.match = match;
+    }
+
+    boolean isTraced() {
+        return traced;
+    }
+
+    // Level of the player's per-command events: DEBUG, or INFO while traced. Callers
+    // check logger.isEnabled first and box numbers with Unbox, so a command that is
+    // not logged costs one level check and allocates nothing.
+    Level moveLevel() {
+        return traced ? Level.INFO : Level.DEBUG;
+    }
+
+    ConnectionPhase getPhase() {
+        return phase;
+    }
+
+    void setPhase(ConnectionPhase phase) {
+        this.phase = phase;
+    }
+
+    // Holds the game until resume() or, after GRACE_PERIOD, runs onExpiry
+    synchronized void suspend(BattleshipGame game, Runnable onExpiry) {
+        held = game;
+        expiry = Server.getTimers().schedule(onExpiry, GRACE_PERIOD);
+    }
+
+    // The held game, or null if the session is not suspended (still connected, resumed
+    // by someone else or expired). Only one caller gets the game.
+    synchronized BattleshipGame resume() {
+        BattleshipGame game = held;
+        if (game != null) {
+            held = null;
+            expiry.cancel();
+        }
+        return game;
+    }
+
+    // True if the grace period ran out before anyone resumed
+    synchronized boolean expire() {
+        if (held == null) {
+            return false;
+        }
+        held = null;
+        return true;
+    }
+
+    static int suspendedCount() {
+        int count = 0;
+        for (Session session : byToken.values()) {
+            synchronized (session) {
+                if (session.held != null) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return username;
+    }
+}
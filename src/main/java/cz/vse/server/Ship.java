@@ -1,47 +1,68 @@
 package cz.vse.server;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 
+// Part of the I/O-free engine, so it logs nothing; BattleshipGame logs for it
 public class Ship {
-    private static final Logger logger = LogManager.getLogger(Ship.class);
-
-    private Set<String> positions; // Souřadnice lodi
-    private Set<String> hits; // Zásahy
-    private String shipType; // Typ lodi
+    private final int[] cells; // Souřadnice lodi jako čísla polí (GameMode.index), vzestupně
+    private int hits; // Zásahy, bit i = cells[i]
+    private final ShipType shipType; // Typ lodi
+    private final GameMode mode;
+    private String coordinates; // Souřadnice ve tvaru protokolu, např. "1,2 2,2", až na požádání
 
-    public Ship(String shipType,Set<String> positions) {
+    // 'cells' are distinct board cells of the given mode, at most 31 of them
+    public Ship(ShipType shipType, int[] cells, GameMode mode) {
         this.shipType = shipType;
-        this.positions = new HashSet<>(positions);
-        this.hits = new HashSet<>();
-        logger.info("New ship created at positions: {}", positions);
+        this.cells = cells.clone();
+        Arrays.sort(this.cells);
+        this.mode = mode;
     }
 
     public boolean isSunk() {
-        boolean sunk = hits.containsAll(positions);
-        if (sunk) {
-            logger.info("Ship at positions '{}' has been sunk!", positions);
-        }
-        return sunk;
+        return hits == (1 << cells.length) - 1;
     }
-    public String getType() {
+
+    public ShipType getType() {
         return shipType;
     }
 
-    public boolean registerHit(String position) {
-        if (positions.contains(position)) {
-            hits.add(position);
-            logger.info("Ship hit at position '{}'", position);
+    public boolean occupies(int index) {
+        return slot(index) >= 0;
+    }
+
+    public boolean registerHit(int index) {
+        int slot = slot(index);
+        if (slot >= 0) {
+            hits |= 1 << slot;
             return true;
         }
-        logger.info("Shot at '{}' missed", position);
         return false;
     }
 
-    public Set<String> getPositions() {
-        return positions;
+    // Board cells in ascending order; callers must not modify the array
+    public int[] getCells() {
+        return cells;
+    }
+
+    public String getCoordinates() {
+        if (coordinates == null) {
+            StringBuilder sb = new StringBuilder();
+            for (int cell : cells) {
+                if (sb.length() > 0) sb.append(' ');
+                sb.append(mode.coordinate(cell));
+            }
+            coordinates = sb.toString();
+        }
+        return coordinates;
+    }
+
+    // Ships have a handful of cells, a linear scan beats anything cleverer
+    private int slot(int index) {
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] == index) {
+                return i;
+            }
+        }
+        return -1;
     }
 }
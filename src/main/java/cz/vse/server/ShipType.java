@@ -0,0 +1,67 @@
+package cz.vse.server;
+
+import java.nio.charset.StandardCharsets;
+
+public enum ShipType {
+    // Standard shape as (x, y) offsets. Placement only checks the length, but the
+    // built-in bot places and expects these shapes (rotated or mirrored).
+    BATTLESHIP("Battleship", 0, 0, 1, 0, 2, 0, 3, 0),
+    DESTROYER("Destroyer", 0, 0, 1, 0, 2, 0),
+    PATROL_BOAT("PatrolBoat", 0, 0, 1, 0),
+    L_SHIP("L-Ship", 0, 0, 1, 0, 1, 1),
+    T_SHIP("T-Ship", 0, 0, 0, 1, 0, 2, 1, 1);
+
+    private static final ShipType[] VALUES = values();
+
+    private final String displayName;
+    private final int length;
+    private final int[] shape;
+    private final byte[] lowerCaseName;
+
+    ShipType(String displayName, int... shape) {
+        this.displayName = displayName;
+        this.length = shape.length / 2;
+        this.shape = shape;
+        this.lowerCaseName = displayName.toLowerCase().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    // x0, y0, x1, y1, ... of the standard shape; callers must not modify it
+    int[] getShape() {
+        return shape;
+    }
+
+    // Case-insensitive lookup of buf[from, to) without creating a String, null when unknown
+    public static ShipType match(byte[] buf, int from, int to) {
+        for (ShipType type : VALUES) {
+            byte[] name = type.lowerCaseName;
+            if (name.length != to - from) {
+                continue;
+            }
+            int i = 0;
+            while (i < name.length && toLower(buf[from + i]) == name[i]) {
+                i++;
+            }
+            if (i == name.length) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    private static byte toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
@@ -0,0 +1,11 @@
+package cz.vse.server;
+
+// What happens to a connection whose outbound queue grows past the soft limit
+public enum SlowConsumerPolicy {
+    // Skip keep-alive PINGs until the client catches up
+    DROP_PINGS,
+    // Skip PINGs and merge queued lines into one buffer to cut per-message overhead
+    COALESCE,
+    // Close the connection straight away
+    DISCONNECT
+}
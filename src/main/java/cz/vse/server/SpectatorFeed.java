@@ -0,0 +1,158 @@
+package cz.vse.server;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Public side of one game for WATCH connections. While a shard task runs, the engine
+// appends one "WATCH: ..." line per event; publish() encodes them once into a
+// read-only buffer at the end of the task and every spectator is handed a duplicate
+// of it, so the bytes are shared and nothing is formatted per spectator. The fan-out
+// itself runs as one task per event loop, never on the shard, and enqueue() only
+// queues, so a slow spectator hits its own outbound limit instead of the players.
+//
+// Only what both players already know is published: shots, sunk ships, turns and
+// the result. Placements and unhit ship cells never leave the engine.
+//
+//   WATCH: GAME alice bob IN_PROGRESS     (first line after subscribing)
+//   WATCH: STARTED alice                  (player to move first)
+//   WATCH: SHOT alice 3,4 HIT             (alice fired at bob's board)
+//   WATCH: SUNK alice 3,4 3,5
+//   WATCH: TURN bob
+//   WATCH: FORFEIT bob
+//   WATCH: OVER alice                     (winner)
+final class SpectatorFeed {
+    // Spectators by event loop, each with the sequence number of the first buffer it
+    // may receive. Buffers published before its snapshot was taken are still being
+    // delivered and already contained in the snapshot.
+    private final Map<EventLoop, Map<ClientHandler, Long>> watchers = new ConcurrentHashMap<>();
+    private final AtomicInteger watcherCount = new AtomicInteger();
+    // Shard only
+    private final StringBuilder pending = new StringBuilder(128);
+    private long sequence;
+
+    // Cheap check so the engine formats nothing for games nobody watches
+    boolean isWatched() {
+        return watcherCount.get() > 0;
+    }
+
+    // Shard only. The snapshot goes out on the spectator's event loop ahead of any
+    // event published after it.
+    void add(ClientHandler spectator, String snapshot) {
+        EventLoop loop = spectator.getEventLoop();
+        if (watchers.computeIfAbsent(loop, l -> new ConcurrentHashMap<>()).put(spectator, sequence) == null) {
+            watcherCount.incrementAndGet();
+            Metrics.spectators.increment();
+        }
+        ByteBuffer buffer = encode(snapshot).asReadOnlyBuffer();
+        loop.execute(() -> spectator.enqueue(buffer));
+    }
+
+    // Shard only, so it always follows the add() it undoes
+    void remove(ClientHandler spectator) {
+        Map<ClientHandler, Long> group = watchers.get(spectator.getEventLoop());
+        if (group != null && group.remove(spectator) != null) {
+            watcherCount.decrementAndGet();
+            Metrics.spectators.decrement();
+        }
+    }
+
+    // --- EVENTS (shard only, dropped when nobody watches) ---
+
+    void started(String firstPlayer) {
+        event("STARTED ", firstPlayer, null);
+    }
+
+    void shot(String shooter, String coordinate, boolean hit) {
+        if (isWatched()) {
+            pending.append("WATCH: SHOT ").append(shooter).append(' ').append(coordinate)
+                    .append(hit ? " HIT\n" : " MISS\n");
+        }
+    }
+
+    void sunk(String shooter, Ship ship) {
+        event("SUNK ", shooter, ship.getCoordinates());
+    }
+
+    void turn(String player) {
+        event("TURN ", player, null);
+    }
+
+    void forfeit(String player) {
+        event("FORFEIT ", player, null);
+    }
+
+    void over(String winner) {
+        event("OVER ", winner, null);
+    }
+
+    private void event(String type, String player, String detail) {
+        if (!isWatched()) {
+            return;
+        }
+        pending.append("WATCH: ").append(type).append(player);
+        if (detail != null) {
+            pending.append(' ').append(detail);
+        }
+        pending.append('\n');
+    }
+
+    // Shard only, at the end of every game task
+    void publish() {
+        if (pending.length() == 0) {
+            return;
+        }
+        ByteBuffer buffer = encode(pending).asReadOnlyBuffer();
+        pending.setLength(0);
+        long seq = sequence++;
+        for (Map.Entry<EventLoop, Map<ClientHandler, Long>> entry : watchers.entrySet()) {
+            Map<ClientHandler, Long> group = entry.getValue();
+            if (!group.isEmpty()) {
+                entry.getKey().execute(() -> deliver(group, buffer, seq));
+            }
+        }
+        Metrics.spectatorBuffers.increment();
+    }
+
+    // Event loop: every spectator gets its own position over the same bytes
+    private static void deliver(Map<ClientHandler, Long> group, ByteBuffer buffer, long seq) {
+        for (Map.Entry<ClientHandler, Long> entry : group.entrySet()) {
+            if (seq >= entry.getValue()) {
+                entry.getKey().enqueue(buffer.duplicate());
+            }
+        }
+    }
+
+    private static ByteBuffer encode(CharSequence text) {
+        return StandardCharsets.UTF_8.encode(CharBuffer.wrap(text));
+    }
+
+    // Text of the public state, used as the first thing a new spectator receives
+    static String snapshot(String player1, String player2, GameState state, String currentTurn, String winner,
+                           GameMode mode, Board board1, Board board2) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("WATCH: GAME ").append(player1).append(' ').append(player2).append(' ').append(state).append('\n');
+        appendShots(sb, player1, mode, board2);
+        appendShots(sb, player2, mode, board1);
+        if (winner != null) {
+            sb.append("WATCH: OVER ").append(winner).append('\n');
+        } else if (state == GameState.IN_PROGRESS) {
+            sb.append("WATCH: TURN ").append(currentTurn).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // Shots 'shooter' fired at 'target', grouped by area; the firing order is not kept
+    private static void appendShots(StringBuilder sb, String shooter, GameMode mode, Board target) {
+        target.getShots().forEach(cell -> sb.append("WATCH: SHOT ").append(shooter).append(' ')
+                .append(mode.coordinate(cell)).append(target.isOccupied(cell) ? " HIT" : " MISS").append('\n'));
+        for (Ship ship : target.getFleet()) {
+            if (ship.isSunk()) {
+                sb.append("WATCH: SUNK ").append(shooter).append(' ').append(ship.getCoordinates()).append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package cz.vse.server;
+
+import java.io.PrintWriter;
+
+// The original line based protocol. A line is printed in several pieces and the
+// shard and the player's event loop both write here, so every method holds the lock
+// for its whole line, like BinaryOutput does for its frames.
+class TextOutput implements PlayerOutput {
+    private final PrintWriter out;
+
+    TextOutput(PrintWriter out) {
+        this.out = out;
+    }
+
+    @Override
+    public synchronized void text(String line) {
+        out.println(line);
+    }
+
+    @Override
+    public synchronized void ok() {
+        out.println("OK");
+    }
+
+    @Override
+    public synchronized void ping() {
+        out.println("PING");
+    }
+
+    @Override
+    public synchronized void opponentFound(String opponent) {
+        out.println("OPPONENT: " + opponent);
+    }
+
+    @Override
+    public synchronized void shipPlaced(ShipType type, int[] cells, int firstCell, int cellCount) {
+        out.print("SUCCESS: PLACE: ");
+        out.print(type.getDisplayName());
+        for (int i = firstCell; i < firstCell + cellCount; i++) {
+            out.print(' ');
+            out.print(cells[2 * i]);
+            out.print(',');
+            out.print(cells[2 * i + 1]);
+        }
+        out.println();
+    }
+
+    @Override
+    public synchronized void gameStarted(boolean yourTurn) {
+        out.println(yourTurn ? "INFO: Game Started: Your turn." : "INFO: Game Started: Opponent's turn");
+    }
+
+    @Override
+    public synchronized void shot(int x, int y, boolean hit, boolean byOpponent) {
+        if (byOpponent) {
+            out.print(hit ? "SUCCESS: Opponent HIT: " : "SUCCESS: Opponent MISS: ");
+        } else {
+            out.print(hit ? "SUCCESS: HIT: " : "SUCCESS: MISS: ");
+        }
+        out.print(x);
+        out.print(',');
+        out.println(y);
+    }
+
+    @Override
+    public synchronized void sunk(Ship ship, boolean byOpponent) {
+        out.print(byOpponent ? "SUNK: " : "SUCCESS: SUNK: ");
+        out.println(ship.getCoordinates());
+    }
+
+    @Override
+    public synchronized void turn(boolean yours, boolean again) {
+        if (yours) {
+            out.println(again ? "SUCCESS: Your turn again" : "SUCCESS: Your turn");
+        } else {
+            out.println(again ? "SUCCESS: Opponent's turn again" : "SUCCESS: Opponent's turn");
+        }
+    }
+
+    @Override
+    public synchronized void gameOver(boolean won) {
+        out.println(won ? "INFO: You win! All enemy ships have been sunk."
+                : "INFO: You lose! All your ships have been sunk.");
+    }
+
+    @Override
+    public synchronized void flush() {
+        out.flush();
+    }
+}
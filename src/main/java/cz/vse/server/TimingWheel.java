@@ -0,0 +1,238 @@
+package cz.vse.server;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Server-wide hashed timing wheel. One thread advances the wheel every tick and
+// runs expired timeouts; tasks are expected to be short and usually just hand
+// work over to an EventLoop.
+//
+// Deadlines are re-armed lazily: touch() only overwrites the deadline, and when
+// the wheel reaches the timeout's bucket it is moved to the bucket of its new
+// deadline instead of expiring. Resetting an AFK timer is therefore a single
+// volatile write with no allocation and no contention with the wheel thread.
+// A one-shot timeout that already expired is handed back to the wheel by touch(),
+// so it fires again after the new delay.
+class TimingWheel implements Runnable {
+    private static final Logger logger = LogManager.getLogger(TimingWheel.class);
+
+    static final class Timeout {
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long period;
+        private volatile long deadline;
+        private volatile boolean cancelled;
+        // In the added queue or a bucket; cleared when a one-shot timeout expires
+        private final AtomicBoolean scheduled = new AtomicBoolean(true);
+        // Intrusive bucket list, owned by the wheel thread
+        private Timeout prev;
+        private Timeout next;
+        private int bucket = -1;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadline, long period) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        // Pushes the deadline to now + delay, and re-arms the timeout if it already expired
+        void touch(long delayMillis) {
+            deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            if (!scheduled.get() && !cancelled && scheduled.compareAndSet(false, true)) {
+                wheel.added.add(this);
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final Thread thread;
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final long startTime;
+    private volatile boolean running = true;
+    private long tick;
+
+    // --- STATS (written by the wheel thread only) ---
+    private volatile int pending;
+    private volatile long tickLagNanos;
+    private volatile double expirationsPerSecond;
+    private long expirationsInWindow;
+    private long windowStart;
+
+    TimingWheel(String name, long tickMillis, int wheelSize) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.buckets = new Timeout[wheelSize];
+        this.mask = wheelSize - 1;
+        this.startTime = System.nanoTime();
+        this.windowStart = startTime;
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void shutdown() {
+        running = false;
+        thread.interrupt();
+    }
+
+    Timeout schedule(Runnable task, long delayMillis) {
+        return schedule(task, delayMillis, 0);
+    }
+
+    Timeout scheduleAtFixedRate(Runnable task, long delayMillis, long periodMillis) {
+        return schedule(task, delayMillis, TimeUnit.MILLISECONDS.toNanos(periodMillis));
+    }
+
+    private Timeout schedule(Runnable task, long delayMillis, long periodNanos) {
+        Timeout timeout = new Timeout(this, task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis), periodNanos);
+        added.add(timeout);
+        return timeout;
+    }
+
+    int getPendingTimers() {
+        return pending;
+    }
+
+    long getTickLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(tickLagNanos);
+    }
+
+    double getExpirationsPerSecond() {
+        return expirationsPerSecond;
+    }
+
+    @Override
+    public void run() {
+        logger.info("Timing wheel '{}' started with {} buckets of {} ms", thread.getName(),
+                buckets.length, TimeUnit.NANOSECONDS.toMillis(tickNanos));
+        while (running) {
+            long tickDeadline = startTime + (tick + 1) * tickNanos;
+            long sleep = tickDeadline - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        break;
+                    }
+                    continue;
+                }
+            }
+            long now = System.nanoTime();
+            tickLagNanos = now - tickDeadline;
+
+            transferAdded();
+            expireBucket((int) (tick & mask), now);
+            tick++;
+            updateRate(now);
+        }
+    }
+
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (!timeout.cancelled) {
+                insert(timeout);
+                pending++;
+            }
+        }
+    }
+
+    private void expireBucket(int index, long now) {
+        Timeout timeout = buckets[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.cancelled) {
+                unlink(timeout);
+                pending--;
+            } else if (timeout.deadline - now > 0) {
+                // Touched or more than one rotation away
+                unlink(timeout);
+                insert(timeout);
+            } else {
+                unlink(timeout);
+                if (timeout.period > 0) {
+                    expire(timeout);
+                    if (timeout.cancelled) {
+                        pending--;
+                    } else {
+                        timeout.deadline = now + timeout.period;
+                        insert(timeout);
+                    }
+                } else {
+                    // Before the task runs, so a touch() from here on arms it again
+                    timeout.scheduled.set(false);
+                    pending--;
+                    expire(timeout);
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    private void expire(Timeout timeout) {
+        expirationsInWindow++;
+        try {
+            timeout.task.run();
+        } catch (RuntimeException e) {
+            logger.error("Timer task failed", e);
+        }
+    }
+
+    private void insert(Timeout timeout) {
+        long ticks = (timeout.deadline - startTime) / tickNanos;
+        // Never schedule into a bucket the wheel has already passed in this rotation
+        int index = (int) (Math.max(ticks, tick + 1) & mask);
+        timeout.bucket = index;
+        timeout.prev = null;
+        timeout.next = buckets[index];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        buckets[index] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+    }
+
+    private void updateRate(long now) {
+        long elapsed = now - windowStart;
+        if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+            expirationsPerSecond = expirationsInWindow * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            expirationsInWindow = 0;
+            windowStart = now;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package cz.vse.server;
+
+// Holds up to 'capacity' tokens and refills at a fixed rate; every command takes one.
+// A full bucket lets a short burst through, the refill rate caps the long-run average.
+// Not thread-safe: one per connection and RateLimit, used on its event loop only.
+final class TokenBucket {
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long refilled;
+
+    TokenBucket(double perSecond, double capacity) {
+        this.tokensPerNano = perSecond / 1e9;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.refilled = System.nanoTime();
+    }
+
+    boolean tryTake(long now) {
+        tokens = Math.min(capacity, tokens + (now - refilled) * tokensPerNano);
+        refilled = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
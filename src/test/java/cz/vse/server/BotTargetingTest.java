@@ -0,0 +1,113 @@
+package cz.vse.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The bot plays against fleets from its own randomFleet, checked by a GameEngine
+class BotTargetingTest {
+    private static final GameMode LARGE = GameMode.forName("large");
+
+    // The fleet as the ships of the mode, in randomFleet's order
+    private static List<Ship> ships(GameMode mode, List<int[]> fleet) {
+        List<Ship> ships = new ArrayList<>();
+        int s = 0;
+        for (ShipType type : ShipType.values()) {
+            for (int n = 0; n < mode.getCount(type); n++) {
+                int[] xy = fleet.get(s++);
+                int[] cells = new int[xy.length / 2];
+                for (int i = 0; i < cells.length; i++) {
+                    cells[i] = mode.index(xy[2 * i], xy[2 * i + 1]);
+                }
+                ships.add(new Ship(type, cells, mode));
+            }
+        }
+        return ships;
+    }
+
+    // Fires until the fleet is sunk or 'limit' shots; returns the shots in order
+    private static List<Integer> play(BotTargeting bot, GameMode mode, List<Ship> fleet, int limit) {
+        Ship[] byCell = new Ship[mode.getSize() * mode.getSize()];
+        for (Ship ship : fleet) {
+            for (int cell : ship.getCells()) {
+                byCell[cell] = ship;
+            }
+        }
+        List<Integer> shots = new ArrayList<>();
+        int afloat = fleet.size();
+        while (afloat > 0 && shots.size() < limit) {
+            int cell = bot.nextShot();
+            shots.add(cell);
+            Ship ship = byCell[cell];
+            bot.recordShot(cell, ship != null && ship.registerHit(cell));
+            if (ship != null && ship.isSunk()) {
+                byCell[cell] = null;
+                bot.recordSunk(ship);
+                afloat--;
+            }
+        }
+        return shots;
+    }
+
+    @Test
+    void randomFleetIsAcceptedByTheEngine() {
+        for (GameMode mode : new GameMode[]{GameMode.CLASSIC, LARGE}) {
+            Random random = new Random(3);
+            for (int game = 0; game < 20; game++) {
+                List<int[]> fleet = BotTargeting.randomFleet(mode, random);
+                assertNotNull(fleet);
+                assertEquals(mode.getFleetSize(), fleet.size());
+                ShipType[] types = new ShipType[fleet.size()];
+                int[] shipStart = new int[fleet.size() + 1];
+                int s = 0;
+                for (ShipType type : ShipType.values()) {
+                    for (int n = 0; n < mode.getCount(type); n++, s++) {
+                        types[s] = type;
+                        shipStart[s + 1] = shipStart[s] + fleet.get(s).length / 2;
+                    }
+                }
+                int[] cells = new int[shipStart[fleet.size()] * 2];
+                for (s = 0; s < fleet.size(); s++) {
+                    System.arraycopy(fleet.get(s), 0, cells, shipStart[s] * 2, fleet.get(s).length);
+                }
+                assertEquals(GameEngine.Placement.PLACED,
+                        new GameEngine(mode).placeFleet(0, types, shipStart, types.length, cells));
+            }
+        }
+    }
+
+    @Test
+    void sinksAClassicFleetWithoutRepeatingAShot() {
+        Random random = new Random(5);
+        for (int game = 0; game < 20; game++) {
+            List<Ship> fleet = ships(GameMode.CLASSIC, BotTargeting.randomFleet(GameMode.CLASSIC, random));
+            List<Integer> shots = play(new BotTargeting(random, GameMode.CLASSIC), GameMode.CLASSIC, fleet, 100);
+            for (Ship ship : fleet) {
+                assertTrue(ship.isSunk());
+            }
+            assertEquals(shots.size(), shots.stream().distinct().count());
+        }
+    }
+
+    // Same seed, same board: the fork/join pass must pick exactly the shots of the
+    // sequential one, through hunting, targeting and sunk ships
+    @Test
+    void parallelPassPicksTheSequentialShots() {
+        for (GameMode mode : new GameMode[]{GameMode.CLASSIC, LARGE}) {
+            List<int[]> fleet = BotTargeting.randomFleet(mode, new Random(11));
+            List<Integer> sequential = play(new BotTargeting(new Random(13), mode, Integer.MAX_VALUE),
+                    mode, ships(mode, fleet), 300);
+            List<Integer> parallel = play(new BotTargeting(new Random(13), mode, 0),
+                    mode, ships(mode, fleet), 300);
+            assertFalse(sequential.isEmpty());
+            assertEquals(sequential, parallel);
+        }
+    }
+}
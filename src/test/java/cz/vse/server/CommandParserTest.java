@@ -0,0 +1,330 @@
+package cz.vse.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// CommandParser against the String based parsing it replaced (ClientHandler and
+// BattleshipGame before the byte parser, see Legacy below): whatever the old code
+// accepted must come out the same, and what it rejected must be rejected.
+class CommandParserTest {
+
+    // The old handling, line by line: PLACE split into type and positions with "(n)"
+    // removed from both, FIRE split at ','. A thrown exception meant a rejected line.
+    private static final class Legacy {
+        final String shipType;
+        final int[] cells;
+        final ParseError error;
+
+        private Legacy(String shipType, int[] cells, ParseError error) {
+            this.shipType = shipType;
+            this.cells = cells;
+            this.error = error;
+        }
+
+        static Legacy place(String message) {
+            String[] parts = message.split(" ", 3);
+            if (parts.length < 3) {
+                return new Legacy(null, null, ParseError.INVALID_PLACE_FORMAT);
+            }
+            String shipType = parts[1].replaceAll("\\(\\d+\\)", "").trim();
+            String positions = parts[2].replaceAll("\\(\\d+\\)", "").trim();
+            List<Integer> cells = new ArrayList<>();
+            try {
+                for (String coord : positions.split(" ")) {
+                    String[] xy = coord.split(",");
+                    cells.add(Integer.parseInt(xy[0].trim()));
+                    cells.add(Integer.parseInt(xy[1].trim()));
+                }
+            } catch (RuntimeException e) {
+                return new Legacy(null, null, ParseError.INVALID_PLACE_FORMAT);
+            }
+            return new Legacy(shipType, cells.stream().mapToInt(Integer::intValue).toArray(), ParseError.NONE);
+        }
+
+        static Legacy fire(String message) {
+            String[] parts = message.substring(5).trim().split(",");
+            if (parts.length != 2) {
+                return new Legacy(null, null, ParseError.INVALID_MOVE_FORMAT);
+            }
+            try {
+                int x = Integer.parseInt(parts[0].trim());
+                int y = Integer.parseInt(parts[1].trim());
+                return new Legacy(null, new int[]{x, y}, ParseError.NONE);
+            } catch (NumberFormatException e) {
+                return new Legacy(null, null, ParseError.INVALID_COORDINATES);
+            }
+        }
+    }
+
+    private static Command parse(String line) {
+        return parse(line, new Command());
+    }
+
+    private static Command parse(String line, Command command) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return CommandParser.parse(bytes, bytes.length, command);
+    }
+
+    private static int[] cells(Command command, int from, int to) {
+        int[] cells = new int[2 * (to - from)];
+        for (int i = from; i < to; i++) {
+            cells[2 * (i - from)] = command.getCellX(i);
+            cells[2 * (i - from) + 1] = command.getCellY(i);
+        }
+        return cells;
+    }
+
+    private static String argument(String line, Command command) {
+        return line.substring(command.argumentStart).trim();
+    }
+
+    @Test
+    void keywordsIgnoreCaseButNotExtraText() {
+        assertEquals(CommandType.CHECK, parse("CHECK").getType());
+        assertEquals(CommandType.CHECK, parse("check").getType());
+        assertEquals(CommandType.EXIT, parse("Exit").getType());
+        assertEquals(CommandType.READY, parse("rEaDy").getType());
+        // equalsIgnoreCase in the old code: nothing may follow the keyword
+        assertEquals(CommandType.UNKNOWN, parse("CHECK ").getType());
+        assertEquals(CommandType.UNKNOWN, parse("READY!").getType());
+        assertEquals(CommandType.UNKNOWN, parse("").getType());
+        assertEquals(CommandType.UNKNOWN, parse("HELLO").getType());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"LOGIN: alice", "LOGIN:   bob  ", "LOGIN: alice (large)", "LOGIN: carol (9)"})
+    void loginKeepsTheArgumentForTheHandler(String line) {
+        Command command = parse(line);
+        assertEquals(CommandType.LOGIN, command.getType());
+        assertFalse(command.isBinary());
+        // The old code took substring(7).trim(); the mode suffix is up to ClientHandler
+        assertEquals(line.substring(7).trim(), argument(line, command));
+    }
+
+    @Test
+    void loginIsCaseSensitive() {
+        // Like startsWith() was
+        assertEquals(CommandType.UNKNOWN, parse("login: alice").getType());
+        assertEquals(CommandType.UNKNOWN, parse("LOGIN:alice").getType());
+    }
+
+    @Test
+    void loginBinaryAsksForTheBinaryProtocol() {
+        Command command = parse("LOGIN-BINARY: dave");
+        assertEquals(CommandType.LOGIN, command.getType());
+        assertTrue(command.isBinary());
+        assertEquals("dave", argument("LOGIN-BINARY: dave", command));
+    }
+
+    @Test
+    void watchKeepsThePlayersName() {
+        Command command = parse("WATCH alice");
+        assertEquals(CommandType.WATCH, command.getType());
+        assertEquals("alice", argument("WATCH alice", command));
+    }
+
+    @Test
+    void resumeKeepsTheToken() {
+        Command command = parse("RESUME 00ff");
+        assertEquals(CommandType.RESUME, command.getType());
+        assertEquals("00ff", argument("RESUME 00ff", command));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "PLACE Battleship 1,2 2,2 3,2 4,2",
+            "PLACE battleship 1,2 2,2 3,2 4,2",
+            "PLACE Battleship(4) 1,2 2,2 3,2 4,2",
+            "PLACE Battleship (4) 1,2 2,2 3,2 4,2",
+            "PLACE Destroyer 0,0 0,1 0,2 (3)",
+            "PLACE Destroyer(3) 0,0 0,1(3) 0,2",
+            "PLACE PatrolBoat 9,9 9,8   ",
+            "PLACE L-Ship 5,5 5,6 6,6",
+            "PLACE T-Ship(4) 1,1 1,2 1,3 2,2",
+            "PLACE PatrolBoat -1,0 0,0",
+            "PLACE PatrolBoat 100,200 100,201",
+    })
+    void placeMatchesLegacyParsing(String line) {
+        Legacy legacy = Legacy.place(line);
+        assertEquals(ParseError.NONE, legacy.error, "legacy rejected " + line);
+        Command command = parse(line);
+        assertEquals(CommandType.PLACE, command.getType());
+        assertTrue(command.isValid(), () -> line + ": " + command.getError());
+        assertTrue(command.getShipType().getDisplayName().equalsIgnoreCase(legacy.shipType), line);
+        assertArrayEquals(legacy.cells, cells(command, 0, command.getCellCount()), line);
+    }
+
+    @Test
+    void placeKeepsTheLengthHint() {
+        assertEquals(4, parse("PLACE Battleship(4) 1,2 2,2 3,2 4,2").getDeclaredLength());
+        assertEquals(3, parse("PLACE Destroyer 0,0 0,1 0,2 (3)").getDeclaredLength());
+        assertEquals(0, parse("PLACE Destroyer 0,0 0,1 0,2").getDeclaredLength());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "PLACE",
+            "PLACE ",
+            "PLACE Battleship",
+            "PLACE Battleship ",
+            "PLACE Battleship 1",
+            "PLACE Battleship 1,",
+            "PLACE Battleship ,1",
+            "PLACE Battleship a,b",
+            "PLACE Battleship 1,2 x",
+            "PLACE Battleship (x) 1,2",
+            "PLACE Battleship (4 1,2",
+            "PLACE Battleship 1;2",
+    })
+    void placeRejectsWhatLegacyRejected(String line) {
+        assertEquals(ParseError.INVALID_PLACE_FORMAT, Legacy.place(line).error, "legacy accepted " + line);
+        Command command = parse(line);
+        if (command.getType() == CommandType.PLACE) {
+            assertEquals(ParseError.INVALID_PLACE_FORMAT, command.getError(), line);
+        } else {
+            // "PLACE" alone never reached the PLACE branch of the old code either
+            assertEquals(CommandType.UNKNOWN, command.getType(), line);
+        }
+    }
+
+    @Test
+    void unknownShipTypesAreRejected() {
+        // The old code stored any type name and failed later; this is a deliberate change
+        Command command = parse("PLACE Submarine 1,1 1,2");
+        assertEquals(ParseError.UNKNOWN_SHIP_TYPE, command.getError());
+        assertNull(command.getShipType());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"FIRE 3,4", "FIRE  3 , 4 ", "FIRE 0,0", "FIRE -1,5", "FIRE +2,3", "FIRE 10,99", "FIRE 123456789,1"})
+    void fireMatchesLegacyParsing(String line) {
+        Legacy legacy = Legacy.fire(line);
+        assertEquals(ParseError.NONE, legacy.error, "legacy rejected " + line);
+        Command command = parse(line);
+        assertEquals(CommandType.FIRE, command.getType());
+        assertTrue(command.isValid(), () -> line + ": " + command.getError());
+        assertArrayEquals(legacy.cells, new int[]{command.getX(), command.getY()}, line);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"FIRE 3", "FIRE ", "FIRE 3,4,5", "FIRE a,b", "FIRE ,4", "FIRE 3 4,5",
+            "FIRE 1.5,2", "FIRE 99999999999,1", "FIRE 1,-"})
+    void fireRejectsWhatLegacyRejected(String line) {
+        Legacy legacy = Legacy.fire(line);
+        assertFalse(legacy.error == ParseError.NONE, "legacy accepted " + line);
+        Command command = parse(line);
+        assertEquals(CommandType.FIRE, command.getType());
+        assertEquals(legacy.error, command.getError(), line);
+    }
+
+    @Test
+    void fireWithAnEmptyCoordinate() {
+        // split(",") dropped the empty tail, so the old code saw one part; now the
+        // missing number is reported, but the move is still refused
+        assertEquals(ParseError.INVALID_MOVE_FORMAT, Legacy.fire("FIRE 3,").error);
+        assertEquals(ParseError.INVALID_COORDINATES, parse("FIRE 3,").getError());
+    }
+
+    @Test
+    void coordinateErrorsNameTheModesRange() {
+        assertEquals("ERROR: Invalid coordinates! Use numbers between 0-9.",
+                ParseError.INVALID_COORDINATES.getMessage(GameMode.CLASSIC));
+        assertEquals("ERROR: Invalid coordinates! Use numbers between 0-99.",
+                ParseError.INVALID_COORDINATES.getMessage(GameMode.forName("large")));
+        assertEquals(ParseError.INVALID_MOVE_FORMAT.getMessage(GameMode.CLASSIC),
+                ParseError.INVALID_MOVE_FORMAT.getMessage(GameMode.forName("large")));
+    }
+
+    @Test
+    void placeAllEqualsOnePlacePerShip() {
+        String[] ships = {"Battleship 1,2 2,2 3,2 4,2", "Destroyer(3) 6,6 6,7 6,8", "PatrolBoat 0,0 0,1 (2)",
+                "L-Ship 9,0 9,1 8,1", "t-ship 4,6 4,7 4,8 5,7"};
+        String line = "PLACEALL " + String.join("; ", ships) + ";";
+        Command command = parse(line);
+        assertEquals(CommandType.PLACE_ALL, command.getType());
+        assertTrue(command.isValid(), () -> String.valueOf(command.getError()));
+        assertEquals(ships.length, command.getShipCount());
+        for (int i = 0; i < ships.length; i++) {
+            Legacy legacy = Legacy.place("PLACE " + ships[i]);
+            assertTrue(command.shipTypes[i].getDisplayName().equalsIgnoreCase(legacy.shipType), ships[i]);
+            assertArrayEquals(legacy.cells, cells(command, command.shipStart[i], command.shipStart[i + 1]), ships[i]);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"PLACEALL ", "PLACEALL ;;", "PLACEALL Battleship", "PLACEALL Battleship 1,2; Destroyer x,y"})
+    void placeAllRejectsMalformedShips(String line) {
+        assertEquals(ParseError.INVALID_PLACE_ALL_FORMAT, parse(line).getError(), line);
+    }
+
+    @Test
+    void tooManyCells() {
+        StringBuilder cells = new StringBuilder("PLACE Battleship");
+        for (int i = 0; i <= Command.MAX_CELLS; i++) {
+            cells.append(' ').append(i).append(",0");
+        }
+        assertEquals(ParseError.TOO_MANY_CELLS, parse(cells.toString()).getError());
+    }
+
+    @Test
+    void tooManyShips() {
+        StringBuilder fleet = new StringBuilder("PLACEALL");
+        for (int i = 0; i <= Command.MAX_SHIPS; i++) {
+            fleet.append(" PatrolBoat ").append(i).append(",0 ").append(i).append(",1;");
+        }
+        assertEquals(ParseError.TOO_MANY_SHIPS, parse(fleet.toString()).getError());
+    }
+
+    @Test
+    void overlongLinesAreParsedWithoutFailing() {
+        String digits = "7".repeat(8000);
+        assertEquals(ParseError.INVALID_COORDINATES, parse("FIRE " + digits + ",1").getError());
+        assertEquals(ParseError.INVALID_PLACE_FORMAT, parse("PLACE Battleship " + digits + ",1").getError());
+
+        // Padding is harmless, as it was for split(" ", 3) and trim()
+        String padded = "PLACE Battleship" + " ".repeat(8000) + "1,2 2,2 3,2 4,2" + " ".repeat(8000);
+        Legacy legacy = Legacy.place(padded);
+        Command command = parse(padded);
+        assertTrue(command.isValid());
+        assertArrayEquals(legacy.cells, cells(command, 0, command.getCellCount()));
+
+        String name = "x".repeat(8000);
+        assertEquals(name, argument("LOGIN: " + name, parse("LOGIN: " + name)));
+    }
+
+    @Test
+    void aReusedCommandCarriesNothingOver() {
+        Command command = new Command();
+        parse("PLACEALL Battleship 1,2 2,2 3,2 4,2; Destroyer 6,6 6,7 6,8 (3)", command);
+        assertEquals(2, command.getShipCount());
+        parse("FIRE 3,4", command);
+        assertEquals(0, command.getShipCount());
+
+        parse("PLACE Destroyer 6,6 6,7 6,8 (3)", command);
+        assertEquals(3, command.getCellCount());
+        parse("FIRE 3,4", command);
+        assertEquals(CommandType.FIRE, command.getType());
+        assertTrue(command.isValid());
+        assertEquals(0, command.getCellCount());
+        assertEquals(0, command.getDeclaredLength());
+        assertNull(command.getShipType());
+
+        parse("FIRE x", command);
+        assertFalse(command.isValid());
+        parse("check", command);
+        assertTrue(command.isValid());
+        assertNotNull(command.getType());
+    }
+}
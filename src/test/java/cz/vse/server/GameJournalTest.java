@@ -0,0 +1,184 @@
+package cz.vse.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Segment size and retention come from the surefire configuration in the pom: a game
+// takes about two segments there, so games are split across segments
+class GameJournalTest {
+    @TempDir
+    Path dir;
+
+    // A classic game with random shots, journaled the way BattleshipGame does: played
+    // to the end, or stopped after 'maxShots' and then forfeited or left open. Returns
+    // the number of events written.
+    private static int play(long game, Random random, int maxShots, boolean forfeit) {
+        GameEngine engine = new GameEngine(GameMode.CLASSIC);
+        GameJournal.created(game, GameMode.CLASSIC, "alice", "bob");
+        int events = 1;
+        ShipType[] types = ShipType.values();
+        List<List<Integer>> targets = new ArrayList<>();
+        for (int seat = 0; seat < 2; seat++) {
+            List<int[]> fleet = BotTargeting.randomFleet(GameMode.CLASSIC, random);
+            for (int s = 0; s < types.length; s++) {
+                int[] cells = fleet.get(s);
+                assertEquals(GameEngine.Placement.PLACED, engine.placeShip(seat, types[s], cells, 0, cells.length / 2));
+                GameJournal.placed(game, seat, types[s], cells, 0, cells.length / 2);
+                events++;
+            }
+            List<Integer> cells = new ArrayList<>();
+            for (int cell = 0; cell < Bitboard.CELLS; cell++) {
+                cells.add(cell);
+            }
+            Collections.shuffle(cells, random);
+            targets.add(cells);
+        }
+        while (engine.getState() == GameState.IN_PROGRESS && engine.getShots() < maxShots) {
+            int seat = engine.getTurn();
+            int cell = targets.get(seat).remove(targets.get(seat).size() - 1);
+            GameEngine.Shot shot = engine.fire(seat, Bitboard.row(cell), Bitboard.column(cell));
+            GameJournal.fired(game, seat, Bitboard.row(cell), Bitboard.column(cell), shot);
+            events += 2;
+        }
+        if (engine.getState() == GameState.IN_PROGRESS && forfeit) {
+            int seat = engine.getTurn();
+            engine.forfeit(seat);
+            GameJournal.forfeit(game, seat);
+            events++;
+        }
+        if (engine.getState() == GameState.FINISHED) {
+            GameJournal.finished(game, engine.getWinner(), engine.getShots());
+            events++;
+        }
+        return events;
+    }
+
+    private JournalReplay replay() throws IOException {
+        JournalReplay replay = new JournalReplay(-1);
+        for (Path segment : GameJournal.segments(dir)) {
+            replay.replay(JournalReplay.map(segment));
+        }
+        return replay;
+    }
+
+    @Test
+    void replayRebuildsTheJournaledGames() throws IOException {
+        Random random = new Random(1);
+        GameJournal.open(dir);
+        int events;
+        try {
+            events = play(1, random, Integer.MAX_VALUE, false);
+            events += play(2, random, Integer.MAX_VALUE, false);
+            events += play(3, random, 20, true);
+            events += play(4, random, 10, false);
+        } finally {
+            GameJournal.close();
+        }
+        Path[] segments = GameJournal.segments(dir);
+        assertTrue(segments.length > 2, "the games should span several segments");
+        assertTrue(segments.length <= GameJournal.RETAIN);
+
+        JournalReplay replay = replay();
+        assertEquals(events, replay.events);
+        assertEquals(4, replay.created);
+        assertEquals(3, replay.finished);
+        assertEquals(0, replay.skipped);
+        assertEquals(0, replay.mismatches);
+    }
+
+    // The next run cuts the segments of the last one down to their complete records
+    // and deletes those without any
+    @Test
+    void reopeningTrimsTheSegmentsOfEarlierRuns() throws IOException {
+        GameJournal.open(dir);
+        int events;
+        try {
+            events = play(1, new Random(2), 6, false);
+        } finally {
+            GameJournal.close();
+        }
+        Path first = GameJournal.segments(dir)[0];
+        assertEquals(GameJournal.SEGMENT_SIZE, Files.size(first));
+        assertEquals(events, replay().events);
+        int written = writtenBytes(first);
+        assertTrue(written > 0);
+        // A crash can leave a record whose length never made it, followed by one that
+        // was complete: everything from the incomplete one on is dropped
+        try (FileChannel channel = FileChannel.open(first, StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(2 * GameJournal.HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            torn.putInt(0, 0).put(4, GameJournal.FORFEIT);
+            torn.putInt(GameJournal.HEADER, GameJournal.HEADER).put(GameJournal.HEADER + 4, GameJournal.FORFEIT);
+            channel.write(torn, written);
+        }
+
+        GameJournal.open(dir);
+        GameJournal.close();
+        Path[] segments = GameJournal.segments(dir);
+        assertEquals(2, segments.length);
+        assertEquals(first, segments[0]);
+        assertEquals(written, Files.size(first));
+
+        // The second run wrote nothing, so the third removes its segment
+        GameJournal.open(dir);
+        GameJournal.close();
+        Path[] third = GameJournal.segments(dir);
+        assertEquals(2, third.length);
+        assertEquals(first, third[0]);
+        assertNotEquals(segments[1], third[1]);
+        assertEquals(events, replay().events);
+    }
+
+    @Test
+    void onlyTheNewestSegmentsAreKept() throws IOException, InterruptedException {
+        Random random = new Random(3);
+        GameJournal.open(dir);
+        try {
+            for (int game = 1; game <= 10; game++) {
+                play(game, random, Integer.MAX_VALUE, false);
+            }
+            // Sealed segments are pruned once the sync thread has synced them
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (GameJournal.segments(dir).length > GameJournal.RETAIN && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            GameJournal.close();
+        }
+        Path[] segments = GameJournal.segments(dir);
+        assertTrue(segments.length <= GameJournal.RETAIN, segments.length + " segments left");
+        assertTrue(Files.notExists(dir.resolve(String.format("%020d%s", 0, GameJournal.SUFFIX))));
+
+        // Games that began in a deleted segment are skipped, the others still replay
+        JournalReplay replay = replay();
+        assertTrue(replay.created < 10);
+        assertTrue(replay.finished > 0);
+        assertEquals(0, replay.mismatches);
+    }
+
+    // Bytes of complete records at the start of a segment file
+    private static int writtenBytes(Path segment) throws IOException {
+        ByteBuffer buffer = JournalReplay.map(segment);
+        int at = 0;
+        int length;
+        while (at <= buffer.capacity() - GameJournal.HEADER && (length = buffer.getInt(at)) > 0) {
+            at += length;
+        }
+        return at;
+    }
+}
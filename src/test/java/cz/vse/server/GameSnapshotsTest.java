@@ -0,0 +1,184 @@
+package cz.vse.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A restart is simulated by releasing the players' sessions between taking a copy and
+// restoring it, the way a new JVM would start with none
+class GameSnapshotsTest {
+    @TempDir
+    Path dir;
+
+    private final GameShard shard = new GameShard("snapshot-test-shard");
+
+    @BeforeEach
+    void startShard() {
+        shard.start();
+    }
+
+    @AfterEach
+    void stopShard() {
+        shard.shutdown();
+    }
+
+    // A classic game between the two names with both fleets placed and a few shots
+    // fired, each player holding a RESUME token
+    private BattleshipGame play(String name1, String name2) throws Exception {
+        Session player1 = Session.claim(name1);
+        Session player2 = Session.claim(name2);
+        assertNotNull(player1);
+        assertNotNull(player2);
+        player1.openToken(false);
+        player2.openToken(true);
+        BattleshipGame game = new BattleshipGame(player1, player2, shard);
+        PlayerOutput out = new TextOutput(new PrintWriter(Writer.nullWriter()));
+        Random random = new Random(7);
+        onShard(() -> {
+            ShipType[] types = ShipType.values();
+            for (Session player : new Session[]{player1, player2}) {
+                List<int[]> fleet = BotTargeting.randomFleet(GameMode.CLASSIC, random);
+                for (int s = 0; s < types.length; s++) {
+                    int[] cells = fleet.get(s);
+                    assertTrue(game.placeShip(player.getId(), types[s], cells, cells.length / 2, out));
+                }
+            }
+            // Whoever is not on turn is turned away
+            for (int cell = 0; cell < 10; cell++) {
+                for (Session player : new Session[]{player1, player2}) {
+                    game.processMove(player.getId(), Bitboard.row(cell), Bitboard.column(cell), out);
+                }
+            }
+        });
+        assertEquals(GameState.IN_PROGRESS, game.getGameState());
+        return game;
+    }
+
+    private void onShard(Runnable task) throws Exception {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        shard.execute(() -> {
+            try {
+                task.run();
+                done.complete(null);
+            } catch (Throwable e) {
+                done.completeExceptionally(e);
+            }
+        });
+        done.get(5, TimeUnit.SECONDS);
+    }
+
+    private static byte[] copy(BattleshipGame game) throws Exception {
+        return game.snapshot().get(5, TimeUnit.SECONDS);
+    }
+
+    private static void release(BattleshipGame game) {
+        game.getPlayer(0).release();
+        game.getPlayer(1).release();
+    }
+
+    @Test
+    void restoredGameCopiesToTheSameBytes() throws Exception {
+        BattleshipGame game = play("snapshot-alice", "snapshot-bob");
+        String token1 = game.getPlayer(0).getToken();
+        String token2 = game.getPlayer(1).getToken();
+        byte[] copy = copy(game);
+        // Until the game changes it hands out the copy it already has
+        assertSame(copy, copy(game));
+        release(game);
+
+        Path file = dir.resolve("games.snapshot");
+        GameSnapshots.write(file, List.of(copy));
+        GameSnapshots.restore(file);
+        assertEquals(1, GameSnapshots.restored);
+
+        Session player1 = Session.forToken(token1);
+        Session player2 = Session.forToken(token2);
+        assertNotNull(player1);
+        assertNotNull(player2);
+        assertEquals("snapshot-alice", player1.getUsername());
+        assertEquals("snapshot-bob", player2.getUsername());
+        assertFalse(player1.isBinary());
+        assertTrue(player2.isBinary());
+        BattleshipGame restored = player1.getGame();
+        assertNotNull(restored);
+        assertSame(restored, player2.getGame());
+        assertTrue(GameManager.getActiveGames().contains(restored));
+        assertEquals(game.getId(), restored.getId());
+        assertEquals(GameState.IN_PROGRESS, restored.getGameState());
+        assertTrue(restored.onSetupComplete().isDone());
+        // Boards, shots and turn included: the engine writes back what it read
+        assertArrayEquals(copy, copy(restored));
+
+        // Both players wait to RESUME, once
+        for (Session player : new Session[]{player1, player2}) {
+            assertSame(restored, player.resume());
+            assertNull(player.resume());
+            GameManager.release(player);
+        }
+        assertFalse(GameManager.getActiveGames().contains(restored));
+    }
+
+    @Test
+    void gameWithATakenNameIsSkipped() throws Exception {
+        BattleshipGame game = play("snapshot-carol", "snapshot-dave");
+        byte[] copy = copy(game);
+        release(game);
+        Path file = dir.resolve("games.snapshot");
+        GameSnapshots.write(file, List.of(copy));
+
+        Session taken = Session.claim("snapshot-dave");
+        try {
+            GameSnapshots.restore(file);
+            assertEquals(0, GameSnapshots.restored);
+            // The other name is not left claimed
+            assertNull(Session.forName("snapshot-carol"));
+            assertSame(taken, Session.forName("snapshot-dave"));
+            assertNull(taken.getGame());
+        } finally {
+            taken.release();
+        }
+    }
+
+    @Test
+    void writeReplacesTheWholeFile() throws Exception {
+        BattleshipGame game = play("snapshot-erin", "snapshot-frank");
+        byte[] copy = copy(game);
+        release(game);
+        Path file = dir.resolve("games.snapshot");
+        GameSnapshots.write(file, List.of(copy, copy));
+        long twoGames = Files.size(file);
+        GameSnapshots.write(file, List.of());
+        assertTrue(Files.size(file) < twoGames);
+        assertFalse(Files.exists(dir.resolve("games.snapshot.tmp")));
+        GameSnapshots.restore(file);
+        assertEquals(0, GameSnapshots.restored);
+    }
+
+    // A file that is not a snapshot restores nothing rather than failing the startup
+    @Test
+    void foreignFileRestoresNothing() throws IOException {
+        Path file = dir.resolve("games.snapshot");
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        GameSnapshots.restore(file);
+        assertEquals(0, GameSnapshots.restored);
+    }
+}
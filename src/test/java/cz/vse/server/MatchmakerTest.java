@@ -0,0 +1,136 @@
+package cz.vse.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Tickets need no Session: neither their states nor the pairing look at the player
+class MatchmakerTest {
+    private static Matchmaker.Ticket ticket(GameMode mode, int rating) {
+        return new Matchmaker.Ticket(null, mode, rating);
+    }
+
+    @Test
+    void claimSettlesToMatchedOrBackToWaiting() {
+        Matchmaker.Ticket ticket = ticket(GameMode.CLASSIC, 1000);
+        assertTrue(ticket.isWaiting());
+        assertTrue(ticket.claim());
+        assertFalse(ticket.isWaiting());
+        assertFalse(ticket.claim());
+
+        ticket.settle(false);
+        assertTrue(ticket.isWaiting());
+        assertTrue(ticket.claim());
+        ticket.settle(true);
+        assertFalse(ticket.isWaiting());
+        assertFalse(ticket.claim());
+        // Paired: too late to leave the queue
+        assertFalse(ticket.cancel());
+    }
+
+    @Test
+    void cancelledTicketCannotBeClaimed() {
+        Matchmaker.Ticket ticket = ticket(GameMode.CLASSIC, 1000);
+        assertTrue(ticket.cancel());
+        assertFalse(ticket.isWaiting());
+        assertFalse(ticket.claim());
+        assertFalse(ticket.cancel());
+    }
+
+    @Test
+    void cancelWaitsForTheClaimToSettle() throws Exception {
+        for (boolean matched : new boolean[]{false, true}) {
+            Matchmaker.Ticket ticket = ticket(GameMode.CLASSIC, 1000);
+            assertTrue(ticket.claim());
+            CompletableFuture<Boolean> cancelled = CompletableFuture.supplyAsync(ticket::cancel);
+            Thread.sleep(50);
+            assertFalse(cancelled.isDone());
+            ticket.settle(matched);
+            // A pairing that fell through leaves the player free to go
+            assertEquals(!matched, cancelled.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    // Exactly one of a racing claim and cancel wins, never both or neither
+    @Test
+    void claimAndCancelRaceToOneWinner() throws Exception {
+        int tickets = 10_000;
+        Matchmaker.Ticket[] queue = new Matchmaker.Ticket[tickets];
+        for (int i = 0; i < tickets; i++) {
+            queue[i] = ticket(GameMode.CLASSIC, 1000);
+        }
+        boolean[] claimed = new boolean[tickets];
+        boolean[] cancelled = new boolean[tickets];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread pairing = new Thread(() -> {
+            awaitQuietly(start);
+            for (int i = 0; i < tickets; i++) {
+                claimed[i] = queue[i].claim();
+                if (claimed[i]) {
+                    queue[i].settle(true);
+                }
+            }
+        });
+        Thread leaving = new Thread(() -> {
+            awaitQuietly(start);
+            for (int i = 0; i < tickets; i++) {
+                cancelled[i] = queue[i].cancel();
+            }
+        });
+        pairing.start();
+        leaving.start();
+        start.countDown();
+        pairing.join();
+        leaving.join();
+        for (int i = 0; i < tickets; i++) {
+            assertTrue(claimed[i] ^ cancelled[i], "ticket " + i);
+        }
+    }
+
+    @Test
+    void pairsPlayersOfTheSameModeOldestFirst() throws InterruptedException {
+        BlockingQueue<Matchmaker.Ticket[]> pairs = new LinkedBlockingQueue<>();
+        Matchmaker matchmaker = new Matchmaker("test-matchmaker",
+                (older, newer) -> pairs.add(new Matchmaker.Ticket[]{older, newer}));
+        matchmaker.start();
+
+        Matchmaker.Ticket first = ticket(GameMode.CLASSIC, 1000);
+        Matchmaker.Ticket large = ticket(GameMode.forName("large"), 1000);
+        Matchmaker.Ticket left = ticket(GameMode.CLASSIC, 1000);
+        Matchmaker.Ticket second = ticket(GameMode.CLASSIC, 1050);
+        matchmaker.offer(first);
+        matchmaker.offer(large);
+        assertTrue(left.cancel());
+        matchmaker.offer(left);
+        matchmaker.offer(second);
+
+        Matchmaker.Ticket[] pair = pairs.poll(5, TimeUnit.SECONDS);
+        assertNotNull(pair);
+        assertSame(first, pair[0]);
+        assertSame(second, pair[1]);
+        assertFalse(first.cancel());
+        assertFalse(second.cancel());
+        assertNull(pairs.poll(200, TimeUnit.MILLISECONDS));
+        assertTrue(large.isWaiting());
+        assertTrue(large.cancel());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
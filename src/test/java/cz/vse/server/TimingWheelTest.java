@@ -0,0 +1,104 @@
+package cz.vse.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A wheel of 1 ms ticks and few buckets, so timeouts go around it several times
+class TimingWheelTest {
+    private TimingWheel wheel;
+
+    @BeforeEach
+    void start() {
+        wheel = new TimingWheel("test-wheel", 1, 16);
+        wheel.start();
+    }
+
+    @AfterEach
+    void stop() {
+        wheel.shutdown();
+    }
+
+    private static boolean fires(Semaphore fired, long millis) throws InterruptedException {
+        return fired.tryAcquire(millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void oneShotFiresOnce() throws InterruptedException {
+        Semaphore fired = new Semaphore(0);
+        wheel.schedule(fired::release, 30);
+        assertTrue(fires(fired, 1000));
+        assertFalse(fires(fired, 100));
+    }
+
+    @Test
+    void touchPostponesTheDeadline() throws InterruptedException {
+        Semaphore fired = new Semaphore(0);
+        long start = System.nanoTime();
+        TimingWheel.Timeout timeout = wheel.schedule(fired::release, 50);
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(20);
+            timeout.touch(50);
+        }
+        assertTrue(fires(fired, 1000));
+        // Last touch at >= 100 ms, plus its 50 ms
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+        assertFalse(fires(fired, 100));
+    }
+
+    // An AFK timer that ran out before LOGIN must still run out after the next command
+    @Test
+    void touchAfterExpiryArmsTheTimeoutAgain() throws InterruptedException {
+        Semaphore fired = new Semaphore(0);
+        TimingWheel.Timeout timeout = wheel.schedule(fired::release, 20);
+        assertTrue(fires(fired, 1000));
+
+        timeout.touch(20);
+        assertTrue(fires(fired, 1000));
+        timeout.touch(20);
+        timeout.touch(40);
+        assertTrue(fires(fired, 1000));
+        assertFalse(fires(fired, 100));
+        assertEquals(0, wheel.getPendingTimers());
+    }
+
+    @Test
+    void cancelledTimeoutsNeverFire() throws InterruptedException {
+        Semaphore fired = new Semaphore(0);
+        TimingWheel.Timeout timeout = wheel.schedule(fired::release, 30);
+        timeout.cancel();
+        assertFalse(fires(fired, 150));
+
+        TimingWheel.Timeout expired = wheel.schedule(fired::release, 10);
+        assertTrue(fires(fired, 1000));
+        expired.cancel();
+        expired.touch(10);
+        assertFalse(fires(fired, 100));
+        assertTrue(expired.isCancelled());
+    }
+
+    @Test
+    void periodicTimeoutRepeatsUntilCancelled() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        Semaphore fired = new Semaphore(0);
+        TimingWheel.Timeout timeout = wheel.scheduleAtFixedRate(() -> {
+            runs.incrementAndGet();
+            fired.release();
+        }, 10, 10);
+        assertTrue(fired.tryAcquire(3, 1000, TimeUnit.MILLISECONDS));
+        timeout.cancel();
+        Thread.sleep(50);
+        int after = runs.get();
+        Thread.sleep(100);
+        assertEquals(after, runs.get());
+        assertEquals(0, wheel.getPendingTimers());
+    }
+}